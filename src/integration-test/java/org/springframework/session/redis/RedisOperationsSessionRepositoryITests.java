@@ -1,9 +1,10 @@
 package org.springframework.session.redis;
 
 import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.fail;
 
-import org.junit.After;
-import org.junit.Before;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,37 +13,58 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.session.BatchSessionRepository;
+import org.springframework.session.BinarySessionSerializer;
+import org.springframework.session.CompressingSessionSerializer;
+import org.springframework.session.FindByIndexNameSessionRepository;
 import org.springframework.session.Session;
 import org.springframework.session.SessionRepository;
+import org.springframework.session.SessionSizeMonitor;
+import org.springframework.session.events.SessionEvent;
+import org.springframework.session.events.SessionEventPublisher;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import redis.embedded.RedisServer;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration
 public class RedisOperationsSessionRepositoryITests {
-    private RedisServer redisServer;
+    private static RedisServer redisServer;
 
     @Autowired
     private SessionRepository repository;
 
-    @Before
-    public void setup() throws IOException {
+    @Autowired
+    private RedisTemplate<String, Session> redisTemplate;
+
+    // the server is shared by the tests since the connection pool outlives each test
+    @BeforeClass
+    public static void setup() throws IOException {
         redisServer = new RedisServer(getPort());
         redisServer.start();
     }
 
-    @After
-    public void shutdown() throws InterruptedException {
+    @AfterClass
+    public static void shutdown() throws InterruptedException {
         redisServer.stop();
     }
 
@@ -70,6 +92,460 @@ public class RedisOperationsSessionRepositoryITests {
         assertThat(repository.getSession(toSave.getId())).isNull();
     }
 
+    @Test
+    public void unreadAttributesSurviveSave() {
+        Session toSave = repository.createSession();
+        toSave.setAttribute("a", "b");
+        toSave.setAttribute("c", "d");
+        repository.save(toSave);
+
+        Session loaded = repository.getSession(toSave.getId());
+        assertThat(loaded.getAttributeNames()).containsOnly("a", "c");
+        loaded.setAttribute("e", "f");
+        loaded.removeAttribute("c");
+        repository.save(loaded);
+
+        Session session = repository.getSession(toSave.getId());
+        assertThat(session.getAttributeNames()).containsOnly("a", "e");
+        assertThat(session.getAttribute("a")).isEqualTo("b");
+        assertThat(session.getAttribute("e")).isEqualTo("f");
+
+        repository.delete(toSave.getId());
+    }
+
+    @Test
+    public void batchOperations() {
+        BatchSessionRepository<Session> batch = (BatchSessionRepository<Session>) repository;
+        List<Session> toSave = new ArrayList<Session>();
+        for(int i = 0; i < 3; i++) {
+            Session session = batch.createSession();
+            session.setAttribute("i", i);
+            toSave.add(session);
+        }
+
+        batch.saveAll(toSave);
+        List<String> ids = Arrays.asList(toSave.get(0).getId(), "missing", toSave.get(2).getId());
+        Map<String, Session> sessions = batch.getSessions(ids);
+
+        assertThat(new ArrayList<String>(sessions.keySet())).isEqualTo(Arrays.asList(toSave.get(0).getId(), toSave.get(2).getId()));
+        assertThat(sessions.get(toSave.get(2).getId()).getAttribute("i")).isEqualTo(2);
+
+        batch.deleteAll(Arrays.asList(toSave.get(0).getId(), toSave.get(1).getId(), toSave.get(2).getId()));
+
+        assertThat(batch.getSessions(ids)).isEmpty();
+    }
+
+    @Test
+    public void asyncOperations() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncRedisOperationsSessionRepository async = new AsyncRedisOperationsSessionRepository(
+                    (RedisOperationsSessionRepository) repository, executor);
+            List<Future<Void>> saves = new ArrayList<Future<Void>>();
+            List<Session> toSave = new ArrayList<Session>();
+            for(int i = 0; i < 10; i++) {
+                RedisOperationsSessionRepository.RedisSession session = async.createSession();
+                session.setAttribute("i", i);
+                toSave.add(session);
+                saves.add(async.save(session));
+            }
+            for(Future<Void> save : saves) {
+                save.get();
+            }
+
+            Future<Session> first = async.getSession(toSave.get(0).getId());
+            Future<Session> again = async.getSession(toSave.get(0).getId());
+            Future<Session> last = async.getSession(toSave.get(9).getId());
+
+            assertThat(first.get().getAttribute("i")).isEqualTo(0);
+            assertThat(again.get()).isNotSameAs(first.get());
+            assertThat(last.get().getAttribute("i")).isEqualTo(9);
+            for(Session session : toSave) {
+                async.delete(session.getId()).get();
+            }
+            assertThat(async.getSession(toSave.get(0).getId()).get()).isNull();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void binarySessionSerializer() {
+        RedisOperationsSessionRepository binary = new RedisOperationsSessionRepository(redisTemplate);
+        binary.setSessionSerializer(new BinarySessionSerializer());
+        RedisOperationsSessionRepository.RedisSession toSave = binary.createSession();
+        toSave.setAttribute("a", "b");
+        toSave.setAttribute("list", new ArrayList<String>(Arrays.asList("c")));
+        binary.save(toSave);
+
+        Session session = binary.getSession(toSave.getId());
+
+        assertThat(session.getCreationTime()).isEqualTo(toSave.getCreationTime());
+        assertThat(session.getMaxInactiveInterval()).isEqualTo(toSave.getMaxInactiveInterval());
+        assertThat(session.getAttribute("a")).isEqualTo("b");
+        assertThat(session.getAttribute("list")).isEqualTo(Arrays.asList("c"));
+        binary.delete(toSave.getId());
+    }
+
+    @Test
+    public void compressingSessionSerializer() {
+        RedisOperationsSessionRepository compressing = new RedisOperationsSessionRepository(redisTemplate);
+        CompressingSessionSerializer serializer = new CompressingSessionSerializer(new BinarySessionSerializer());
+        compressing.setSessionSerializer(serializer);
+        StringBuilder large = new StringBuilder();
+        for(int i = 0; i < 1000; i++) {
+            large.append("ROLE_").append(i % 10).append(',');
+        }
+        RedisOperationsSessionRepository.RedisSession toSave = compressing.createSession();
+        toSave.setAttribute("large", large.toString());
+        compressing.save(toSave);
+
+        Session session = compressing.getSession(toSave.getId());
+
+        assertThat(session.getAttribute("large")).isEqualTo(large.toString());
+        assertThat(serializer.getCompressedCount()).isEqualTo(1);
+        compressing.delete(toSave.getId());
+    }
+
+    @Test
+    public void findByPrincipalName() {
+        RedisOperationsSessionRepository redisRepository = (RedisOperationsSessionRepository) repository;
+        String principal = "user" + System.nanoTime();
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(new UsernamePasswordAuthenticationToken(principal, "password", AuthorityUtils.createAuthorityList("ROLE_USER")));
+        RedisOperationsSessionRepository.RedisSession first = redisRepository.createSession();
+        first.setAttribute("SPRING_SECURITY_CONTEXT", context);
+        RedisOperationsSessionRepository.RedisSession second = redisRepository.createSession();
+        second.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, principal);
+        redisRepository.saveAll(Arrays.asList(first, second));
+
+        Map<String, RedisOperationsSessionRepository.RedisSession> found = redisRepository.findByIndexNameAndIndexValue(
+                FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, principal);
+        assertThat(found.keySet()).containsOnly(first.getId(), second.getId());
+
+        Session loaded = redisRepository.getSession(second.getId());
+        loaded.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, principal + "-other");
+        redisRepository.save((RedisOperationsSessionRepository.RedisSession) loaded);
+        redisRepository.delete(first.getId());
+
+        assertThat(redisRepository.findByIndexNameAndIndexValue(
+                FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, principal)).isEmpty();
+        assertThat(redisRepository.findByIndexNameAndIndexValue(
+                FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, principal + "-other").keySet()).containsOnly(second.getId());
+        redisRepository.delete(second.getId());
+    }
+
+    @Test
+    public void sessionEvents() {
+        RedisOperationsSessionRepository publishing = new RedisOperationsSessionRepository(redisTemplate);
+        final List<String> events = new ArrayList<String>();
+        publishing.setSessionEventPublisher(new SessionEventPublisher() {
+            public void publish(SessionEvent event) {
+                events.add(event.getType() + ":" + event.getSessionId());
+            }
+        });
+        RedisOperationsSessionRepository.RedisSession session = publishing.createSession();
+        publishing.save(session);
+        publishing.save(session);
+
+        publishing.delete(session.getId());
+        publishing.delete(session.getId());
+
+        assertThat(events).isEqualTo(Arrays.asList("CREATED:" + session.getId(), "DELETED:" + session.getId()));
+    }
+
+    @Test
+    public void nearCache() {
+        InMemoryNearCacheInvalidationTransport transport = new InMemoryNearCacheInvalidationTransport();
+        RedisOperationsSessionRepository first = new RedisOperationsSessionRepository(redisTemplate);
+        first.setNearCacheInvalidationTransport(transport);
+        RedisOperationsSessionRepository second = new RedisOperationsSessionRepository(redisTemplate);
+        second.setNearCacheInvalidationTransport(transport);
+        RedisOperationsSessionRepository.RedisSession toSave = first.createSession();
+        toSave.setAttribute("a", "b");
+        first.save(toSave);
+
+        assertThat(first.getSession(toSave.getId()).getAttribute("a")).isEqualTo("b");
+        assertThat(second.getSession(toSave.getId()).getAttribute("a")).isEqualTo("b");
+        RedisOperationsSessionRepository.RedisSession modified = (RedisOperationsSessionRepository.RedisSession) second.getSession(toSave.getId());
+        modified.setAttribute("a", "c");
+        second.save(modified);
+
+        assertThat(first.getSession(toSave.getId()).getAttribute("a")).isEqualTo("c");
+        assertThat(second.getSession(toSave.getId()).getAttribute("a")).isEqualTo("c");
+        assertThat(first.getNearCacheHitCount()).isEqualTo(1);
+        assertThat(first.getNearCacheMissCount()).isEqualTo(1);
+        assertThat(second.getNearCacheHitCount()).isEqualTo(2);
+        assertThat(second.getNearCacheMissCount()).isEqualTo(1);
+
+        second.delete(toSave.getId());
+
+        assertThat(first.getSession(toSave.getId())).isNull();
+    }
+
+    @Test
+    public void nearCacheDetectsStaleReads() {
+        RedisOperationsSessionRepository first = new RedisOperationsSessionRepository(redisTemplate);
+        first.setNearCacheInvalidationTransport(new InMemoryNearCacheInvalidationTransport());
+        // the invalidations of first are not delivered to second
+        RedisOperationsSessionRepository second = new RedisOperationsSessionRepository(redisTemplate);
+        second.setNearCacheInvalidationTransport(new InMemoryNearCacheInvalidationTransport());
+        RedisOperationsSessionRepository.RedisSession toSave = first.createSession();
+        first.save(toSave);
+        second.getSession(toSave.getId());
+        RedisOperationsSessionRepository.RedisSession modified = (RedisOperationsSessionRepository.RedisSession) first.getSession(toSave.getId());
+        modified.setAttribute("a", "b");
+        first.save(modified);
+
+        RedisOperationsSessionRepository.RedisSession stale = (RedisOperationsSessionRepository.RedisSession) second.getSession(toSave.getId());
+        assertThat(stale.getAttribute("a")).isNull();
+        stale.setAttribute("c", "d");
+        second.save(stale);
+
+        assertThat(second.getNearCacheStaleReadCount()).isEqualTo(1);
+        Session session = second.getSession(toSave.getId());
+        assertThat(session.getAttribute("a")).isEqualTo("b");
+        assertThat(session.getAttribute("c")).isEqualTo("d");
+        first.delete(toSave.getId());
+    }
+
+    @Test
+    public void nearCacheSaveOfDeletedSession() {
+        RedisOperationsSessionRepository nearCached = new RedisOperationsSessionRepository(redisTemplate);
+        nearCached.setNearCacheInvalidationTransport(new InMemoryNearCacheInvalidationTransport());
+        RedisOperationsSessionRepository.RedisSession toSave = nearCached.createSession();
+        nearCached.save(toSave);
+        RedisOperationsSessionRepository.RedisSession modified = (RedisOperationsSessionRepository.RedisSession) nearCached.getSession(toSave.getId());
+        String key = "spring-security-sessions:" + toSave.getId();
+        redisTemplate.delete(key);
+
+        modified.setAttribute("a", "b");
+        nearCached.save(modified);
+
+        assertThat(nearCached.getSession(toSave.getId())).isNull();
+        assertThat(redisTemplate.getExpire(key)).isGreaterThan(0L);
+        nearCached.delete(toSave.getId());
+    }
+
+    @Test
+    public void nearCacheConcurrentWritersPublishDistinctVersions() {
+        InMemoryNearCacheInvalidationTransport transport = new InMemoryNearCacheInvalidationTransport();
+        RedisOperationsSessionRepository first = new RedisOperationsSessionRepository(redisTemplate);
+        first.setNearCacheInvalidationTransport(transport);
+        RedisOperationsSessionRepository second = new RedisOperationsSessionRepository(redisTemplate);
+        second.setNearCacheInvalidationTransport(transport);
+        RedisOperationsSessionRepository.RedisSession toSave = first.createSession();
+        first.save(toSave);
+        // both nodes read the same version before either of them saves
+        RedisOperationsSessionRepository.RedisSession fromFirst = (RedisOperationsSessionRepository.RedisSession) first.getSession(toSave.getId());
+        RedisOperationsSessionRepository.RedisSession fromSecond = (RedisOperationsSessionRepository.RedisSession) second.getSession(toSave.getId());
+
+        fromFirst.setAttribute("a", "b");
+        first.save(fromFirst);
+        fromSecond.setAttribute("c", "d");
+        second.save(fromSecond);
+
+        Session session = first.getSession(toSave.getId());
+        assertThat(session.getAttribute("a")).isEqualTo("b");
+        assertThat(session.getAttribute("c")).isEqualTo("d");
+        first.delete(toSave.getId());
+    }
+
+    @Test
+    public void redisNearCacheInvalidationTransport() throws Exception {
+        // the subscription uses its own connections, so they are not returned to the pool while subscribed
+        JedisConnectionFactory subscriptionConnectionFactory = new JedisConnectionFactory();
+        subscriptionConnectionFactory.setPort(getPort());
+        subscriptionConnectionFactory.afterPropertiesSet();
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(subscriptionConnectionFactory);
+        container.afterPropertiesSet();
+        container.start();
+        try {
+            RedisOperationsSessionRepository first = new RedisOperationsSessionRepository(redisTemplate);
+            first.setNearCacheInvalidationTransport(new RedisNearCacheInvalidationTransport(redisTemplate, container));
+            RedisOperationsSessionRepository second = new RedisOperationsSessionRepository(redisTemplate);
+            second.setNearCacheInvalidationTransport(new RedisNearCacheInvalidationTransport(redisTemplate, container));
+            RedisOperationsSessionRepository.RedisSession toSave = first.createSession();
+            first.save(toSave);
+            second.getSession(toSave.getId());
+
+            // the subscription is established asynchronously, so invalidations may be missed at first
+            Object seen = null;
+            for(int i = 0; i < 50 && !Integer.valueOf(i - 1).equals(seen); i++) {
+                toSave.setAttribute("count", i);
+                first.save(toSave);
+                Thread.sleep(100);
+                seen = second.getSession(toSave.getId()).getAttribute("count");
+            }
+
+            assertThat(seen).isEqualTo(toSave.getAttribute("count"));
+            second.getSession(toSave.getId());
+            assertThat(second.getNearCacheHitCount()).isGreaterThan(0);
+            first.delete(toSave.getId());
+        } finally {
+            container.destroy();
+            subscriptionConnectionFactory.destroy();
+        }
+    }
+
+    @Test
+    public void touchThreshold() {
+        RedisOperationsSessionRepository throttled = new RedisOperationsSessionRepository(redisTemplate);
+        throttled.setTouchThreshold(0.5);
+        RedisOperationsSessionRepository.RedisSession toSave = throttled.createSession();
+        toSave.setMaxInactiveInterval(60);
+        throttled.save(toSave);
+        long created = toSave.getLastAccessedTime();
+
+        Session touched = throttled.getSession(toSave.getId());
+        touched.setLastAccessedTime(created + 29000L);
+        throttled.save((RedisOperationsSessionRepository.RedisSession) touched);
+
+        assertThat(throttled.getSkippedTouchCount()).isEqualTo(1);
+        assertThat(throttled.getSession(toSave.getId()).getLastAccessedTime()).isEqualTo(created);
+
+        touched.setLastAccessedTime(created + 31000L);
+        throttled.save((RedisOperationsSessionRepository.RedisSession) touched);
+
+        assertThat(throttled.getSkippedTouchCount()).isEqualTo(1);
+        assertThat(throttled.getSession(toSave.getId()).getLastAccessedTime()).isEqualTo(created + 31000L);
+
+        Session modified = throttled.getSession(toSave.getId());
+        modified.setLastAccessedTime(created + 32000L);
+        modified.setAttribute("a", "b");
+        throttled.save((RedisOperationsSessionRepository.RedisSession) modified);
+
+        assertThat(throttled.getSession(toSave.getId()).getLastAccessedTime()).isEqualTo(created + 32000L);
+        throttled.delete(toSave.getId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void dirtyChecking() {
+        RedisOperationsSessionRepository checking = new RedisOperationsSessionRepository(redisTemplate);
+        checking.setDirtyChecking(true);
+        RedisOperationsSessionRepository.RedisSession toSave = checking.createSession();
+        toSave.setAttribute("list", new ArrayList<String>(Arrays.asList("a")));
+        toSave.setAttribute("unchanged", "b");
+        checking.save(toSave);
+
+        Session loaded = checking.getSession(toSave.getId());
+        ((List<String>) loaded.getAttribute("list")).add("c");
+        loaded.setAttribute("unchanged", "b");
+        checking.save((RedisOperationsSessionRepository.RedisSession) loaded);
+
+        assertThat(checking.getUnchangedAttributeCount()).isEqualTo(1);
+        Session session = checking.getSession(toSave.getId());
+        assertThat(session.getAttribute("list")).isEqualTo(Arrays.asList("a", "c"));
+        assertThat(session.getAttribute("unchanged")).isEqualTo("b");
+
+        ((List<String>) loaded.getAttribute("list")).add("d");
+        checking.save((RedisOperationsSessionRepository.RedisSession) loaded);
+
+        assertThat(checking.getSession(toSave.getId()).getAttribute("list")).isEqualTo(Arrays.asList("a", "c", "d"));
+        checking.delete(toSave.getId());
+    }
+
+    @Test
+    public void sessionSizeMonitor() {
+        RedisOperationsSessionRepository measuring = new RedisOperationsSessionRepository(redisTemplate);
+        SessionSizeMonitor monitor = new SessionSizeMonitor();
+        monitor.setHardLimit(10000);
+        measuring.setSessionSizeMonitor(monitor);
+        RedisOperationsSessionRepository.RedisSession toSave = measuring.createSession();
+        toSave.setAttribute("small", "a");
+        toSave.setAttribute("large", new byte[2000]);
+        measuring.save(toSave);
+        long large = monitor.getAttributeSizes().get("large").getMax();
+        long small = monitor.getAttributeSizes().get("small").getMax();
+
+        RedisOperationsSessionRepository.RedisSession loaded =
+                (RedisOperationsSessionRepository.RedisSession) measuring.getSession(toSave.getId());
+        loaded.setAttribute("small", "b");
+        measuring.save(loaded);
+
+        assertThat(large).isGreaterThan(2000);
+        assertThat(monitor.getAttributeSizes().get("large").getCount()).isEqualTo(2);
+        assertThat(monitor.getSessionSizes().getMax()).isEqualTo(large + small);
+
+        loaded.setAttribute("huge", new byte[20000]);
+        try {
+            measuring.save(loaded);
+            fail("Expected IllegalStateException");
+        } catch(IllegalStateException success) {
+            assertThat(success.getMessage()).contains("huge");
+        }
+        assertThat(measuring.getSession(toSave.getId()).getAttributeNames()).excludes("huge");
+        measuring.delete(toSave.getId());
+    }
+
+    @Test
+    public void asyncWritesOfSameSessionKeepOrder() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        AsyncRedisOperationsSessionRepository async = new AsyncRedisOperationsSessionRepository(
+                (RedisOperationsSessionRepository) repository, new Executor() {
+                    public void execute(Runnable command) {
+                        tasks.add(command);
+                    }
+                });
+        RedisOperationsSessionRepository.RedisSession loggedOut = async.createSession();
+        RedisOperationsSessionRepository.RedisSession other = async.createSession();
+        Future<Void> otherSave = async.save(other);
+        Future<Void> save = async.save(loggedOut);
+        Future<Void> delete = async.delete(loggedOut.getId());
+        Future<Void> saveAgain = async.save(loggedOut);
+        Future<Void> deleteAgain = async.delete(loggedOut.getId());
+
+        assertThat(tasks.size()).isEqualTo(1);
+        tasks.remove(0).run();
+
+        otherSave.get();
+        save.get();
+        delete.get();
+        saveAgain.get();
+        deleteAgain.get();
+        assertThat(repository.getSession(loggedOut.getId())).isNull();
+        assertThat(repository.getSession(other.getId())).isNotNull();
+        repository.delete(other.getId());
+    }
+
+    @Test
+    public void asyncSaveRejectsOnlyOversizedSession() throws Exception {
+        RedisOperationsSessionRepository measuring = new RedisOperationsSessionRepository(redisTemplate);
+        SessionSizeMonitor monitor = new SessionSizeMonitor();
+        monitor.setHardLimit(10000);
+        measuring.setSessionSizeMonitor(monitor);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        AsyncRedisOperationsSessionRepository async = new AsyncRedisOperationsSessionRepository(measuring,
+                new Executor() {
+                    public void execute(Runnable command) {
+                        tasks.add(command);
+                    }
+                });
+        RedisOperationsSessionRepository.RedisSession small = async.createSession();
+        small.setAttribute("a", "b");
+        RedisOperationsSessionRepository.RedisSession huge = async.createSession();
+        huge.setAttribute("huge", new byte[20000]);
+        Future<Void> smallSave = async.save(small);
+        Future<Void> hugeSave = async.save(huge);
+
+        // both saves are performed as a single batch
+        assertThat(tasks.size()).isEqualTo(1);
+        tasks.remove(0).run();
+
+        smallSave.get();
+        try {
+            hugeSave.get();
+            fail("Expected ExecutionException");
+        } catch(ExecutionException success) {
+            assertThat(success.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(measuring.getSession(small.getId()).getAttribute("a")).isEqualTo("b");
+        assertThat(measuring.getSession(huge.getId())).isNull();
+        measuring.delete(small.getId());
+    }
+
     @Configuration
     static class Config {
         @Bean
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.concurrent.ListenableFuture;
+
+/**
+ * A repository interface for managing {@link Session} instances without blocking the caller. Each operation that may
+ * perform I/O returns a {@link ListenableFuture} that completes once the operation does.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see ExecutorAsyncSessionRepository
+ * @see BlockingSessionRepositoryAdapter
+ */
+public interface AsyncSessionRepository<S extends Session> {
+    /**
+     * Saves the {@link Session} asynchronously.
+     *
+     * @param session the {@link Session} to save
+     * @return a {@link ListenableFuture} that completes when the {@link Session} has been saved
+     * @see SessionRepository#save(Session)
+     */
+    ListenableFuture<Void> save(S session);
+
+    /**
+     * Gets the {@link Session} by the {@link Session#getId()} asynchronously.
+     *
+     * @param id the {@link Session#getId()} to lookup
+     * @return a {@link ListenableFuture} that completes with the {@link Session} or null if no {@link Session} is found
+     * @see SessionRepository#getSession(String)
+     */
+    ListenableFuture<Session> getSession(String id);
+
+    /**
+     * Deletes the {@link Session} with the given {@link Session#getId()} asynchronously.
+     *
+     * @param id the {@link Session#getId()} to delete
+     * @return a {@link ListenableFuture} that completes when the {@link Session} has been deleted
+     * @see SessionRepository#delete(String)
+     */
+    ListenableFuture<Void> delete(String id);
+
+    /**
+     * Creates a new {@link Session} that is capable of being persisted by this {@link AsyncSessionRepository}. Since a
+     * new {@link Session} is not persisted until it is saved, this does not perform any I/O and does not block.
+     *
+     * @return a new {@link Session} that is capable of being persisted by this {@link AsyncSessionRepository}
+     * @see SessionRepository#createSession()
+     */
+    S createSession();
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A {@link SessionRepository} that can operate on many {@link Session} instances at once. Implementations perform each
+ * operation in as few round trips as the underlying store allows, which matters for tasks such as invalidating every
+ * {@link Session} of a user.
+ *
+ * <p>
+ * A {@link SessionRepository} that does not support batch operations can be adapted using
+ * {@link BatchSessionRepositoryAdapter}, which performs the operations one {@link Session} at a time.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see BatchSessionRepositoryAdapter
+ */
+public interface BatchSessionRepository<S extends Session> extends SessionRepository<S> {
+
+    /**
+     * Gets the {@link Session} instances with the provided {@link Session#getId()}s. Identifiers with no
+     * {@link Session} are omitted from the result.
+     *
+     * @param ids the {@link Session#getId()}s to lookup. Cannot be null.
+     * @return the {@link Session} instances that were found keyed by {@link Session#getId()}, in the iteration order
+     * of the provided ids. Never null.
+     */
+    Map<String, Session> getSessions(Collection<String> ids);
+
+    /**
+     * Saves all of the provided {@link Session} instances as if {@link #save(Session)} was invoked for each of them.
+     *
+     * @param sessions the {@link Session} instances to save. Cannot be null.
+     */
+    void saveAll(Collection<? extends S> sessions);
+
+    /**
+     * Deletes the {@link Session} instances with the provided {@link Session#getId()}s. Identifiers with no
+     * {@link Session} are ignored.
+     *
+     * @param ids the {@link Session#getId()}s to delete. Cannot be null.
+     */
+    void deleteAll(Collection<String> ids);
+}
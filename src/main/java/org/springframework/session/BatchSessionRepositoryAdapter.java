@@ -0,0 +1,101 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adapts any {@link SessionRepository} to a {@link BatchSessionRepository} by performing each batch operation one
+ * {@link Session} at a time. This allows code that uses the batch operations to work with every
+ * {@link SessionRepository}, while the implementations that support them natively are used directly.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class BatchSessionRepositoryAdapter<S extends Session> implements BatchSessionRepository<S> {
+    private final SessionRepository<S> delegate;
+
+    /**
+     * Creates a new instance
+     *
+     * @param delegate the {@link SessionRepository} to delegate to. Cannot be null.
+     */
+    public BatchSessionRepositoryAdapter(SessionRepository<S> delegate) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        this.delegate = delegate;
+    }
+
+    /**
+     * Gets a {@link BatchSessionRepository} for the provided {@link SessionRepository}. If the
+     * {@link SessionRepository} already is a {@link BatchSessionRepository} it is returned as is, otherwise it is
+     * wrapped in a {@link BatchSessionRepositoryAdapter}.
+     *
+     * @param repository the {@link SessionRepository} to adapt. Cannot be null.
+     * @return a {@link BatchSessionRepository} for the provided {@link SessionRepository}
+     */
+    public static <S extends Session> BatchSessionRepository<S> adapt(SessionRepository<S> repository) {
+        if(repository instanceof BatchSessionRepository) {
+            return (BatchSessionRepository<S>) repository;
+        }
+        return new BatchSessionRepositoryAdapter<S>(repository);
+    }
+
+    public Map<String, Session> getSessions(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        Map<String, Session> result = new LinkedHashMap<String, Session>();
+        for(String id : ids) {
+            Session session = delegate.getSession(id);
+            if(session != null) {
+                result.put(id, session);
+            }
+        }
+        return result;
+    }
+
+    public void saveAll(Collection<? extends S> sessions) {
+        Assert.notNull(sessions, "sessions cannot be null");
+        for(S session : sessions) {
+            delegate.save(session);
+        }
+    }
+
+    public void deleteAll(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        for(String id : ids) {
+            delegate.delete(id);
+        }
+    }
+
+    public void save(S session) {
+        delegate.save(session);
+    }
+
+    public Session getSession(String id) {
+        return delegate.getSession(id);
+    }
+
+    public void delete(String id) {
+        delegate.delete(id);
+    }
+
+    public S createSession() {
+        return delegate.createSession();
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.core.serializer.support.SerializationFailedException;
+import org.springframework.util.Assert;
+
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * A {@link SessionSerializer} that uses a compact binary format for the types that are common in sessions and falls
+ * back to Java serialization for everything else.
+ * </p>
+ *
+ * <p>
+ * Each value starts with a version byte followed by a tag byte identifying the type. {@link Integer} and
+ * {@link Long} values, which includes the metadata of a {@link Session}, are written as variable length integers, so
+ * a timestamp takes 8 bytes instead of the more than 80 bytes Java serialization produces. {@link String},
+ * {@link Boolean}, {@link Double}, {@link Date} and byte arrays are supported natively as well.
+ * </p>
+ *
+ * <p>
+ * Additional types can be registered with {@link #registerType(int, Class, SessionSerializer)}, in which case values
+ * of that exact type are written as the registered id followed by the output of the provided
+ * {@link SessionSerializer}. The ids are part of the stored format, so a registration must not be changed or removed
+ * while values that use it may still be read. Types must be registered before the serializer is used.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class BinarySessionSerializer implements SessionSerializer {
+    /**
+     * The version of the format written by this serializer
+     */
+    static final byte VERSION = 1;
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte INTEGER = 2;
+    static final byte LONG = 3;
+    static final byte TRUE = 4;
+    static final byte FALSE = 5;
+    static final byte DOUBLE = 6;
+    static final byte BYTES = 7;
+    static final byte DATE = 8;
+    static final byte REGISTERED = 9;
+    static final byte JDK = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SessionSerializer fallback = new JdkSessionSerializer();
+
+    private final Map<Class<?>, Registration> registrationsByType = new HashMap<Class<?>, Registration>();
+
+    private final Map<Integer, Registration> registrationsById = new HashMap<Integer, Registration>();
+
+    /**
+     * Registers a type that is written using the provided {@link SessionSerializer} and identified by the provided id
+     * instead of its class name.
+     *
+     * @param id the id to identify the type with. Must be 0 or greater and not already registered.
+     * @param type the type to register. Only values of exactly this type are written using the registration.
+     * @param serializer the {@link SessionSerializer} used to write and read the values of the type. Cannot be null.
+     */
+    public void registerType(int id, Class<?> type, SessionSerializer serializer) {
+        Assert.isTrue(id >= 0, "id must be 0 or greater");
+        Assert.notNull(type, "type cannot be null");
+        Assert.notNull(serializer, "serializer cannot be null");
+        Assert.isTrue(!registrationsById.containsKey(id), "id " + id + " is already registered");
+        Assert.isTrue(!registrationsByType.containsKey(type), type + " is already registered");
+        Registration registration = new Registration(id, serializer);
+        registrationsById.put(id, registration);
+        registrationsByType.put(type, registration);
+    }
+
+    public byte[] serialize(Object value) {
+        Output output = new Output();
+        output.writeByte(VERSION);
+        if(value == null) {
+            output.writeByte(NULL);
+        } else if(value instanceof String) {
+            output.writeByte(STRING);
+            output.writeBytes(((String) value).getBytes(UTF_8));
+        } else if(value instanceof Integer) {
+            output.writeByte(INTEGER);
+            output.writeVarLong(zigZag((Integer) value));
+        } else if(value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeVarLong(zigZag((Long) value));
+        } else if(value instanceof Boolean) {
+            output.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if(value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeLong(Double.doubleToLongBits((Double) value));
+        } else if(value instanceof byte[]) {
+            output.writeByte(BYTES);
+            output.writeBytes((byte[]) value);
+        } else if(value.getClass() == Date.class) {
+            output.writeByte(DATE);
+            output.writeVarLong(zigZag(((Date) value).getTime()));
+        } else {
+            Registration registration = registrationsByType.get(value.getClass());
+            if(registration == null) {
+                output.writeByte(JDK);
+                output.writeRaw(fallback.serialize(value));
+            } else {
+                output.writeByte(REGISTERED);
+                output.writeVarLong(registration.id);
+                output.writeRaw(registration.serializer.serialize(value));
+            }
+        }
+        return output.toByteArray();
+    }
+
+    public Object deserialize(byte[] bytes) {
+        if(bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if(bytes.length < 2 || bytes[0] != VERSION) {
+            throw new SerializationFailedException("Unsupported session serialization format version " + bytes[0]);
+        }
+        Input input = new Input(bytes, 2);
+        try {
+            switch(bytes[1]) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return new String(input.readBytes(), UTF_8);
+                case INTEGER:
+                    return (int) unZigZag(input.readVarLong());
+                case LONG:
+                    return unZigZag(input.readVarLong());
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case DOUBLE:
+                    return Double.longBitsToDouble(input.readLong());
+                case BYTES:
+                    return input.readBytes();
+                case DATE:
+                    return new Date(unZigZag(input.readVarLong()));
+                case REGISTERED:
+                    int id = (int) input.readVarLong();
+                    Registration registration = registrationsById.get(id);
+                    if(registration == null) {
+                        throw new SerializationFailedException("No type is registered for id " + id);
+                    }
+                    return registration.serializer.deserialize(input.readRemaining());
+                case JDK:
+                    return fallback.deserialize(input.readRemaining());
+                default:
+                    throw new SerializationFailedException("Unknown session serialization tag " + bytes[1]);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new SerializationFailedException("Truncated session serialization format", e);
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Registration {
+        private final int id;
+        private final SessionSerializer serializer;
+
+        private Registration(int id, SessionSerializer serializer) {
+            this.id = id;
+            this.serializer = serializer;
+        }
+    }
+
+    /**
+     * A growable byte array. Unlike {@link java.io.ByteArrayOutputStream} it is not synchronized.
+     */
+    private static final class Output {
+        private byte[] buffer = new byte[32];
+        private int position;
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(8);
+            for(int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarLong(bytes.length);
+            writeRaw(bytes);
+        }
+
+        void writeRaw(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[position];
+            System.arraycopy(buffer, 0, result, 0, position);
+            return result;
+        }
+
+        private void ensureCapacity(int length) {
+            if(position + length > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length * 2, position + length)];
+                System.arraycopy(buffer, 0, grown, 0, position);
+                buffer = grown;
+            }
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buffer;
+        private int position;
+
+        Input(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new SerializationFailedException("Malformed variable length integer");
+        }
+
+        long readLong() {
+            long result = 0;
+            for(int i = 0; i < 8; i++) {
+                result = (result << 8) | (buffer[position++] & 0xFF);
+            }
+            return result;
+        }
+
+        byte[] readBytes() {
+            int length = (int) readVarLong();
+            if(length < 0 || position + length > buffer.length) {
+                throw new SerializationFailedException("Truncated session serialization format");
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(buffer, position, result, 0, length);
+            position += length;
+            return result;
+        }
+
+        byte[] readRemaining() {
+            byte[] result = new byte[buffer.length - position];
+            System.arraycopy(buffer, position, result, 0, result.length);
+            position = buffer.length;
+            return result;
+        }
+    }
+}
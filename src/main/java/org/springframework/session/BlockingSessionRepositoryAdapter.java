@@ -0,0 +1,85 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Adapts an {@link AsyncSessionRepository} to a {@link SessionRepository} by waiting for each operation to complete.
+ * This allows an {@link AsyncSessionRepository} to be used where a {@link SessionRepository} is required.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class BlockingSessionRepositoryAdapter<S extends Session> implements SessionRepository<S> {
+    private final AsyncSessionRepository<S> delegate;
+
+    /**
+     * Creates a new instance
+     *
+     * @param delegate the {@link AsyncSessionRepository} to delegate to. Cannot be null.
+     */
+    public BlockingSessionRepositoryAdapter(AsyncSessionRepository<S> delegate) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        this.delegate = delegate;
+    }
+
+    public void save(S session) {
+        await(delegate.save(session));
+    }
+
+    public Session getSession(String id) {
+        return await(delegate.getSession(id));
+    }
+
+    public void delete(String id) {
+        await(delegate.delete(id));
+    }
+
+    public S createSession() {
+        return delegate.createSession();
+    }
+
+    /**
+     * Waits for the provided {@link Future} to complete. If the operation failed with a {@link RuntimeException} or
+     * an {@link Error} it is rethrown as is, so callers observe the same exceptions as with a blocking
+     * {@link SessionRepository}.
+     *
+     * @param future the {@link Future} to wait for
+     * @return the result of the {@link Future}
+     * @throws IllegalStateException if the operation failed with a checked exception or the thread was interrupted
+     */
+    public static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the session repository", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("The session repository operation failed", cause);
+        }
+    }
+}
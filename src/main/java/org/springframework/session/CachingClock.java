@@ -0,0 +1,93 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+
+/**
+ * <p>
+ * A {@link Clock} that reads {@link System#currentTimeMillis()} on a background thread once per tick and returns the
+ * cached value, so that hot paths only read a volatile field. The value returned is at most one tick behind, which is
+ * irrelevant for session timestamps that are compared against intervals measured in seconds or minutes.
+ * </p>
+ *
+ * <p>
+ * The background thread is a daemon thread. It should be stopped with {@link #close()} when the {@link CachingClock}
+ * is no longer needed.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public final class CachingClock implements Clock, Closeable {
+    /**
+     * The default tick of 10 milliseconds
+     */
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    private final Thread ticker;
+
+    private volatile long currentTimeMillis = System.currentTimeMillis();
+
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new instance that ticks every {@link #DEFAULT_TICK_MILLIS} milliseconds
+     */
+    public CachingClock() {
+        this(DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param tickMillis the number of milliseconds between reads of {@link System#currentTimeMillis()}. Must be
+     * greater than 0.
+     */
+    public CachingClock(final long tickMillis) {
+        Assert.isTrue(tickMillis > 0, "tickMillis must be greater than 0");
+        this.ticker = new Thread("session-clock") {
+            @Override
+            public void run() {
+                while(running) {
+                    currentTimeMillis = System.currentTimeMillis();
+                    try {
+                        Thread.sleep(tickMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        };
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    public long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+
+    /**
+     * Stops the background thread. The time returned no longer changes once the {@link CachingClock} is closed.
+     */
+    public void close() {
+        running = false;
+        ticker.interrupt();
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+/**
+ * Provides the current time to the components that record when a {@link Session} was created and accessed. Injecting
+ * a {@link Clock} allows expiration to be tested deterministically and allows hot paths to use a cheaper, coarser
+ * clock.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see SystemClock
+ * @see CachingClock
+ * @see ManualClock
+ */
+public interface Clock {
+
+    /**
+     * Gets the current time.
+     *
+     * @return the current time in milliseconds since midnight of 1/1/1970 GMT
+     */
+    long currentTimeMillis();
+}
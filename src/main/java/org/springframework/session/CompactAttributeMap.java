@@ -0,0 +1,249 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * A {@link Map} of attribute names to values that is optimized for the handful of attributes most sessions hold. Up
+ * to {@link #THRESHOLD} attributes are kept in a single array of alternating names and values, which avoids the table
+ * and entry objects of a {@link HashMap} and makes copying a single array copy. Once there are more attributes than
+ * that, the attributes are moved to a {@link HashMap} so lookups stay constant time.
+ * </p>
+ *
+ * <p>
+ * Like {@link HashMap}, this implementation has no synchronization. Null names and values are not supported.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+final class CompactAttributeMap extends AbstractMap<String, Object> implements Serializable {
+    /**
+     * The maximum number of attributes that are kept in the array
+     */
+    static final int THRESHOLD = 8;
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * Alternating names and values. Only used while hashed is null.
+     */
+    private Object[] table = EMPTY;
+
+    private int size;
+
+    private HashMap<String, Object> hashed;
+
+    CompactAttributeMap() {
+    }
+
+    CompactAttributeMap(CompactAttributeMap original) {
+        if(original.hashed != null) {
+            this.hashed = new HashMap<String, Object>(original.hashed);
+        } else if(original.size > 0) {
+            this.table = new Object[original.size * 2];
+            System.arraycopy(original.table, 0, this.table, 0, original.size * 2);
+            this.size = original.size;
+        }
+    }
+
+    @Override
+    public int size() {
+        return hashed == null ? size : hashed.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return hashed == null ? indexOf(key) >= 0 : hashed.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if(hashed != null) {
+            return hashed.get(key);
+        }
+        int index = indexOf(key);
+        return index < 0 ? null : table[index + 1];
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if(hashed != null) {
+            return hashed.put(key, value);
+        }
+        int index = indexOf(key);
+        if(index >= 0) {
+            Object previous = table[index + 1];
+            table[index + 1] = value;
+            return previous;
+        }
+        if(size == THRESHOLD) {
+            hashed = new HashMap<String, Object>(THRESHOLD * 4);
+            for(int i = 0; i < size * 2; i += 2) {
+                hashed.put((String) table[i], table[i + 1]);
+            }
+            table = EMPTY;
+            size = 0;
+            return hashed.put(key, value);
+        }
+        if(table.length == size * 2) {
+            Object[] grown = new Object[Math.max(4, size * 4)];
+            System.arraycopy(table, 0, grown, 0, size * 2);
+            table = grown;
+        }
+        table[size * 2] = key;
+        table[size * 2 + 1] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if(hashed != null) {
+            return hashed.remove(key);
+        }
+        int index = indexOf(key);
+        if(index < 0) {
+            return null;
+        }
+        Object previous = table[index + 1];
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        hashed = null;
+        table = EMPTY;
+        size = 0;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        if(hashed != null) {
+            return hashed.keySet();
+        }
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new TableIterator<String>() {
+                    @Override
+                    String get(int index) {
+                        return (String) table[index];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CompactAttributeMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if(hashed != null) {
+            return hashed.entrySet();
+        }
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new TableIterator<Map.Entry<String, Object>>() {
+                    @Override
+                    Map.Entry<String, Object> get(int index) {
+                        return new SimpleImmutableEntry<String, Object>((String) table[index], table[index + 1]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CompactAttributeMap.this.size();
+            }
+        };
+    }
+
+    private int indexOf(Object key) {
+        Object[] table = this.table;
+        for(int i = 0; i < size * 2; i += 2) {
+            Object candidate = table[i];
+            if(candidate == key || candidate.equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        int last = (size - 1) * 2;
+        // the order of attributes is not significant, so the last attribute fills the gap
+        table[index] = table[last];
+        table[index + 1] = table[last + 1];
+        table[last] = null;
+        table[last + 1] = null;
+        size--;
+    }
+
+    /**
+     * Iterates the names of the table. Removal is supported, but since it moves the last entry into the removed slot,
+     * the iterator visits the removed slot again.
+     */
+    private abstract class TableIterator<T> implements Iterator<T> {
+        private int next;
+        private int current = -1;
+
+        public boolean hasNext() {
+            return hashed == null && next < size * 2;
+        }
+
+        public T next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next += 2;
+            return get(current);
+        }
+
+        public void remove() {
+            if(current < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(current);
+            next = current;
+            current = -1;
+        }
+
+        abstract T get(int index);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.core.serializer.support.SerializationFailedException;
+import org.springframework.util.Assert;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * A {@link SessionSerializer} that compresses the output of another {@link SessionSerializer} when it is at least
+ * {@link #setThreshold(int)} bytes. Each value is prefixed with a header byte identifying the codec, so values that
+ * are below the threshold, or that do not compress, are stored as is at the cost of a single byte. Since values are
+ * only decompressed when they are deserialized, a repository that deserializes attributes lazily (i.e.
+ * {@link org.springframework.session.redis.RedisOperationsSessionRepository}) only decompresses the attributes that
+ * are requested.
+ * </p>
+ *
+ * <p>
+ * The effectiveness of the compression can be monitored using {@link #getCompressedCount()} and
+ * {@link #getCompressionRatio()}.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class CompressingSessionSerializer implements SessionSerializer {
+    /**
+     * The default threshold of 1KB
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    static final byte NONE = 0;
+
+    static final byte DEFLATE = 1;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final SessionSerializer delegate;
+
+    private int threshold = DEFAULT_THRESHOLD;
+
+    private int compressionLevel = Deflater.BEST_SPEED;
+
+    private final StripedCounter compressedCount = new StripedCounter();
+
+    private final StripedCounter uncompressedBytes = new StripedCounter();
+
+    private final StripedCounter compressedBytes = new StripedCounter();
+
+    /**
+     * Creates a new instance
+     *
+     * @param delegate the {@link SessionSerializer} whose output is compressed. Cannot be null.
+     */
+    public CompressingSessionSerializer(SessionSerializer delegate) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        this.delegate = delegate;
+    }
+
+    /**
+     * Sets the minimum size, in bytes, of the serialized form of a value for it to be compressed. The default is
+     * {@link #DEFAULT_THRESHOLD}.
+     *
+     * @param threshold the minimum size of the serialized form of a value for it to be compressed. Must be 0 or
+     * greater.
+     */
+    public void setThreshold(int threshold) {
+        Assert.isTrue(threshold >= 0, "threshold must be 0 or greater");
+        this.threshold = threshold;
+    }
+
+    /**
+     * Sets the {@link Deflater} compression level. The default is {@link Deflater#BEST_SPEED}, since sessions are
+     * compressed on the request path.
+     *
+     * @param compressionLevel the compression level between 0 and 9
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        Assert.isTrue(compressionLevel >= 0 && compressionLevel <= 9, "compressionLevel must be between 0 and 9");
+        this.compressionLevel = compressionLevel;
+    }
+
+    public byte[] serialize(Object value) {
+        byte[] serialized = delegate.serialize(value);
+        if(serialized.length >= threshold) {
+            byte[] compressed = compress(serialized);
+            if(compressed != null) {
+                compressedCount.increment();
+                uncompressedBytes.add(serialized.length);
+                compressedBytes.add(compressed.length);
+                return compressed;
+            }
+        }
+        byte[] result = new byte[serialized.length + 1];
+        result[0] = NONE;
+        System.arraycopy(serialized, 0, result, 1, serialized.length);
+        return result;
+    }
+
+    public Object deserialize(byte[] bytes) {
+        if(bytes == null || bytes.length == 0) {
+            return null;
+        }
+        switch(bytes[0]) {
+            case NONE:
+                byte[] serialized = bytes.length == 1 ? EMPTY : new byte[bytes.length - 1];
+                System.arraycopy(bytes, 1, serialized, 0, serialized.length);
+                return delegate.deserialize(serialized);
+            case DEFLATE:
+                return delegate.deserialize(decompress(bytes));
+            default:
+                throw new SerializationFailedException("Unknown compression codec " + bytes[0]);
+        }
+    }
+
+    /**
+     * Gets the number of values that were compressed.
+     *
+     * @return the number of values that were compressed
+     */
+    public long getCompressedCount() {
+        return compressedCount.sum();
+    }
+
+    /**
+     * Gets the total size of the compressed values divided by their total size before compression. For example, 0.25
+     * means that the values that were compressed take a quarter of the space they would otherwise take.
+     *
+     * @return the compression ratio or 1 if no value has been compressed
+     */
+    public double getCompressionRatio() {
+        long before = uncompressedBytes.sum();
+        return before == 0 ? 1 : (double) compressedBytes.sum() / before;
+    }
+
+    /**
+     * Compresses the value into the format [DEFLATE][int uncompressed length][deflated bytes].
+     *
+     * @param serialized the bytes to compress
+     * @return the compressed bytes or null if compressing does not reduce the size
+     */
+    private byte[] compress(byte[] serialized) {
+        // the header alone is as large as a value of up to 5 bytes
+        if(serialized.length <= 5) {
+            return null;
+        }
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(serialized);
+            deflater.finish();
+            // there is no point in compressed output that is not smaller than the input
+            byte[] buffer = new byte[serialized.length];
+            int length = 5;
+            while(!deflater.finished()) {
+                if(length == buffer.length) {
+                    return null;
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            buffer[0] = DEFLATE;
+            buffer[1] = (byte) (serialized.length >>> 24);
+            buffer[2] = (byte) (serialized.length >>> 16);
+            buffer[3] = (byte) (serialized.length >>> 8);
+            buffer[4] = (byte) serialized.length;
+            byte[] result = new byte[length];
+            System.arraycopy(buffer, 0, result, 0, length);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] bytes) {
+        if(bytes.length < 5) {
+            throw new SerializationFailedException("Truncated compressed session attribute");
+        }
+        int length = ((bytes[1] & 0xFF) << 24) | ((bytes[2] & 0xFF) << 16) | ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, 5, bytes.length - 5);
+            byte[] result = new byte[length];
+            int read = 0;
+            while(read < length) {
+                int inflated = inflater.inflate(result, read, length - read);
+                if(inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new SerializationFailedException("Truncated compressed session attribute");
+                }
+                read += inflated;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new SerializationFailedException("Corrupt compressed session attribute", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An {@link AsyncSessionRepository} that performs the operations of a blocking {@link SessionRepository} using an
+ * {@link Executor}. The calling thread is free to do other work, while the blocking I/O is confined to the threads of
+ * the {@link Executor}, which should be sized for the number of concurrent operations against the underlying store.
+ *
+ * <p>
+ * Saves and deletes are performed in the order they were requested for each {@link Session#getId()}, even when the
+ * {@link Executor} has several threads. For example, a {@link Session} that is saved and then deleted (i.e. when
+ * logging out) cannot be revived by the save being performed after the delete. To do so the ids are spread across
+ * stripes, and the writes of each stripe are performed one at a time by a single task. Loads are not ordered.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class ExecutorAsyncSessionRepository<S extends Session> implements AsyncSessionRepository<S> {
+    /**
+     * The number of stripes the writes are ordered in. Must be a power of two.
+     */
+    private static final int WRITE_STRIPES = 64;
+
+    /**
+     * The number of writes a task performs before it makes room for the other tasks of the {@link Executor}
+     */
+    private static final int MAX_WRITES_PER_TASK = 64;
+
+    private final SessionRepository<S> delegate;
+
+    private final Executor executor;
+
+    private final WriteStripe[] writeStripes;
+
+    /**
+     * Creates a new instance
+     *
+     * @param delegate the {@link SessionRepository} to perform the operations with. Cannot be null.
+     * @param executor the {@link Executor} to perform the operations on. Cannot be null.
+     */
+    public ExecutorAsyncSessionRepository(SessionRepository<S> delegate, Executor executor) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.notNull(executor, "executor cannot be null");
+        this.delegate = delegate;
+        this.executor = executor;
+        this.writeStripes = new WriteStripe[WRITE_STRIPES];
+        for(int i = 0; i < writeStripes.length; i++) {
+            writeStripes[i] = new WriteStripe(executor);
+        }
+    }
+
+    public ListenableFuture<Void> save(final S session) {
+        return submitWrite(session.getId(), new Callable<Void>() {
+            public Void call() {
+                delegate.save(session);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Session> getSession(final String id) {
+        return submit(new Callable<Session>() {
+            public Session call() {
+                return delegate.getSession(id);
+            }
+        });
+    }
+
+    public ListenableFuture<Void> delete(final String id) {
+        return submitWrite(id, new Callable<Void>() {
+            public Void call() {
+                delegate.delete(id);
+                return null;
+            }
+        });
+    }
+
+    public S createSession() {
+        return delegate.createSession();
+    }
+
+    /**
+     * Gets the {@link SessionRepository} that the operations are performed with.
+     *
+     * @return the {@link SessionRepository} that the operations are performed with
+     */
+    protected SessionRepository<S> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Performs the provided operation using the {@link Executor}.
+     *
+     * @param operation the operation to perform
+     * @return a {@link ListenableFuture} that completes with the result of the operation
+     */
+    protected <T> ListenableFuture<T> submit(Callable<T> operation) {
+        ListenableFutureTask<T> task = new ListenableFutureTask<T>(operation);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Performs the provided write using the {@link Executor} after the writes that were submitted before for the same
+     * stripe of ids.
+     */
+    private ListenableFuture<Void> submitWrite(String id, Callable<Void> write) {
+        int hash = id.hashCode();
+        WriteStripe stripe = writeStripes[(hash ^ (hash >>> 16)) & (WRITE_STRIPES - 1)];
+        QueuedWrite queued = new QueuedWrite(write);
+        stripe.queue.add(queued);
+        stripe.schedule();
+        return queued.task;
+    }
+
+    /**
+     * The writes of a stripe of ids, which are performed one at a time by a single task of the {@link Executor}
+     */
+    private static final class WriteStripe implements Runnable {
+        private final Queue<QueuedWrite> queue = new ConcurrentLinkedQueue<QueuedWrite>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final Executor executor;
+
+        WriteStripe(Executor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Schedules a task unless one is scheduled already. If the {@link Executor} rejects the task, the queued
+         * writes are failed, since nothing would perform them.
+         */
+        void schedule() {
+            if(!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {
+                scheduled.set(false);
+                List<QueuedWrite> rejected = new ArrayList<QueuedWrite>();
+                QueuedWrite queued;
+                while((queued = queue.poll()) != null) {
+                    queued.rejection = e;
+                    rejected.add(queued);
+                }
+                for(QueuedWrite write : rejected) {
+                    write.task.run();
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                QueuedWrite queued;
+                for(int i = 0; i < MAX_WRITES_PER_TASK && (queued = queue.poll()) != null; i++) {
+                    queued.task.run();
+                }
+            } finally {
+                scheduled.set(false);
+                // writes that were queued after the last one was taken are performed by another task
+                if(!queue.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    /**
+     * A write that is waiting to be performed. The task fails with the rejection if the {@link Executor} rejected the
+     * task that would have performed it.
+     */
+    private static final class QueuedWrite {
+        private volatile RuntimeException rejection;
+
+        private final ListenableFutureTask<Void> task;
+
+        QueuedWrite(final Callable<Void> write) {
+            this.task = new ListenableFutureTask<Void>(new Callable<Void>() {
+                public Void call() throws Exception {
+                    if(rejection != null) {
+                        throw rejection;
+                    }
+                    return write.call();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import java.util.Map;
+
+/**
+ * A {@link SessionRepository} that maintains secondary indexes of its {@link Session} instances, so that all of the
+ * sessions with a given index value can be found without scanning the repository. For example, all of the sessions
+ * of a user can be found to display them or to enforce a limit on the number of concurrent sessions.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see PrincipalNameResolver
+ */
+public interface FindByIndexNameSessionRepository<S extends Session> extends SessionRepository<S> {
+    /**
+     * The name of the index of the principal name of each {@link Session}. The principal name is the value of the
+     * {@link Session} attribute of the same name or, if that attribute is not set, is taken from the Spring Security
+     * context stored in the {@link Session}.
+     *
+     * @see PrincipalNameResolver
+     */
+    String PRINCIPAL_NAME_INDEX_NAME = FindByIndexNameSessionRepository.class.getName() + ".PRINCIPAL_NAME_INDEX_NAME";
+
+    /**
+     * Finds the unexpired {@link Session} instances with the provided index value.
+     *
+     * @param indexName the name of the index (i.e. {@link #PRINCIPAL_NAME_INDEX_NAME})
+     * @param indexValue the value to find (i.e. the principal name)
+     * @return the {@link Session} instances that were found keyed by {@link Session#getId()}. Never null, and empty if
+     * the index is not supported.
+     */
+    Map<String, S> findByIndexNameAndIndexValue(String indexName, String indexValue);
+}
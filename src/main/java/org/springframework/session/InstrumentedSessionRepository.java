@@ -0,0 +1,154 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * A {@link SessionRepository} that records the latency, the number of invocations and the number of errors of each
+ * operation of the {@link SessionRepository} it decorates, along with the number of times
+ * {@link #getSession(String)} did or did not find a {@link Session}. It can decorate any {@link SessionRepository},
+ * such as {@link MapSessionRepository} or
+ * {@link org.springframework.session.redis.RedisOperationsSessionRepository}.
+ * </p>
+ *
+ * <p>
+ * The latencies are recorded in {@link LatencyHistogram} instances, which neither lock nor allocate, so the metrics
+ * can stay enabled in production. The metrics are read as {@link OperationSnapshot} instances through
+ * {@link SessionRepositoryMetricsMXBean}, which also allows exposing them through JMX.
+ * </p>
+ *
+ * <p>
+ * Only the operations of {@link SessionRepository} are decorated. In particular, the decorated repository is not a
+ * {@link BatchSessionRepository}, even if the {@link SessionRepository} it decorates is.
+ * </p>
+ *
+ * @param <S> the type of {@link Session} of the decorated {@link SessionRepository}
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class InstrumentedSessionRepository<S extends Session> implements SessionRepository<S>, SessionRepositoryMetricsMXBean {
+    private final SessionRepository<S> delegate;
+
+    private final LatencyHistogram getSessionLatencies = new LatencyHistogram();
+
+    private final LatencyHistogram saveLatencies = new LatencyHistogram();
+
+    private final LatencyHistogram deleteLatencies = new LatencyHistogram();
+
+    private final LatencyHistogram createSessionLatencies = new LatencyHistogram();
+
+    private final StripedCounter getSessionErrors = new StripedCounter();
+
+    private final StripedCounter saveErrors = new StripedCounter();
+
+    private final StripedCounter deleteErrors = new StripedCounter();
+
+    private final StripedCounter createSessionErrors = new StripedCounter();
+
+    private final StripedCounter hitCount = new StripedCounter();
+
+    private final StripedCounter missCount = new StripedCounter();
+
+    /**
+     * Creates a new instance
+     *
+     * @param delegate the {@link SessionRepository} to decorate. Cannot be null.
+     */
+    public InstrumentedSessionRepository(SessionRepository<S> delegate) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        this.delegate = delegate;
+    }
+
+    public S createSession() {
+        long start = System.nanoTime();
+        try {
+            return delegate.createSession();
+        } catch(RuntimeException e) {
+            createSessionErrors.increment();
+            throw e;
+        } finally {
+            createSessionLatencies.record(System.nanoTime() - start);
+        }
+    }
+
+    public void save(S session) {
+        long start = System.nanoTime();
+        try {
+            delegate.save(session);
+        } catch(RuntimeException e) {
+            saveErrors.increment();
+            throw e;
+        } finally {
+            saveLatencies.record(System.nanoTime() - start);
+        }
+    }
+
+    public Session getSession(String id) {
+        long start = System.nanoTime();
+        try {
+            Session session = delegate.getSession(id);
+            if(session == null) {
+                missCount.increment();
+            } else {
+                hitCount.increment();
+            }
+            return session;
+        } catch(RuntimeException e) {
+            getSessionErrors.increment();
+            throw e;
+        } finally {
+            getSessionLatencies.record(System.nanoTime() - start);
+        }
+    }
+
+    public void delete(String id) {
+        long start = System.nanoTime();
+        try {
+            delegate.delete(id);
+        } catch(RuntimeException e) {
+            deleteErrors.increment();
+            throw e;
+        } finally {
+            deleteLatencies.record(System.nanoTime() - start);
+        }
+    }
+
+    public OperationSnapshot getGetSessionMetrics() {
+        return OperationSnapshot.of(getSessionLatencies, getSessionErrors.sum());
+    }
+
+    public OperationSnapshot getSaveMetrics() {
+        return OperationSnapshot.of(saveLatencies, saveErrors.sum());
+    }
+
+    public OperationSnapshot getDeleteMetrics() {
+        return OperationSnapshot.of(deleteLatencies, deleteErrors.sum());
+    }
+
+    public OperationSnapshot getCreateSessionMetrics() {
+        return OperationSnapshot.of(createSessionLatencies, createSessionErrors.sum());
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+
+/**
+ * A {@link SessionSerializer} that uses Java serialization. Every value must be {@link java.io.Serializable}.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class JdkSessionSerializer implements SessionSerializer {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Converter<Object, byte[]> serializer = new SerializingConverter();
+
+    private final Converter<byte[], Object> deserializer = new DeserializingConverter();
+
+    public byte[] serialize(Object value) {
+        return value == null ? EMPTY : serializer.convert(value);
+    }
+
+    public Object deserialize(byte[] bytes) {
+        return bytes == null || bytes.length == 0 ? null : deserializer.convert(bytes);
+    }
+}
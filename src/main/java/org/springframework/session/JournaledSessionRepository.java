@@ -0,0 +1,934 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A {@link SessionRepository} that serves requests from a {@link MapSessionRepository} and makes the changes durable
+ * using an append-only journal and periodic snapshots, so the sessions survive a crash of the application.
+ * </p>
+ *
+ * <p>
+ * Each save records the attributes that changed and each delete records the id in the journal. The records are
+ * appended by a single writer thread that writes everything that was queued since its last write and then forces it
+ * to disk once, so concurrent requests share the cost of an fsync (group commit). By default {@link #save(Session)}
+ * and {@link #delete(String)} wait until their record was forced to disk. With {@link #setWaitForSync(boolean)} set to
+ * false they return immediately, which trades the last few milliseconds of changes in a crash for latency. Either way
+ * at most {@link #setMaxQueuedRecords(int) a maximum number} of records wait to be written, so changes are slowed
+ * down to the rate of the disk instead of piling up in memory, and changes are rejected once writing the journal
+ * failed.
+ * </p>
+ *
+ * <p>
+ * A background thread writes a snapshot of all sessions every {@link #setSnapshotIntervalMillis(long) snapshot
+ * interval}, after which the older snapshot and journals are removed. Taking a snapshot starts a new journal and then
+ * copies the sessions while requests continue to be processed. The changes made while the snapshot is copied are in the
+ * new journal, so replaying it on top of the snapshot yields the latest state.
+ * </p>
+ *
+ * <p>
+ * On startup the latest snapshot is loaded and the journals written since are replayed. The records are partitioned
+ * by session id and the partitions are applied in parallel, preserving the order of the records of each
+ * {@link Session}. Each record carries a checksum, so a record that was only partially written when the application
+ * stopped ends the replay of its journal. The sessions that have expired according to the {@link Clock} passed to
+ * the constructor are removed once the replay completes.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class JournaledSessionRepository implements SessionRepository<Session>, Closeable {
+    /**
+     * The default interval between snapshots of five minutes
+     */
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * The default maximum number of records that wait to be written
+     */
+    public static final int DEFAULT_MAX_QUEUED_RECORDS = 10000;
+
+    private static final String JOURNAL_PREFIX = "journal-";
+
+    private static final String JOURNAL_SUFFIX = ".log";
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The changes of a {@link Session}, applied on top of the stored {@link Session}
+     */
+    private static final byte SAVE = 1;
+
+    /**
+     * The complete state of a {@link Session}, replacing the stored {@link Session}
+     */
+    private static final byte REPLACE = 2;
+
+    private static final byte DELETE = 3;
+
+    /**
+     * recordLength (int) + crc (int)
+     */
+    private static final int RECORD_HEADER_LENGTH = 4 + 4;
+
+    /**
+     * Queued instead of a record to make the writer start a new journal
+     */
+    private static final byte[] ROTATE = new byte[0];
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final File directory;
+
+    private final SessionSerializer serializer;
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+    private final MapSessionRepository delegate = new MapSessionRepository(sessions);
+
+    /**
+     * Striped locks that keep the order of the records of each {@link Session} in the journal the same as the order in
+     * which the changes were applied
+     */
+    private final Object[] locks = new Object[64];
+
+    private final Object queueLock = new Object();
+
+    private final Object syncLock = new Object();
+
+    private final Object snapshotLock = new Object();
+
+    /**
+     * The records waiting to be written. Guarded by the queueLock.
+     */
+    private List<byte[]> queue = new ArrayList<byte[]>();
+
+    /**
+     * The sequence number of the last queued record. Guarded by the queueLock.
+     */
+    private long queuedSequence;
+
+    /**
+     * The number of records that have room in the queue but were not queued yet. Guarded by the queueLock.
+     */
+    private int reservedRecords;
+
+    /**
+     * True while the writer waits for records. Guarded by the queueLock.
+     */
+    private boolean writerWaiting;
+
+    /**
+     * The sequence number of the last record that was forced to disk. Guarded by the syncLock.
+     */
+    private long syncedSequence;
+
+    /**
+     * The error that stopped the writer. Set while holding the syncLock.
+     */
+    private volatile IOException writeFailure;
+
+    /**
+     * The generation of the journal that is being written. Only modified by the writer and snapshotting threads.
+     */
+    private volatile long generation;
+
+    private FileChannel journal;
+
+    private final Thread writer;
+
+    private final Thread snapshotter;
+
+    private final AtomicLong recordCount = new AtomicLong();
+
+    private final AtomicLong syncCount = new AtomicLong();
+
+    private final AtomicLong snapshotCount = new AtomicLong();
+
+    private volatile long snapshotIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+
+    private volatile boolean waitForSync = true;
+
+    private volatile int maxQueuedRecords = DEFAULT_MAX_QUEUED_RECORDS;
+
+    private volatile Clock clock;
+
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new instance that serializes the attributes using a {@link JdkSessionSerializer}. Any sessions that
+     * were previously stored in the directory are recovered.
+     *
+     * @param directory the directory to store the journals and snapshots in. Created if it does not exist.
+     * @throws IOException if the directory cannot be read
+     */
+    public JournaledSessionRepository(File directory) throws IOException {
+        this(directory, new JdkSessionSerializer());
+    }
+
+    /**
+     * Creates a new instance. Any sessions that were previously stored in the directory are recovered.
+     *
+     * @param directory the directory to store the journals and snapshots in. Created if it does not exist.
+     * @param serializer the {@link SessionSerializer} used to serialize the attributes. Cannot be null. Must be able to
+     * read what the {@link SessionSerializer} that stored the existing sessions wrote.
+     * @throws IOException if the directory cannot be read
+     */
+    public JournaledSessionRepository(File directory, SessionSerializer serializer) throws IOException {
+        this(directory, serializer, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Creates a new instance. Any sessions that were previously stored in the directory and have not expired
+     * according to the provided {@link Clock} are recovered.
+     *
+     * @param directory the directory to store the journals and snapshots in. Created if it does not exist.
+     * @param serializer the {@link SessionSerializer} used to serialize the attributes. Cannot be null. Must be able to
+     * read what the {@link SessionSerializer} that stored the existing sessions wrote.
+     * @param clock the {@link Clock} used to timestamp new sessions and to determine if a {@link Session} has
+     * expired. Cannot be null.
+     * @throws IOException if the directory cannot be read
+     */
+    public JournaledSessionRepository(File directory, SessionSerializer serializer, Clock clock) throws IOException {
+        Assert.notNull(directory, "directory cannot be null");
+        Assert.notNull(serializer, "serializer cannot be null");
+        Assert.notNull(clock, "clock cannot be null");
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        this.directory = directory;
+        this.serializer = serializer;
+        this.clock = clock;
+        this.delegate.setClock(clock);
+        for(int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        recover();
+        this.journal = openJournal(generation);
+        this.writer = new Thread("session-journal-writer") {
+            @Override
+            public void run() {
+                writeJournal();
+            }
+        };
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.snapshotter = new Thread("session-snapshotter") {
+            @Override
+            public void run() {
+                takeSnapshots();
+            }
+        };
+        this.snapshotter.setDaemon(true);
+        this.snapshotter.start();
+    }
+
+    /**
+     * Sets if {@link #save(Session)} and {@link #delete(String)} wait until their change was forced to disk. The
+     * default is true.
+     *
+     * @param waitForSync true to wait until the change was forced to disk
+     */
+    public void setWaitForSync(boolean waitForSync) {
+        this.waitForSync = waitForSync;
+    }
+
+    /**
+     * Sets the maximum number of records that wait to be written. Once reached, {@link #save(Session)} and
+     * {@link #delete(String)} wait until the writer catches up. The default is {@link #DEFAULT_MAX_QUEUED_RECORDS}.
+     *
+     * @param maxQueuedRecords the maximum number of records that wait to be written. Must be greater than 0.
+     */
+    public void setMaxQueuedRecords(int maxQueuedRecords) {
+        Assert.isTrue(maxQueuedRecords > 0, "maxQueuedRecords must be greater than 0");
+        this.maxQueuedRecords = maxQueuedRecords;
+    }
+
+    /**
+     * Sets the {@link Clock} used to timestamp new sessions and to determine if a {@link Session} has expired. The
+     * {@link Clock} used to recover the existing sessions is passed to the constructor.
+     *
+     * @param clock the {@link Clock} to use. Cannot be null.
+     */
+    public void setClock(Clock clock) {
+        Assert.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+        this.delegate.setClock(clock);
+    }
+
+    /**
+     * Sets the interval between snapshots. Shorter intervals keep the journals (and the time to replay them) small at
+     * the cost of copying all sessions more often. The default is {@link #DEFAULT_SNAPSHOT_INTERVAL_MILLIS}. The new
+     * interval applies after the next snapshot.
+     *
+     * @param snapshotIntervalMillis the interval between snapshots in milliseconds. Must be greater than 0.
+     */
+    public void setSnapshotIntervalMillis(long snapshotIntervalMillis) {
+        Assert.isTrue(snapshotIntervalMillis > 0, "snapshotIntervalMillis must be greater than 0");
+        this.snapshotIntervalNanos = TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+    }
+
+    public Session createSession() {
+        return delegate.createSession();
+    }
+
+    public void save(Session session) {
+        byte[] record = createSaveRecord(session);
+        // the change is only applied once it is certain to be queued, so it is never visible without being durable
+        reserve(true);
+        long sequence = 0;
+        try {
+            synchronized (lockFor(session.getId())) {
+                delegate.save(session);
+                sequence = publish(record);
+            }
+        } finally {
+            if(sequence == 0) {
+                release();
+            }
+        }
+        if(waitForSync) {
+            awaitSync(sequence);
+        }
+    }
+
+    public Session getSession(String id) {
+        return delegate.getSession(id);
+    }
+
+    public void delete(String id) {
+        byte[] record = createRecord(DELETE, id, null);
+        // the change is only applied once it is certain to be queued, so it is never visible without being durable
+        reserve(true);
+        long sequence = 0;
+        try {
+            synchronized (lockFor(id)) {
+                delegate.delete(id);
+                sequence = publish(record);
+            }
+        } finally {
+            if(sequence == 0) {
+                release();
+            }
+        }
+        if(waitForSync) {
+            awaitSync(sequence);
+        }
+    }
+
+    /**
+     * Removes the sessions that have expired from memory. Expired sessions are not written to snapshots, so they are
+     * not recovered either way.
+     */
+    public void cleanupExpiredSessions() {
+        delegate.cleanupExpiredSessions();
+    }
+
+    /**
+     * Writes a snapshot of all sessions and removes the snapshot and journals it replaces. This is invoked by the
+     * background thread, but can be invoked directly (i.e. before a planned shutdown to speed up the next startup).
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long snapshotGeneration = generation + 1;
+            // every change that is not in the journals the snapshot replaces is in the new journal
+            reserve(false);
+            awaitSync(publish(ROTATE));
+            File temp = new File(directory, fileName(SNAPSHOT_PREFIX, snapshotGeneration, SNAPSHOT_SUFFIX + TEMP_SUFFIX));
+            FileOutputStream file = new FileOutputStream(temp);
+            try {
+                OutputStream out = new BufferedOutputStream(file, 64 * 1024);
+                for(Session session : sessions.values()) {
+                    if(!isExpired(session)) {
+                        out.write(createReplaceRecord(session));
+                    }
+                }
+                out.flush();
+                file.getFD().sync();
+            } finally {
+                file.close();
+            }
+            File snapshot = new File(directory, fileName(SNAPSHOT_PREFIX, snapshotGeneration, SNAPSHOT_SUFFIX));
+            if(!temp.renameTo(snapshot)) {
+                throw new IOException("Could not rename " + temp + " to " + snapshot);
+            }
+            snapshotCount.incrementAndGet();
+            for(Map.Entry<Long, File> older : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(snapshotGeneration).entrySet()) {
+                delete(older.getValue());
+            }
+            for(Map.Entry<Long, File> older : listFiles(JOURNAL_PREFIX, JOURNAL_SUFFIX).headMap(snapshotGeneration).entrySet()) {
+                delete(older.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of records that were appended to the journal.
+     *
+     * @return the number of records that were appended to the journal
+     */
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    /**
+     * Gets the number of times the journal was forced to disk. Divided into {@link #getRecordCount()} this is the
+     * average number of records that were committed together.
+     *
+     * @return the number of times the journal was forced to disk
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    /**
+     * Gets the number of snapshots that were written.
+     *
+     * @return the number of snapshots that were written
+     */
+    public long getSnapshotCount() {
+        return snapshotCount.get();
+    }
+
+    /**
+     * Gets the number of sessions in memory, including sessions that have expired but have not been removed yet.
+     *
+     * @return the number of sessions in memory
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Stops the background threads after writing the records that are already queued, including the records of the
+     * changes that are being applied. Changes made afterwards are rejected.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(snapshotter);
+        synchronized (queueLock) {
+            queueLock.notifyAll();
+        }
+        try {
+            snapshotter.join();
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Object lockFor(String id) {
+        int hash = id.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (locks.length - 1)];
+    }
+
+    /**
+     * Makes room in the queue for a record that is queued by {@link #publish(byte[])} or given up by
+     * {@link #release()}, waiting while the maximum number of records is queued. Invoked before the change is applied,
+     * so a change that cannot be made durable is not made at all.
+     *
+     * @param bounded false to make room even if the maximum number of records is queued
+     * @throws IllegalStateException if the repository was closed or writing the journal failed
+     */
+    private void reserve(boolean bounded) {
+        boolean interrupted = false;
+        try {
+            synchronized (queueLock) {
+                while(true) {
+                    if(!running) {
+                        throw new IllegalStateException("The repository was closed");
+                    }
+                    IOException failure = writeFailure;
+                    if(failure != null) {
+                        throw new IllegalStateException("Could not write the journal in " + directory, failure);
+                    }
+                    if(!bounded || queue.size() + reservedRecords < maxQueuedRecords) {
+                        break;
+                    }
+                    try {
+                        queueLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                reservedRecords++;
+            }
+        } finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues a record for the writer using the room made by {@link #reserve(boolean)}. Never waits or fails, since the
+     * change was already applied. The writer does not stop before the reserved records are queued.
+     *
+     * @return the sequence number of the record, which is greater than 0
+     */
+    private long publish(byte[] record) {
+        synchronized (queueLock) {
+            reservedRecords--;
+            queue.add(record);
+            if(writerWaiting) {
+                queueLock.notifyAll();
+            }
+            return ++queuedSequence;
+        }
+    }
+
+    /**
+     * Gives up the room made by {@link #reserve(boolean)} when the change could not be applied.
+     */
+    private void release() {
+        synchronized (queueLock) {
+            reservedRecords--;
+            queueLock.notifyAll();
+        }
+    }
+
+    private void awaitSync(long sequence) {
+        boolean interrupted = false;
+        synchronized (syncLock) {
+            while(syncedSequence < sequence && writeFailure == null) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(writeFailure != null) {
+                throw new IllegalStateException("Could not write the journal in " + directory, writeFailure);
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeJournal() {
+        try {
+            while(true) {
+                List<byte[]> batch;
+                long sequence;
+                synchronized (queueLock) {
+                    while(queue.isEmpty() && (running || reservedRecords > 0)) {
+                        writerWaiting = true;
+                        try {
+                            queueLock.wait();
+                        } catch (InterruptedException e) {
+                            // only stops once the queue is written
+                        } finally {
+                            writerWaiting = false;
+                        }
+                    }
+                    if(queue.isEmpty()) {
+                        return;
+                    }
+                    batch = queue;
+                    sequence = queuedSequence;
+                    queue = new ArrayList<byte[]>();
+                    // wakes the changes that wait for room in the queue
+                    queueLock.notifyAll();
+                }
+                write(batch);
+                syncCount.incrementAndGet();
+                synchronized (syncLock) {
+                    syncedSequence = sequence;
+                    syncLock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not write the journal in " + directory, e);
+            synchronized (syncLock) {
+                writeFailure = e;
+                syncLock.notifyAll();
+            }
+            synchronized (queueLock) {
+                queueLock.notifyAll();
+            }
+        } finally {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.error("Could not close the journal in " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the records to the journal and forces them to disk, starting a new journal for each {@link #ROTATE}.
+     */
+    private void write(List<byte[]> batch) throws IOException {
+        int length = 0;
+        for(byte[] record : batch) {
+            length += record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for(byte[] record : batch) {
+            if(record == ROTATE) {
+                writeFully(buffer);
+                journal.force(false);
+                journal.close();
+                journal = openJournal(++generation);
+                buffer.clear();
+            } else {
+                buffer.put(record);
+                recordCount.incrementAndGet();
+            }
+        }
+        writeFully(buffer);
+        journal.force(false);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void takeSnapshots() {
+        while(running) {
+            LockSupport.parkNanos(this, snapshotIntervalNanos);
+            if(!running) {
+                return;
+            }
+            try {
+                snapshot();
+            } catch(IOException e) {
+                logger.error("Could not write a snapshot to " + directory, e);
+            } catch(RuntimeException e) {
+                logger.error("Could not write a snapshot to " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Loads the latest snapshot and replays the journals that were written since, then selects the generation of the
+     * journal to write to.
+     */
+    private void recover() throws IOException {
+        for(File temp : directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(TEMP_SUFFIX);
+            }
+        })) {
+            delete(temp);
+        }
+        TreeMap<Long, File> snapshots = listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        TreeMap<Long, File> journals = listFiles(JOURNAL_PREFIX, JOURNAL_SUFFIX);
+        long snapshotGeneration = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        int partitionCount = Runtime.getRuntime().availableProcessors();
+        List<List<Record>> partitions = new ArrayList<List<Record>>(partitionCount);
+        for(int i = 0; i < partitionCount; i++) {
+            partitions.add(new ArrayList<Record>());
+        }
+        if(!snapshots.isEmpty()) {
+            readRecords(snapshots.lastEntry().getValue(), partitions);
+        }
+        for(File journal : journals.tailMap(snapshotGeneration).values()) {
+            readRecords(journal, partitions);
+        }
+        replay(partitions);
+        delegate.cleanupExpiredSessions();
+        // a new journal is started, since the last one might end with an incomplete record
+        long lastGeneration = journals.isEmpty() ? snapshotGeneration : Math.max(snapshotGeneration, journals.lastKey());
+        this.generation = lastGeneration + 1;
+    }
+
+    /**
+     * Reads the records of a file into the partitions of their session ids, stopping at the first record that is
+     * incomplete or corrupt.
+     */
+    private void readRecords(File file, List<List<Record>> partitions) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            while(true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int crc = in.readInt();
+                    if(length < RECORD_HEADER_LENGTH) {
+                        break;
+                    }
+                    payload = new byte[length - RECORD_HEADER_LENGTH];
+                    in.readFully(payload);
+                    if(crc != checksum(payload)) {
+                        logger.warn("Ignoring the corrupt end of " + file);
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                Record record = new Record(payload);
+                int partition = (record.id.hashCode() & Integer.MAX_VALUE) % partitions.size();
+                partitions.get(partition).add(record);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Applies the records of each partition on its own thread.
+     */
+    private void replay(List<List<Record>> partitions) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size());
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>(partitions.size());
+            for(final List<Record> partition : partitions) {
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        for(Record record : partition) {
+                            apply(record);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for(Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while recovering the sessions in " + directory);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Could not recover the sessions in " + directory, e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void apply(Record record) throws IOException {
+        if(record.type == DELETE) {
+            delegate.delete(record.id);
+            return;
+        }
+        if(record.type == REPLACE && sessions.containsKey(record.id)) {
+            delegate.delete(record.id);
+        }
+        DataInputStream in = record.body();
+        long creationTime = in.readLong();
+        // starting from the stored session makes removing an attribute a tracked change
+        Session stored = sessions.get(record.id);
+        MapSession changes = stored == null ? new MapSession(record.id, creationTime) : new MapSession(stored);
+        changes.setLastAccessedTime(in.readLong());
+        int maxInactiveInterval = in.readInt();
+        if(in.readBoolean()) {
+            changes.setMaxInactiveInterval(maxInactiveInterval);
+        }
+        int attributeCount = in.readInt();
+        for(int i = 0; i < attributeCount; i++) {
+            String attributeName = in.readUTF();
+            int length = in.readInt();
+            if(length < 0) {
+                changes.removeAttribute(attributeName);
+            } else {
+                byte[] value = new byte[length];
+                in.readFully(value);
+                changes.setAttribute(attributeName, serializer.deserialize(value));
+            }
+        }
+        delegate.save(changes);
+    }
+
+    /**
+     * Creates the record of the changes of a {@link Session}. Must be invoked before it is saved, since saving clears
+     * the changes of a {@link MapSession}.
+     */
+    private byte[] createSaveRecord(Session session) {
+        if(!(session instanceof MapSession)) {
+            // the MapSessionRepository replaces sessions it does not track changes of
+            return createReplaceRecord(session);
+        }
+        MapSession changes = (MapSession) session;
+        return createRecord(SAVE, session, changes.getChangedAttributeNames(), changes.isMaxInactiveIntervalChanged());
+    }
+
+    private byte[] createReplaceRecord(Session session) {
+        return createRecord(REPLACE, session, session.getAttributeNames(), true);
+    }
+
+    private byte[] createRecord(byte type, Session session, Set<String> attributeNames, boolean maxInactiveIntervalChanged) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(session.getCreationTime());
+            out.writeLong(session.getLastAccessedTime());
+            out.writeInt(session.getMaxInactiveInterval());
+            out.writeBoolean(maxInactiveIntervalChanged);
+            out.writeInt(attributeNames.size());
+            for(String attributeName : attributeNames) {
+                out.writeUTF(attributeName);
+                Object value = session.getAttribute(attributeName);
+                if(value == null) {
+                    out.writeInt(-1);
+                } else {
+                    byte[] serialized = serializer.serialize(value);
+                    out.writeInt(serialized.length);
+                    out.write(serialized);
+                }
+            }
+            out.flush();
+            return createRecord(type, session.getId(), bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] createRecord(byte type, String id, byte[] body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(type);
+            out.writeUTF(id);
+            if(body != null) {
+                out.write(body);
+            }
+            out.flush();
+            byte[] record = bytes.toByteArray();
+            ByteBuffer header = ByteBuffer.wrap(record);
+            header.putInt(0, record.length);
+            header.putInt(4, checksum(record, RECORD_HEADER_LENGTH, record.length - RECORD_HEADER_LENGTH));
+            return record;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        return checksum(payload, 0, payload.length);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private boolean isExpired(Session session) {
+        return session.getMaxInactiveInterval() >= 0 && clock.currentTimeMillis() >= session.getLastAccessedTime()
+                + TimeUnit.SECONDS.toMillis(session.getMaxInactiveInterval());
+    }
+
+    private FileChannel openJournal(long generation) throws IOException {
+        File file = new File(directory, fileName(JOURNAL_PREFIX, generation, JOURNAL_SUFFIX));
+        return new FileOutputStream(file, true).getChannel();
+    }
+
+    private TreeMap<Long, File> listFiles(final String prefix, final String suffix) {
+        TreeMap<Long, File> result = new TreeMap<Long, File>();
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(suffix);
+            }
+        });
+        for(File file : files) {
+            String name = file.getName();
+            result.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), file);
+        }
+        return result;
+    }
+
+    private void delete(File file) {
+        if(!file.delete()) {
+            logger.warn("Could not delete " + file);
+        }
+    }
+
+    private static String fileName(String prefix, long generation, String suffix) {
+        return String.format("%s%019d%s", prefix, generation, suffix);
+    }
+
+    /**
+     * A record that was read from a snapshot or journal
+     */
+    private static final class Record {
+        private final byte[] payload;
+
+        private final byte type;
+
+        private final String id;
+
+        /**
+         * The offset of the body within the payload
+         */
+        private final int bodyOffset;
+
+        Record(byte[] payload) throws IOException {
+            this.payload = payload;
+            ByteArrayInputStream bytes = new ByteArrayInputStream(payload);
+            DataInputStream in = new DataInputStream(bytes);
+            this.type = in.readByte();
+            this.id = in.readUTF();
+            this.bodyOffset = payload.length - bytes.available();
+        }
+
+        DataInputStream body() {
+            return new DataInputStream(new ByteArrayInputStream(payload, bodyOffset, payload.length - bodyOffset));
+        }
+    }
+}
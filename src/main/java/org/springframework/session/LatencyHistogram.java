@@ -0,0 +1,146 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds that is cheap enough to record every operation of a production system.
+ * Recording neither locks nor allocates. Like {@link StripedCounter}, the counters are spread across stripes chosen
+ * by the recording thread, so threads recording concurrently rarely contend on the same cache line. Reading the
+ * histogram sums the stripes and is therefore more expensive than recording.
+ *
+ * <p>
+ * Latencies below 16 nanoseconds are counted exactly. Larger latencies are counted in 8 buckets per power of two, so
+ * a percentile is accurate to within 12.5%.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see InstrumentedSessionRepository
+ */
+public final class LatencyHistogram {
+    private static final int COUNT = 0;
+
+    private static final int SUM = 1;
+
+    private static final int MAX = 2;
+
+    /**
+     * The cells at the start of each stripe that hold the count, sum and max, padded to a cache line
+     */
+    private static final int HEADER = 8;
+
+    private static final int STRIDE = HEADER + LogLinearBuckets.COUNT;
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    public LatencyHistogram() {
+        int stripes = 1;
+        while(stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        this.cells = new AtomicLongArray(stripes * STRIDE);
+        this.mask = stripes - 1;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds. Negative latencies, which a clock adjustment may produce, are recorded
+     * as 0.
+     */
+    public void record(long nanos) {
+        long latency = Math.max(nanos, 0);
+        int stripe = stripe() * STRIDE;
+        cells.incrementAndGet(stripe + HEADER + LogLinearBuckets.indexFor(latency));
+        cells.incrementAndGet(stripe + COUNT);
+        cells.addAndGet(stripe + SUM, latency);
+        long current;
+        while(latency > (current = cells.get(stripe + MAX))) {
+            if(cells.compareAndSet(stripe + MAX, current, latency)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of latencies that were recorded.
+     *
+     * @return the number of latencies that were recorded
+     */
+    public long getCount() {
+        return sum(COUNT);
+    }
+
+    /**
+     * Gets the mean of the latencies that were recorded.
+     *
+     * @return the mean latency in nanoseconds or 0 if no latency was recorded
+     */
+    public long getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : sum(SUM) / count;
+    }
+
+    /**
+     * Gets the largest latency that was recorded.
+     *
+     * @return the largest latency in nanoseconds or 0 if no latency was recorded
+     */
+    public long getMax() {
+        long max = 0;
+        for(int stripe = 0; stripe < cells.length(); stripe += STRIDE) {
+            max = Math.max(max, cells.get(stripe + MAX));
+        }
+        return max;
+    }
+
+    /**
+     * Gets the latency that the provided percentage of the recorded latencies are smaller than or equal to. The
+     * result is the upper bound of the bucket the latency falls into, but never exceeds {@link #getMax()}.
+     *
+     * @param percentile the percentile, from 0 exclusive to 100 inclusive
+     * @return the latency at the percentile in nanoseconds or 0 if no latency was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        Assert.isTrue(percentile > 0 && percentile <= 100, "percentile must be greater than 0 and at most 100");
+        long[] counts = new long[LogLinearBuckets.COUNT];
+        for(int stripe = 0; stripe < cells.length(); stripe += STRIDE) {
+            for(int i = 0; i < counts.length; i++) {
+                counts[i] += cells.get(stripe + HEADER + i);
+            }
+        }
+        return LogLinearBuckets.valueAtPercentile(counts, percentile, getMax());
+    }
+
+    private long sum(int offset) {
+        long sum = 0;
+        for(int stripe = 0; stripe < cells.length(); stripe += STRIDE) {
+            sum += cells.get(stripe + offset);
+        }
+        return sum;
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+/**
+ * The buckets shared by {@link SizeHistogram} and {@link LatencyHistogram}. Values below 16 have a bucket each.
+ * Larger values are counted in 8 buckets per power of two, so the upper bound of a bucket is within 12.5% of every
+ * value in it while any long that is not negative fits in one of {@link #COUNT} buckets.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+final class LogLinearBuckets {
+    private static final int EXACT = 16;
+
+    private static final int EXACT_BITS = 4;
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets
+     */
+    static final int COUNT = EXACT + (63 - EXACT_BITS) * SUB_BUCKETS;
+
+    private LogLinearBuckets() {
+    }
+
+    /**
+     * Gets the index of the bucket of a value.
+     *
+     * @param value the value. Must not be negative.
+     * @return the index of the bucket, from 0 inclusive to {@link #COUNT} exclusive
+     */
+    static int indexFor(long value) {
+        if(value < EXACT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT + (exponent - EXACT_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the value that the provided percentage of the counted values are smaller than or equal to, which is the
+     * upper bound of the bucket the value falls into capped at the largest value.
+     *
+     * @param counts the number of values in each bucket
+     * @param percentile the percentile, from 0 exclusive to 100 inclusive
+     * @param max the largest value that was counted
+     * @return the value at the percentile or 0 if no value was counted
+     */
+    static long valueAtPercentile(long[] counts, double percentile, long max) {
+        long total = 0;
+        for(long count : counts) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank && counts[i] > 0) {
+                return Math.min(upperBoundOf(i), max);
+            }
+        }
+        return 0;
+    }
+
+    private static long upperBoundOf(int index) {
+        if(index < EXACT) {
+            return index;
+        }
+        int exponent = (index - EXACT) / SUB_BUCKETS + EXACT_BITS;
+        int subBucket = (index - EXACT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        // the last bucket ends at Long.MAX_VALUE, which the arithmetic would overflow
+        long lower = (SUB_BUCKETS + subBucket) * width;
+        return lower + (width - 1) < lower ? Long.MAX_VALUE : lower + (width - 1);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+/**
+ * A {@link Clock} that only moves when it is told to. This is useful for testing and benchmarking expiration
+ * deterministically.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public final class ManualClock implements Clock {
+    private volatile long currentTimeMillis;
+
+    /**
+     * Creates a new instance that starts at {@link System#currentTimeMillis()}
+     */
+    public ManualClock() {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param currentTimeMillis the time to start at in milliseconds since midnight of 1/1/1970 GMT
+     */
+    public ManualClock(long currentTimeMillis) {
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    public long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+
+    /**
+     * Sets the current time.
+     *
+     * @param currentTimeMillis the current time in milliseconds since midnight of 1/1/1970 GMT
+     */
+    public void setCurrentTimeMillis(long currentTimeMillis) {
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    /**
+     * Moves the current time forward.
+     *
+     * @param millis the number of milliseconds to move forward by
+     */
+    public synchronized void advance(long millis) {
+        this.currentTimeMillis += millis;
+    }
+}
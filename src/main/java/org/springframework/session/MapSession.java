@@ -17,10 +17,16 @@ package org.springframework.session;
 
 import org.springframework.util.Assert;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -35,13 +41,49 @@ import java.util.UUID;
  *
  * <p>
  * This implementation has no synchronization, so it is best to use the copy constructor when working on multiple threads.
+ * Copying another {@link MapSession} is cheap because the attributes are shared until either instance modifies them,
+ * at which point the modified instance takes its own copy. The attributes are kept in a compact array until there are
+ * more than a handful of them, so both the footprint and the cost of that copy stay small.
+ * </p>
+ *
+ * <p>
+ * The serialized form writes the attributes as a {@link java.util.HashMap}, so it does not depend on how the
+ * attributes are kept in memory.
  * </p>
  *
  * @author Rob Winch
  */
 public final class MapSession implements Session {
-    private String id = UUID.randomUUID().toString();
-    private Map<String, Object> sessionAttrs = new HashMap<String, Object>();
+    /**
+     * The value that was computed for the original serialized form, which the serialized form still matches
+     */
+    private static final long serialVersionUID = -1272015767315146551L;
+
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", String.class),
+            new ObjectStreamField("sessionAttrs", Map.class),
+            new ObjectStreamField("creationTime", long.class),
+            new ObjectStreamField("lastAccessedTime", long.class),
+            new ObjectStreamField("maxInactiveInterval", int.class)
+    };
+
+    private static final SessionIdGenerator DEFAULT_ID_GENERATOR = new SecureRandomSessionIdGenerator();
+
+    private String id;
+    private CompactAttributeMap sessionAttrs = new CompactAttributeMap();
+
+    /**
+     * True if sessionAttrs may be shared with another {@link MapSession} and must be copied before it is modified
+     */
+    private transient boolean sharedAttrs;
+
+    /**
+     * The names of the attributes that were set or removed since this instance was created or last saved. Lazily
+     * initialized since most sessions are only read.
+     */
+    private transient Set<String> changedAttrs;
+
+    private transient boolean maxInactiveIntervalChanged;
     private long creationTime = System.currentTimeMillis();
     private long lastAccessedTime = creationTime;
 
@@ -51,9 +93,34 @@ public final class MapSession implements Session {
     private int maxInactiveInterval = 1800;
 
     /**
-     * Creates a new instance
+     * Creates a new instance with an identifier generated by a {@link SecureRandomSessionIdGenerator}
      */
     public MapSession() {
+        this(DEFAULT_ID_GENERATOR.generateId());
+    }
+
+    /**
+     * Creates a new instance with the provided identifier
+     *
+     * @param id the identifier for this session. Cannot be null.
+     * @see SessionIdGenerator
+     */
+    public MapSession(String id) {
+        Assert.notNull(id, "id cannot be null");
+        this.id = id;
+    }
+
+    /**
+     * Creates a new instance with the provided identifier that was created, and last accessed, at the provided time
+     *
+     * @param id the identifier for this session. Cannot be null.
+     * @param creationTime the time the session was created in milliseconds since midnight of 1/1/1970 GMT, typically
+     * obtained from a {@link Clock}
+     */
+    public MapSession(String id, long creationTime) {
+        this(id);
+        this.creationTime = creationTime;
+        this.lastAccessedTime = creationTime;
     }
 
     /**
@@ -64,10 +131,19 @@ public final class MapSession implements Session {
     public MapSession(Session session) {
         Assert.notNull(session, "session cannot be null");
         this.id = session.getId();
-        this.sessionAttrs = new HashMap<String, Object>(session.getAttributeNames().size());
-        for (String attrName : session.getAttributeNames()) {
-            Object attrValue = session.getAttribute(attrName);
-            this.sessionAttrs.put(attrName, attrValue);
+        if(session instanceof MapSession) {
+            MapSession other = (MapSession) session;
+            this.sessionAttrs = other.sessionAttrs;
+            this.sharedAttrs = true;
+            if(!other.sharedAttrs) {
+                other.sharedAttrs = true;
+            }
+        } else {
+            this.sessionAttrs = new CompactAttributeMap();
+            for (String attrName : session.getAttributeNames()) {
+                Object attrValue = session.getAttribute(attrName);
+                this.sessionAttrs.put(attrName, attrValue);
+            }
         }
         this.lastAccessedTime = session.getLastAccessedTime();
         this.creationTime = session.getCreationTime();
@@ -97,6 +173,7 @@ public final class MapSession implements Session {
     @Override
     public void setMaxInactiveInterval(int interval) {
         this.maxInactiveInterval = interval;
+        this.maxInactiveIntervalChanged = true;
     }
 
     @Override
@@ -111,7 +188,7 @@ public final class MapSession implements Session {
 
     @Override
     public Set<String> getAttributeNames() {
-        return sessionAttrs.keySet();
+        return Collections.unmodifiableSet(sessionAttrs.keySet());
     }
 
     @Override
@@ -119,13 +196,32 @@ public final class MapSession implements Session {
         if (attributeValue == null) {
             removeAttribute(attributeName);
         } else {
-            sessionAttrs.put(attributeName, attributeValue);
+            getMutableAttrs().put(attributeName, attributeValue);
+            attributeChanged(attributeName);
         }
     }
 
     @Override
     public void removeAttribute(String attributeName) {
-        sessionAttrs.remove(attributeName);
+        if(sessionAttrs.containsKey(attributeName)) {
+            getMutableAttrs().remove(attributeName);
+            attributeChanged(attributeName);
+        }
+    }
+
+    /**
+     * Determines if this {@link Session} would be expired at the provided time. A {@link Session} expires once more
+     * than {@link #getMaxInactiveInterval()} seconds have passed since {@link #getLastAccessedTime()}. A negative
+     * {@link #getMaxInactiveInterval()} indicates the {@link Session} never expires.
+     *
+     * @param now the time to check against expressed in milliseconds since midnight of 1/1/1970 GMT
+     * @return true if the {@link Session} would be expired at the provided time, else false
+     */
+    public boolean isExpired(long now) {
+        if(maxInactiveInterval < 0) {
+            return false;
+        }
+        return now - TimeUnit.SECONDS.toMillis(maxInactiveInterval) >= lastAccessedTime;
     }
 
     /**
@@ -145,6 +241,76 @@ public final class MapSession implements Session {
         this.id = id;
     }
 
+    /**
+     * Gets the names of the attributes that were set or removed since this instance was created or
+     * {@link #clearChanges()} was last invoked.
+     *
+     * @return the names of the attributes that changed. Never null.
+     */
+    Set<String> getChangedAttributeNames() {
+        if(changedAttrs == null) {
+            return Collections.emptySet();
+        }
+        return changedAttrs;
+    }
+
+    /**
+     * Determines if {@link #setMaxInactiveInterval(int)} was invoked since this instance was created or
+     * {@link #clearChanges()} was last invoked.
+     *
+     * @return true if the max inactive interval was set
+     */
+    boolean isMaxInactiveIntervalChanged() {
+        return maxInactiveIntervalChanged;
+    }
+
+    /**
+     * Forgets the changes that were tracked so far. Invoked once the changes have been saved.
+     */
+    void clearChanges() {
+        changedAttrs = null;
+        maxInactiveIntervalChanged = false;
+    }
+
+    private void attributeChanged(String attributeName) {
+        if(changedAttrs == null) {
+            changedAttrs = new HashSet<String>();
+        }
+        changedAttrs.add(attributeName);
+    }
+
+    private CompactAttributeMap getMutableAttrs() {
+        if(sharedAttrs) {
+            sessionAttrs = new CompactAttributeMap(sessionAttrs);
+            sharedAttrs = false;
+        }
+        return sessionAttrs;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("sessionAttrs", new HashMap<String, Object>(sessionAttrs));
+        fields.put("creationTime", creationTime);
+        fields.put("lastAccessedTime", lastAccessedTime);
+        fields.put("maxInactiveInterval", maxInactiveInterval);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.id = (String) fields.get("id", null);
+        this.sessionAttrs = new CompactAttributeMap();
+        Map<String, Object> attrs = (Map<String, Object>) fields.get("sessionAttrs", null);
+        if(attrs != null) {
+            this.sessionAttrs.putAll(attrs);
+        }
+        this.creationTime = fields.get("creationTime", 0L);
+        this.lastAccessedTime = fields.get("lastAccessedTime", 0L);
+        this.maxInactiveInterval = fields.get("maxInactiveInterval", 0);
+    }
+
     public boolean equals(Object obj) {
         return obj instanceof Session && id.equals(((Session) obj).getId());
     }
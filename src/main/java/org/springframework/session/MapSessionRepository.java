@@ -15,22 +15,114 @@
  */
 package org.springframework.session;
 
+import org.springframework.session.events.SessionEvent;
+import org.springframework.session.events.SessionEventPublisher;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A {@link SessionRepository} backed by a {@link java.util.Map} and that uses a {@link MapSession}. By default a
  * {@link java.util.concurrent.ConcurrentHashMap} is used, but a custom {@link java.util.Map} can be injected to use
  * distributed maps provided by NoSQL stores like Redis and Hazelcast.
  *
+ * <p>
+ * A {@link Session} that has been inactive for longer than its {@link Session#getMaxInactiveInterval()} is treated as
+ * absent by {@link #getSession(String)}. Expired sessions are only removed from the {@link java.util.Map} when they
+ * are looked up or when {@link #cleanupExpiredSessions()} is invoked, so {@link #cleanupExpiredSessions()} should be
+ * invoked periodically (i.e. using a {@link java.util.concurrent.ScheduledExecutorService} or Spring's
+ * {@code @Scheduled} support).
+ * </p>
+ *
+ * <p>
+ * By default the repository is unbounded. Invoking {@link #setMaximumSize(long)} bounds the number (or, when a
+ * {@link SessionWeigher} is provided, the total weight) of the sessions that are kept. When the bound is exceeded the
+ * sessions that are least likely to be requested again are evicted using a W-TinyLFU policy. Reads and writes are
+ * recorded in buffers that are applied to the policy in batches by whichever thread acquires the eviction lock, so
+ * neither waits for the lock. Reads are only sampled, so a read that finds its buffer full is not recorded. The bound
+ * may be exceeded briefly while writes are buffered.
+ * </p>
+ *
+ * <p>
+ * Saving a {@link MapSession} that was returned by this repository only applies the attributes that were set or
+ * removed on it to the stored {@link Session}. This means concurrent requests for the same {@link Session} that modify
+ * different attributes do not lose each other's updates. Each save is applied atomically while holding a lock for the
+ * {@link Session#getId()}, with the locks striped so that saves of different sessions rarely contend.
+ * </p>
+ *
+ * <p>
+ * The ids of the sessions of each principal are indexed, so
+ * {@link #findByIndexNameAndIndexValue(String, String)} only visits the sessions of the requested principal.
+ * </p>
+ *
  * @author Rob Winch
  * @since 4.0
  */
-public class MapSessionRepository implements SessionRepository<Session> {
+public class MapSessionRepository implements BatchSessionRepository<Session>, FindByIndexNameSessionRepository<Session> {
+    /**
+     * The resolution, in milliseconds, used to group sessions that expire at about the same time
+     */
+    private static final long EXPIRATION_RESOLUTION = TimeUnit.SECONDS.toMillis(1);
+
     private final Map<String,Session> sessions;
 
+    private final SessionExpirationIndex expirations = new SessionExpirationIndex(EXPIRATION_RESOLUTION);
+
+    /**
+     * The ids of the sessions of each principal name
+     */
+    private final ConcurrentMap<String, Set<String>> principalIndex = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * The principal name that each {@link Session} is indexed by, so it is only resolved when an attribute that
+     * determines it changes
+     */
+    private final ConcurrentMap<String, String> indexedPrincipals = new ConcurrentHashMap<String, String>();
+
+    private final PrincipalNameResolver principalNameResolver = new PrincipalNameResolver();
+
+    private final Object[] locks;
+
+    private final Lock evictionLock = new ReentrantLock();
+
+    private final ReadBuffer readBuffer = new ReadBuffer();
+
+    private final ConcurrentLinkedQueue<PolicyWrite> writeBuffer = new ConcurrentLinkedQueue<PolicyWrite>();
+
+    private final StripedCounter hitCount = new StripedCounter();
+
+    private final StripedCounter missCount = new StripedCounter();
+
+    private final StripedCounter evictionCount = new StripedCounter();
+
+    private volatile WindowTinyLfuPolicy evictionPolicy;
+
+    private SessionIdGenerator sessionIdGenerator = new SecureRandomSessionIdGenerator();
+
+    private Clock clock = SystemClock.INSTANCE;
+
+    private volatile SessionEventPublisher sessionEventPublisher = SessionEventPublisher.NONE;
+
+    private SessionWeigher weigher = new SessionWeigher() {
+        public int weigh(Session session) {
+            return 1;
+        }
+    };
+
     /**
      * Creates an instance backed by a {@link java.util.concurrent.ConcurrentHashMap}
      */
@@ -46,22 +138,581 @@ public class MapSessionRepository implements SessionRepository<Session> {
     public MapSessionRepository(Map<String,Session> sessions) {
         Assert.notNull(sessions, "sessions cannot be null");
         this.sessions = sessions;
+        int stripes = 16;
+        while(stripes < Runtime.getRuntime().availableProcessors() * 4) {
+            stripes <<= 1;
+        }
+        this.locks = new Object[stripes];
+        for(int i = 0; i < stripes; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Sets the {@link SessionIdGenerator} used to generate the identifiers of the sessions created by
+     * {@link #createSession()}. The default is a {@link SecureRandomSessionIdGenerator}.
+     *
+     * @param sessionIdGenerator the {@link SessionIdGenerator} to use. Cannot be null.
+     */
+    public void setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        Assert.notNull(sessionIdGenerator, "sessionIdGenerator cannot be null");
+        this.sessionIdGenerator = sessionIdGenerator;
+    }
+
+    /**
+     * Sets the {@link Clock} used to timestamp the sessions created by {@link #createSession()} and to determine if a
+     * {@link Session} has expired. The default is {@link SystemClock#INSTANCE}.
+     *
+     * @param clock the {@link Clock} to use. Cannot be null.
+     */
+    public void setClock(Clock clock) {
+        Assert.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+    }
+
+    /**
+     * Bounds the total weight of the sessions that are kept. By default each {@link Session} has a weight of 1, so
+     * this is the maximum number of sessions. Should be invoked before the repository is used.
+     *
+     * @param maximumSize the maximum total weight of the sessions. Must be greater than 0.
+     * @see #setWeigher(SessionWeigher)
+     */
+    public void setMaximumSize(long maximumSize) {
+        evictionLock.lock();
+        try {
+            WindowTinyLfuPolicy policy = new WindowTinyLfuPolicy(maximumSize);
+            this.evictionPolicy = policy;
+            writeBuffer.clear();
+            for(Session session : sessions.values()) {
+                evict(policy.recordWrite(session.getId(), weigher.weigh(session)));
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the {@link SessionEventPublisher} that is notified when a {@link Session} is created, deleted (which
+     * includes being evicted) or expired. The default discards the events. Since events are published while holding
+     * the lock of the {@link Session}, an {@link org.springframework.session.events.AsyncSessionEventPublisher} should
+     * be used.
+     *
+     * @param sessionEventPublisher the {@link SessionEventPublisher} to use. Cannot be null.
+     */
+    public void setSessionEventPublisher(SessionEventPublisher sessionEventPublisher) {
+        Assert.notNull(sessionEventPublisher, "sessionEventPublisher cannot be null");
+        this.sessionEventPublisher = sessionEventPublisher;
+    }
+
+    /**
+     * Sets the {@link SessionWeigher} used to calculate the weight of each {@link Session} when the repository is
+     * bounded. The default gives each {@link Session} a weight of 1.
+     *
+     * @param weigher the {@link SessionWeigher} to use. Cannot be null.
+     * @see #setMaximumSize(long)
+     */
+    public void setWeigher(SessionWeigher weigher) {
+        Assert.notNull(weigher, "weigher cannot be null");
+        this.weigher = weigher;
     }
 
     public void save(Session session) {
-        sessions.put(session.getId(), new MapSession(session));
+        synchronized (lockFor(session.getId())) {
+            store(session);
+        }
+        clearChanges(session);
+        drainBuffers();
+    }
+
+    /**
+     * Saves the provided sessions. The sessions are grouped by the lock that guards their id, so each lock is acquired
+     * once per group rather than once per {@link Session}.
+     *
+     * @param sessions the {@link Session} instances to save. Cannot be null.
+     */
+    public void saveAll(Collection<? extends Session> sessions) {
+        Assert.notNull(sessions, "sessions cannot be null");
+        for(Map.Entry<Integer, List<Session>> stripe : groupByStripe(sessions).entrySet()) {
+            synchronized (locks[stripe.getKey()]) {
+                for(Session session : stripe.getValue()) {
+                    store(session);
+                }
+            }
+        }
+        for(Session session : sessions) {
+            clearChanges(session);
+        }
+        drainBuffers();
     }
 
     public Session getSession(String id) {
         Session result = sessions.get(id);
-        return result == null ? null : new MapSession(result);
+        if(result == null) {
+            missCount.increment();
+            return null;
+        }
+        long now = clock.currentTimeMillis();
+        if(isExpired(result, now)) {
+            missCount.increment();
+            deleteExpired(Collections.singletonList(id), now);
+            return null;
+        }
+        hitCount.increment();
+        recordAccess(Collections.singletonList(id));
+        return new MapSession(result);
+    }
+
+    /**
+     * Gets the sessions with the provided ids. The time is read once for the whole batch.
+     *
+     * @param ids the {@link Session#getId()}s to lookup. Cannot be null.
+     * @return the unexpired {@link Session} instances that were found keyed by {@link Session#getId()}
+     */
+    public Map<String, Session> getSessions(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        long now = clock.currentTimeMillis();
+        Map<String, Session> result = new LinkedHashMap<String, Session>();
+        List<String> expired = new ArrayList<String>();
+        int misses = 0;
+        for(String id : ids) {
+            Session session = sessions.get(id);
+            if(session == null) {
+                misses++;
+            } else if(isExpired(session, now)) {
+                misses++;
+                expired.add(id);
+            } else {
+                result.put(id, new MapSession(session));
+            }
+        }
+        missCount.add(misses);
+        hitCount.add(ids.size() - misses);
+        if(!expired.isEmpty()) {
+            deleteExpired(expired, now);
+        }
+        recordAccess(result.keySet());
+        return result;
     }
 
     public void delete(String id) {
-        sessions.remove(id);
+        delete(id, SessionEvent.Type.DELETED);
+    }
+
+    private void delete(String id, SessionEvent.Type type) {
+        synchronized (lockFor(id)) {
+            remove(id, type);
+            recordRemoval(id);
+        }
+        drainBuffers();
+    }
+
+    /**
+     * Finds the unexpired sessions of a principal using the {@link #PRINCIPAL_NAME_INDEX_NAME} index.
+     *
+     * @param indexName the name of the index. Only {@link #PRINCIPAL_NAME_INDEX_NAME} is supported.
+     * @param indexValue the principal name
+     * @return the sessions of the principal keyed by {@link Session#getId()}
+     */
+    public Map<String, Session> findByIndexNameAndIndexValue(String indexName, String indexValue) {
+        Map<String, Session> result = new HashMap<String, Session>();
+        if(!PRINCIPAL_NAME_INDEX_NAME.equals(indexName)) {
+            return result;
+        }
+        Set<String> ids = principalIndex.get(indexValue);
+        if(ids == null) {
+            return result;
+        }
+        long now = clock.currentTimeMillis();
+        for(String id : ids) {
+            Session session = sessions.get(id);
+            if(session != null && !isExpired(session, now)) {
+                result.put(id, new MapSession(session));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the sessions with the provided ids. Like {@link #saveAll(Collection)}, each lock is acquired once per
+     * group of ids that it guards.
+     *
+     * @param ids the {@link Session#getId()}s to delete. Cannot be null.
+     */
+    public void deleteAll(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        deleteAll(ids, SessionEvent.Type.DELETED);
+    }
+
+    private void deleteAll(Collection<String> ids, SessionEvent.Type type) {
+        for(Map.Entry<Integer, List<String>> stripe : groupIdsByStripe(ids).entrySet()) {
+            synchronized (locks[stripe.getKey()]) {
+                for(String id : stripe.getValue()) {
+                    remove(id, type);
+                    recordRemoval(id);
+                }
+            }
+        }
+        drainBuffers();
+    }
+
+    /**
+     * Deletes the sessions with the provided ids that are still expired once the lock for their id is held, since
+     * they might have been saved after they were found to be expired.
+     */
+    private void deleteExpired(Collection<String> ids, long now) {
+        for(Map.Entry<Integer, List<String>> stripe : groupIdsByStripe(ids).entrySet()) {
+            synchronized (locks[stripe.getKey()]) {
+                for(String id : stripe.getValue()) {
+                    Session session = sessions.get(id);
+                    if(session != null && isExpired(session, now)) {
+                        remove(id, SessionEvent.Type.EXPIRED);
+                        recordRemoval(id);
+                    }
+                }
+            }
+        }
+        drainBuffers();
+    }
+
+    /**
+     * Removes the sessions that have expired. Only the sessions that are due to expire are visited, so this is cheap
+     * enough to be invoked frequently.
+     */
+    public void cleanupExpiredSessions() {
+        long now = clock.currentTimeMillis();
+        for(String id : expirations.drainExpired(now)) {
+            synchronized (lockFor(id)) {
+                Session session = sessions.get(id);
+                if(session == null) {
+                    continue;
+                }
+                if(isExpired(session, now)) {
+                    delete(id, SessionEvent.Type.EXPIRED);
+                } else {
+                    // the session was accessed after it was scheduled to expire
+                    scheduleExpiration(session);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of sessions that are stored, which includes expired sessions that were not cleaned up yet.
+     *
+     * @return the number of sessions that are stored
+     * @see #cleanupExpiredSessions()
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Gets the number of times {@link #getSession(String)} found an unexpired {@link Session}.
+     *
+     * @return the number of times {@link #getSession(String)} found an unexpired {@link Session}
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Gets the number of times {@link #getSession(String)} did not find an unexpired {@link Session}.
+     *
+     * @return the number of times {@link #getSession(String)} did not find an unexpired {@link Session}
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Gets the number of sessions that were evicted to stay within the maximum size.
+     *
+     * @return the number of sessions that were evicted to stay within the maximum size
+     * @see #setMaximumSize(long)
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Creates the {@link MapSession} to store for the provided {@link Session}. If the {@link Session} is a
+     * {@link MapSession} and a {@link Session} with the same id is already stored, only the changes that were made
+     * to the provided {@link Session} are applied to the stored {@link Session}. Otherwise the provided
+     * {@link Session} replaces the stored {@link Session}. Must be invoked while holding the lock for the id.
+     *
+     * @param session the {@link Session} that is being saved
+     * @return the {@link MapSession} to store
+     */
+    private MapSession merge(Session session) {
+        Session stored = sessions.get(session.getId());
+        if(stored == null || !(session instanceof MapSession)) {
+            return new MapSession(session);
+        }
+        MapSession changes = (MapSession) session;
+        MapSession merged = new MapSession(stored);
+        for(String attrName : changes.getChangedAttributeNames()) {
+            merged.setAttribute(attrName, changes.getAttribute(attrName));
+        }
+        merged.setLastAccessedTime(Math.max(stored.getLastAccessedTime(), changes.getLastAccessedTime()));
+        if(changes.isMaxInactiveIntervalChanged()) {
+            merged.setMaxInactiveInterval(changes.getMaxInactiveInterval());
+        }
+        merged.clearChanges();
+        return merged;
+    }
+
+    /**
+     * Stores the provided {@link Session}. Must be invoked while holding the lock for the id.
+     *
+     * @param session the {@link Session} that is being saved
+     */
+    private void store(Session session) {
+        Session stored = sessions.get(session.getId());
+        boolean principalChanged = isPrincipalChanged(stored, session);
+        MapSession toSave = merge(session);
+        sessions.put(toSave.getId(), toSave);
+        if(principalChanged) {
+            updatePrincipal(toSave);
+        }
+        if(stored == null) {
+            publish(SessionEvent.Type.CREATED, toSave.getId());
+        }
+        scheduleExpiration(toSave);
+        if(evictionPolicy != null) {
+            writeBuffer.add(new PolicyWrite(toSave.getId(), weigher.weigh(toSave), false));
+        }
+    }
+
+    /**
+     * Determines if saving the provided {@link Session} may change the principal name it is indexed by. Must be
+     * invoked before the changes are merged.
+     */
+    private boolean isPrincipalChanged(Session stored, Session session) {
+        if(stored == null || !(session instanceof MapSession)) {
+            return true;
+        }
+        for(String attrName : ((MapSession) session).getChangedAttributeNames()) {
+            if(principalNameResolver.isPrincipalAttribute(attrName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indexes the stored {@link Session} by its current principal name. Must be invoked while holding the lock for
+     * the id.
+     */
+    private void updatePrincipal(Session session) {
+        String id = session.getId();
+        String previousPrincipal = indexedPrincipals.get(id);
+        String principal = principalNameResolver.resolvePrincipal(session);
+        if(principal == null ? previousPrincipal == null : principal.equals(previousPrincipal)) {
+            return;
+        }
+        unindexPrincipal(previousPrincipal, id);
+        if(principal == null) {
+            indexedPrincipals.remove(id);
+        } else {
+            indexedPrincipals.put(id, principal);
+        }
+        indexPrincipal(principal, id);
+    }
+
+    private static void clearChanges(Session session) {
+        if(session instanceof MapSession) {
+            ((MapSession) session).clearChanges();
+        }
+    }
+
+    private Object lockFor(String id) {
+        return locks[stripeFor(id)];
+    }
+
+    private int stripeFor(String id) {
+        int hash = id.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & (locks.length - 1);
+    }
+
+    private Map<Integer, List<Session>> groupByStripe(Collection<? extends Session> sessions) {
+        Map<Integer, List<Session>> stripes = new TreeMap<Integer, List<Session>>();
+        for(Session session : sessions) {
+            Integer stripe = stripeFor(session.getId());
+            List<Session> group = stripes.get(stripe);
+            if(group == null) {
+                group = new ArrayList<Session>();
+                stripes.put(stripe, group);
+            }
+            group.add(session);
+        }
+        return stripes;
+    }
+
+    private Map<Integer, List<String>> groupIdsByStripe(Collection<String> ids) {
+        Map<Integer, List<String>> stripes = new TreeMap<Integer, List<String>>();
+        for(String id : ids) {
+            Integer stripe = stripeFor(id);
+            List<String> group = stripes.get(stripe);
+            if(group == null) {
+                group = new ArrayList<String>();
+                stripes.put(stripe, group);
+            }
+            group.add(id);
+        }
+        return stripes;
+    }
+
+    private void recordAccess(Collection<String> ids) {
+        if(evictionPolicy == null) {
+            return;
+        }
+        boolean drain = false;
+        for(String id : ids) {
+            drain |= readBuffer.offer(id);
+        }
+        if(drain) {
+            drainBuffers();
+        }
+    }
+
+    private void recordRemoval(String id) {
+        if(evictionPolicy != null) {
+            writeBuffer.add(new PolicyWrite(id, 0, true));
+        }
+    }
+
+    /**
+     * Applies the buffered reads and writes to the eviction policy if the eviction lock is available. A thread that
+     * finds the lock held leaves its writes to the thread holding it, which checks for writes that were buffered
+     * while it was draining after releasing the lock.
+     */
+    private void drainBuffers() {
+        while(evictionPolicy != null && evictionLock.tryLock()) {
+            try {
+                WindowTinyLfuPolicy policy = evictionPolicy;
+                readBuffer.drainTo(policy);
+                PolicyWrite write;
+                while((write = writeBuffer.poll()) != null) {
+                    if(write.removal) {
+                        policy.remove(write.id);
+                    } else if(sessions.containsKey(write.id)) {
+                        evict(policy.recordWrite(write.id, write.weight));
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+            if(writeBuffer.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the sessions that the eviction policy no longer tracks. Must be invoked while holding the eviction lock.
+     */
+    private void evict(List<String> ids) {
+        for(String id : ids) {
+            synchronized (lockFor(id)) {
+                remove(id, SessionEvent.Type.DELETED);
+            }
+            evictionCount.increment();
+        }
+    }
+
+    private void remove(String id, SessionEvent.Type type) {
+        Session removed = sessions.remove(id);
+        expirations.remove(id);
+        if(removed != null) {
+            unindexPrincipal(indexedPrincipals.remove(id), id);
+            publish(type, id);
+        }
+    }
+
+    private void publish(SessionEvent.Type type, String id) {
+        SessionEventPublisher publisher = sessionEventPublisher;
+        if(publisher != SessionEventPublisher.NONE) {
+            publisher.publish(new SessionEvent(type, id, clock.currentTimeMillis()));
+        }
+    }
+
+    private void indexPrincipal(String principal, String id) {
+        if(principal == null) {
+            return;
+        }
+        while(true) {
+            Set<String> ids = principalIndex.get(principal);
+            if(ids == null) {
+                Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+                ids = principalIndex.putIfAbsent(principal, created);
+                if(ids == null) {
+                    ids = created;
+                }
+            }
+            ids.add(id);
+            // retry if the set was removed for being empty while the id was being added
+            if(principalIndex.get(principal) == ids) {
+                return;
+            }
+        }
+    }
+
+    private void unindexPrincipal(String principal, String id) {
+        if(principal == null) {
+            return;
+        }
+        Set<String> ids = principalIndex.get(principal);
+        if(ids != null && ids.remove(id) && ids.isEmpty()) {
+            principalIndex.remove(principal, ids);
+        }
+    }
+
+    private void scheduleExpiration(Session session) {
+        if(session.getMaxInactiveInterval() < 0) {
+            expirations.remove(session.getId());
+        } else {
+            expirations.schedule(session.getId(), getExpirationTime(session));
+        }
+    }
+
+    private static boolean isExpired(Session session, long now) {
+        return session.getMaxInactiveInterval() >= 0 && now >= getExpirationTime(session);
+    }
+
+    private static long getExpirationTime(Session session) {
+        return session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(session.getMaxInactiveInterval());
+    }
+
+    /**
+     * Determines if a {@link Session} with the provided id is stored, without checking if it expired or recording the
+     * access.
+     *
+     * @param id the {@link Session#getId()} to check
+     * @return true if a {@link Session} with the provided id is stored
+     */
+    boolean containsSession(String id) {
+        return sessions.containsKey(id);
     }
 
     public Session createSession() {
-        return new MapSession();
+        return new MapSession(sessionIdGenerator.generateId(), clock.currentTimeMillis());
+    }
+
+    /**
+     * A write or removal that has not been applied to the eviction policy yet
+     */
+    private static final class PolicyWrite {
+        private final String id;
+
+        private final int weight;
+
+        private final boolean removal;
+
+        PolicyWrite(String id, int weight, boolean removal) {
+            this.id = id;
+            this.weight = weight;
+            this.removal = removal;
+        }
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * An immutable view of the metrics of one operation of an {@link InstrumentedSessionRepository} at a point in time.
+ * Since it is composed of simple properties, JMX exposes it as composite data.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see SessionRepositoryMetricsMXBean
+ */
+public final class OperationSnapshot {
+    private final long count;
+
+    private final long errorCount;
+
+    private final long meanNanos;
+
+    private final long p50Nanos;
+
+    private final long p99Nanos;
+
+    private final long p999Nanos;
+
+    private final long maxNanos;
+
+    /**
+     * Creates a new instance
+     *
+     * @param count the number of times the operation was invoked
+     * @param errorCount the number of times the operation threw an exception
+     * @param meanNanos the mean latency in nanoseconds
+     * @param p50Nanos the median latency in nanoseconds
+     * @param p99Nanos the 99th percentile latency in nanoseconds
+     * @param p999Nanos the 99.9th percentile latency in nanoseconds
+     * @param maxNanos the largest latency in nanoseconds
+     */
+    @ConstructorProperties({"count", "errorCount", "meanNanos", "p50Nanos", "p99Nanos", "p999Nanos", "maxNanos"})
+    public OperationSnapshot(long count, long errorCount, long meanNanos, long p50Nanos, long p99Nanos,
+            long p999Nanos, long maxNanos) {
+        this.count = count;
+        this.errorCount = errorCount;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Creates a snapshot of a {@link LatencyHistogram} and the number of errors of the same operation.
+     *
+     * @param latencies the latencies of every invocation of the operation. Cannot be null.
+     * @param errorCount the number of times the operation threw an exception
+     * @return the snapshot
+     */
+    static OperationSnapshot of(LatencyHistogram latencies, long errorCount) {
+        return new OperationSnapshot(latencies.getCount(), errorCount, latencies.getMean(),
+                latencies.getValueAtPercentile(50), latencies.getValueAtPercentile(99),
+                latencies.getValueAtPercentile(99.9), latencies.getMax());
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Gets the fraction of the invocations that threw an exception.
+     *
+     * @return the fraction of the invocations that threw an exception or 0 if the operation was not invoked
+     */
+    public double getErrorRate() {
+        return count == 0 ? 0 : (double) errorCount / count;
+    }
+
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationSnapshot[count=" + count + ", errorCount=" + errorCount + ", meanNanos=" + meanNanos
+                + ", p50Nanos=" + p50Nanos + ", p99Nanos=" + p99Nanos + ", p999Nanos=" + p999Nanos
+                + ", maxNanos=" + maxNanos + "]";
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.security.Principal;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the principal name of a {@link Session} for the
+ * {@link FindByIndexNameSessionRepository#PRINCIPAL_NAME_INDEX_NAME} index. The
+ * {@link FindByIndexNameSessionRepository#PRINCIPAL_NAME_INDEX_NAME} attribute is used if it is set. Otherwise the name
+ * of the authentication in the Spring Security context stored in the {@link Session} is used. Spring Security is
+ * accessed reflectively, so it is not required on the classpath.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class PrincipalNameResolver {
+    /**
+     * The name of the {@link Session} attribute that Spring Security stores its context in
+     */
+    public static final String SPRING_SECURITY_CONTEXT = "SPRING_SECURITY_CONTEXT";
+
+    private static final Method NO_METHOD = ReflectionUtils.findMethod(Object.class, "toString");
+
+    /**
+     * The getAuthentication method of each security context type, or {@link #NO_METHOD} if there is none
+     */
+    private final ConcurrentMap<Class<?>, Method> getAuthenticationMethods = new ConcurrentHashMap<Class<?>, Method>();
+
+    /**
+     * Determines if changing the provided attribute may change the principal name of a {@link Session}.
+     *
+     * @param attributeName the name of the attribute
+     * @return true if changing the provided attribute may change the principal name
+     */
+    public boolean isPrincipalAttribute(String attributeName) {
+        return FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME.equals(attributeName)
+                || SPRING_SECURITY_CONTEXT.equals(attributeName);
+    }
+
+    /**
+     * Resolves the principal name of the provided {@link Session}.
+     *
+     * @param session the {@link Session} to resolve the principal name of
+     * @return the principal name or null if the {@link Session} is not associated to a principal
+     */
+    public String resolvePrincipal(Session session) {
+        Object principalName = session.getAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME);
+        if(principalName != null) {
+            return principalName.toString();
+        }
+        Object context = session.getAttribute(SPRING_SECURITY_CONTEXT);
+        if(context == null) {
+            return null;
+        }
+        Method getAuthentication = getAuthenticationMethods.get(context.getClass());
+        if(getAuthentication == null) {
+            getAuthentication = ReflectionUtils.findMethod(context.getClass(), "getAuthentication");
+            getAuthenticationMethods.put(context.getClass(), getAuthentication == null ? NO_METHOD : getAuthentication);
+        }
+        if(getAuthentication == null || getAuthentication == NO_METHOD) {
+            return null;
+        }
+        Object authentication = ReflectionUtils.invokeMethod(getAuthentication, context);
+        // a Spring Security Authentication is a Principal
+        return authentication instanceof Principal ? ((Principal) authentication).getName() : null;
+    }
+}
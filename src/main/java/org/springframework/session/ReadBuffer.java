@@ -0,0 +1,116 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the ids that were read in ring buffers that are striped by thread, so that recording a read neither
+ * acquires a lock nor contends with threads on other stripes. The buffers are drained by a single thread at a time
+ * (i.e. while holding a lock). A read that finds its buffer full, or loses a race for a slot, is dropped since the
+ * reads are only used as a sample of the access frequency.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+final class ReadBuffer {
+    /**
+     * The number of ids each stripe holds. Must be a power of two.
+     */
+    private static final int CAPACITY = 32;
+
+    /**
+     * The number of ids in a stripe at which draining the buffers is requested
+     */
+    private static final int DRAIN_THRESHOLD = CAPACITY / 2;
+
+    /**
+     * The number of longs between two counters, so that each counter sits on its own cache line
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * The number of ids that were drained (the head) and recorded (the tail) for each stripe
+     */
+    private final AtomicLongArray counters;
+
+    private final AtomicReferenceArray<String> ids;
+
+    private final int mask;
+
+    ReadBuffer() {
+        int stripes = 1;
+        while(stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        this.counters = new AtomicLongArray(stripes * 2 * PADDING);
+        this.ids = new AtomicReferenceArray<String>(stripes * CAPACITY);
+        this.mask = stripes - 1;
+    }
+
+    /**
+     * Records that the id was read.
+     *
+     * @param id the id that was read
+     * @return true if the buffers should be drained
+     */
+    boolean offer(String id) {
+        int stripe = stripe();
+        int headIndex = stripe * 2 * PADDING;
+        int tailIndex = headIndex + PADDING;
+        long head = counters.get(headIndex);
+        long tail = counters.get(tailIndex);
+        long size = tail - head;
+        if(size >= CAPACITY) {
+            return true;
+        }
+        if(!counters.compareAndSet(tailIndex, tail, tail + 1)) {
+            return false;
+        }
+        ids.lazySet(stripe * CAPACITY + (int) (tail & (CAPACITY - 1)), id);
+        return size + 1 >= DRAIN_THRESHOLD;
+    }
+
+    /**
+     * Removes the recorded ids and passes them to the policy. Must only be invoked by one thread at a time.
+     *
+     * @param policy the {@link WindowTinyLfuPolicy} to record the reads with
+     */
+    void drainTo(WindowTinyLfuPolicy policy) {
+        for(int stripe = 0; stripe <= mask; stripe++) {
+            int headIndex = stripe * 2 * PADDING;
+            long head = counters.get(headIndex);
+            long tail = counters.get(headIndex + PADDING);
+            for(; head < tail; head++) {
+                int index = stripe * CAPACITY + (int) (head & (CAPACITY - 1));
+                String id = ids.get(index);
+                if(id == null) {
+                    // the slot was claimed but the id was not published yet, so it is drained the next time
+                    break;
+                }
+                ids.lazySet(index, null);
+                policy.recordAccess(id);
+            }
+            counters.lazySet(headIndex, head);
+        }
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & mask;
+    }
+}
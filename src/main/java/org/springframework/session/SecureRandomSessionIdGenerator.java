@@ -0,0 +1,97 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+
+import java.security.SecureRandom;
+
+/**
+ * <p>
+ * The default {@link SessionIdGenerator}. Each identifier is made of random bytes from a {@link SecureRandom} encoded
+ * using the URL and filename safe Base64 alphabet without padding. The default of 16 bytes gives 128 bits of
+ * entropy, which is more than the 122 random bits of a {@link java.util.UUID}, in 22 characters rather than 36.
+ * </p>
+ *
+ * <p>
+ * Each thread uses its own {@link SecureRandom}, so that threads creating sessions concurrently do not contend on a
+ * single shared instance.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public final class SecureRandomSessionIdGenerator implements SessionIdGenerator {
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final int DEFAULT_LENGTH = 16;
+
+    private final ThreadLocal<SecureRandom> random = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+
+    private final int length;
+
+    /**
+     * Creates a new instance that generates identifiers from 16 random bytes
+     */
+    public SecureRandomSessionIdGenerator() {
+        this(DEFAULT_LENGTH);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param length the number of random bytes in each identifier. Must be at least 16.
+     */
+    public SecureRandomSessionIdGenerator(int length) {
+        Assert.isTrue(length >= DEFAULT_LENGTH, "length must be at least " + DEFAULT_LENGTH);
+        this.length = length;
+    }
+
+    public String generateId() {
+        byte[] bytes = new byte[length];
+        random.get().nextBytes(bytes);
+        return encode(bytes);
+    }
+
+    private static String encode(byte[] bytes) {
+        char[] encoded = new char[(bytes.length * 8 + 5) / 6];
+        int position = 0;
+        int i = 0;
+        for(; i + 3 <= bytes.length; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            encoded[position++] = ALPHABET[(bits >>> 18) & 0x3f];
+            encoded[position++] = ALPHABET[(bits >>> 12) & 0x3f];
+            encoded[position++] = ALPHABET[(bits >>> 6) & 0x3f];
+            encoded[position++] = ALPHABET[bits & 0x3f];
+        }
+        int remaining = bytes.length - i;
+        if(remaining > 0) {
+            int bits = (bytes[i] & 0xff) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+            encoded[position++] = ALPHABET[(bits >>> 18) & 0x3f];
+            encoded[position++] = ALPHABET[(bits >>> 12) & 0x3f];
+            if(remaining == 2) {
+                encoded[position++] = ALPHABET[(bits >>> 6) & 0x3f];
+            }
+        }
+        return new String(encoded, 0, position);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks when session ids expire by grouping them into buckets of a fixed resolution. Draining the index only visits
+ * the buckets that are already due, so the cost of a cleanup is proportional to the number of expired sessions rather
+ * than to the number of sessions being tracked.
+ *
+ * <p>
+ * The index only provides a hint. A session that is returned by {@link #drainExpired(long)} may have been accessed
+ * concurrently, so callers are expected to verify the session is actually expired before removing it.
+ * </p>
+ *
+ * <p>
+ * Since an index may track millions of sessions, it avoids allocating objects per session. The ids are partitioned
+ * by hash into segments that are locked independently. Each segment keeps its entries in parallel primitive arrays,
+ * finds them with an open addressing table and links them into a hashed timing wheel with one slot per bucket, so
+ * that re-scheduling a session is a constant time unlink and link. An entry costs about 32 bytes in addition to the
+ * id, which is shared with the repository.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+final class SessionExpirationIndex {
+    /**
+     * The maximum number of slots of the timing wheel of a segment
+     */
+    private static final int MAXIMUM_WHEEL_SIZE = 4096;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int NONE = -1;
+
+    private final long resolution;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    /**
+     * Creates a new instance
+     *
+     * @param resolution the size of each bucket in milliseconds. Must be greater than 0.
+     */
+    SessionExpirationIndex(long resolution) {
+        Assert.isTrue(resolution > 0, "resolution must be greater than 0");
+        this.resolution = resolution;
+        int bits = 0;
+        while((1 << bits) < Runtime.getRuntime().availableProcessors()) {
+            bits++;
+        }
+        this.segments = new Segment[1 << bits];
+        for(int i = 0; i < segments.length; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.segmentShift = 32 - bits;
+    }
+
+    /**
+     * Schedules (or re-schedules) the session id to expire at the given time.
+     *
+     * @param id the session id
+     * @param expiresAt the time the session expires in milliseconds since midnight of 1/1/1970 GMT
+     */
+    void schedule(String id, long expiresAt) {
+        int hash = hash(id);
+        segmentFor(hash).schedule(id, hash, bucketFor(expiresAt));
+    }
+
+    /**
+     * Stops tracking the session id.
+     *
+     * @param id the session id
+     */
+    void remove(String id) {
+        int hash = hash(id);
+        segmentFor(hash).remove(id, hash);
+    }
+
+    /**
+     * Removes and returns the session ids of every bucket that is due at the given time.
+     *
+     * @param now the current time in milliseconds since midnight of 1/1/1970 GMT
+     * @return the session ids that are expected to be expired. Never null.
+     */
+    List<String> drainExpired(long now) {
+        List<String> expired = new ArrayList<String>();
+        for(Segment segment : segments) {
+            segment.drainExpired(now, expired);
+        }
+        return expired;
+    }
+
+    /**
+     * Gets the number of session ids being tracked.
+     *
+     * @return the number of session ids being tracked
+     */
+    int size() {
+        int size = 0;
+        for(Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    private long bucketFor(long expiresAt) {
+        // round up so that a bucket is never drained before all of its sessions have expired
+        long remainder = expiresAt % resolution;
+        return remainder == 0 ? expiresAt : expiresAt - remainder + resolution;
+    }
+
+    private Segment segmentFor(int hash) {
+        // the segment is chosen by the high bits, while the tables of the segments use the low bits
+        return segments[(int) ((hash & 0xFFFFFFFFL) >>> segmentShift)];
+    }
+
+    private static int hash(String id) {
+        // the repositories choose their lock stripes and shards from the hash code, so it is mixed to keep the
+        // entries of one stripe or shard from clustering in a segment
+        int hash = id.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * A part of the index that is guarded by its own lock. An entry is identified by the index of its node in the
+     * parallel arrays. Nodes that are not in use are chained through {@link #next} to be reused.
+     */
+    private final class Segment {
+        private String[] ids;
+
+        private int[] hashes;
+
+        /**
+         * The time the bucket of each node is due
+         */
+        private long[] buckets;
+
+        private int[] next;
+
+        /**
+         * The previous node in the slot of the timing wheel, or -(slot + 1) for the first node of a slot
+         */
+        private int[] previous;
+
+        /**
+         * The open addressing table from the hash of an id to its node + 1, where 0 is an empty slot
+         */
+        private int[] table;
+
+        /**
+         * The first node of each slot of the timing wheel
+         */
+        private int[] wheel;
+
+        private int free = NONE;
+
+        private int allocated;
+
+        private volatile int count;
+
+        /**
+         * The tick (the time divided by the resolution) of the last drain. Sessions that are scheduled at or before
+         * this tick are linked into its slot, so that the next drain finds them.
+         */
+        private long drainedTick = Long.MIN_VALUE;
+
+        Segment() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        synchronized void schedule(String id, int hash, long bucket) {
+            int node = find(id, hash);
+            if(node == NONE) {
+                node = newNode();
+                ids[node] = id;
+                hashes[node] = hash;
+                buckets[node] = bucket;
+                insert(node);
+                link(node);
+                count++;
+                return;
+            }
+            if(buckets[node] != bucket) {
+                unlink(node);
+                buckets[node] = bucket;
+                link(node);
+            }
+        }
+
+        synchronized void remove(String id, int hash) {
+            int node = find(id, hash);
+            if(node != NONE) {
+                unlink(node);
+                release(node);
+            }
+        }
+
+        synchronized void drainExpired(long now, List<String> expired) {
+            long tick = Math.max(now / resolution, drainedTick);
+            if(drainedTick == Long.MIN_VALUE || tick - drainedTick >= wheel.length) {
+                for(int slot = 0; slot < wheel.length; slot++) {
+                    drainSlot(slot, now, expired);
+                }
+            } else {
+                for(long t = drainedTick; t <= tick; t++) {
+                    drainSlot(slotFor(t), now, expired);
+                }
+            }
+            drainedTick = tick;
+        }
+
+        private void drainSlot(int slot, long now, List<String> expired) {
+            int node = wheel[slot];
+            while(node != NONE) {
+                int following = next[node];
+                // a slot also holds the buckets of later rotations of the wheel, which are not due yet
+                if(buckets[node] <= now) {
+                    expired.add(ids[node]);
+                    unlink(node);
+                    release(node);
+                }
+                node = following;
+            }
+        }
+
+        private int find(String id, int hash) {
+            int mask = table.length - 1;
+            for(int i = hash & mask;; i = (i + 1) & mask) {
+                int entry = table[i];
+                if(entry == 0) {
+                    return NONE;
+                }
+                int node = entry - 1;
+                if(hashes[node] == hash && id.equals(ids[node])) {
+                    return node;
+                }
+            }
+        }
+
+        private void insert(int node) {
+            int mask = table.length - 1;
+            int i = hashes[node] & mask;
+            while(table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = node + 1;
+        }
+
+        private void release(int node) {
+            int mask = table.length - 1;
+            int i = hashes[node] & mask;
+            while(table[i] != node + 1) {
+                i = (i + 1) & mask;
+            }
+            // shift the following entries back instead of leaving a tombstone, so lookups stay short
+            table[i] = 0;
+            for(int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+                int home = hashes[table[j] - 1] & mask;
+                boolean movable = j > i ? (home <= i || home > j) : (home <= i && home > j);
+                if(movable) {
+                    table[i] = table[j];
+                    table[j] = 0;
+                    i = j;
+                }
+            }
+            ids[node] = null;
+            next[node] = free;
+            free = node;
+            count--;
+        }
+
+        private void link(int node) {
+            // a bucket that is already due is linked into the slot of the last drain so the next drain finds it
+            int slot = slotFor(Math.max(buckets[node] / resolution, drainedTick));
+            int head = wheel[slot];
+            next[node] = head;
+            previous[node] = -(slot + 1);
+            if(head != NONE) {
+                previous[head] = node;
+            }
+            wheel[slot] = node;
+        }
+
+        private void unlink(int node) {
+            int before = previous[node];
+            int after = next[node];
+            if(before >= 0) {
+                next[before] = after;
+            } else {
+                wheel[-before - 1] = after;
+            }
+            if(after != NONE) {
+                previous[after] = before;
+            }
+        }
+
+        private int slotFor(long tick) {
+            return (int) (tick & (wheel.length - 1));
+        }
+
+        private int newNode() {
+            if(free != NONE) {
+                int node = free;
+                free = next[node];
+                return node;
+            }
+            if(allocated == ids.length) {
+                grow();
+            }
+            return allocated++;
+        }
+
+        private void grow() {
+            String[] oldIds = ids;
+            int[] oldHashes = hashes;
+            long[] oldBuckets = buckets;
+            allocate(oldIds.length * 2);
+            System.arraycopy(oldIds, 0, ids, 0, allocated);
+            System.arraycopy(oldHashes, 0, hashes, 0, allocated);
+            System.arraycopy(oldBuckets, 0, buckets, 0, allocated);
+            // every node is in use since there are no free nodes, so all of them are added to the new table and wheel
+            for(int node = 0; node < allocated; node++) {
+                insert(node);
+                link(node);
+            }
+        }
+
+        private void allocate(int capacity) {
+            ids = new String[capacity];
+            hashes = new int[capacity];
+            buckets = new long[capacity];
+            next = new int[capacity];
+            previous = new int[capacity];
+            table = new int[capacity * 2];
+            wheel = new int[Math.min(capacity, MAXIMUM_WHEEL_SIZE)];
+            Arrays.fill(wheel, NONE);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+/**
+ * Generates the identifiers of new {@link Session} instances. Implementations must be thread safe, and the
+ * identifiers must be unpredictable, since knowing a {@link Session#getId()} is enough to use the {@link Session}.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see SecureRandomSessionIdGenerator
+ */
+public interface SessionIdGenerator {
+
+    /**
+     * Generates a new identifier.
+     *
+     * @return a new identifier. Cannot be null.
+     */
+    String generateId();
+}
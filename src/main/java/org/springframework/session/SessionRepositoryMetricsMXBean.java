@@ -0,0 +1,69 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+/**
+ * The metrics of an {@link InstrumentedSessionRepository}. Besides being a plain Java interface, this is a JMX MXBean
+ * interface, so the metrics can be exposed by registering the {@link InstrumentedSessionRepository} with an
+ * {@link javax.management.MBeanServer} (i.e. using Spring's {@code MBeanExporter}).
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public interface SessionRepositoryMetricsMXBean {
+
+    /**
+     * Gets the metrics of {@link SessionRepository#getSession(String)}.
+     *
+     * @return the metrics of {@link SessionRepository#getSession(String)}
+     */
+    OperationSnapshot getGetSessionMetrics();
+
+    /**
+     * Gets the metrics of {@link SessionRepository#save(Session)}.
+     *
+     * @return the metrics of {@link SessionRepository#save(Session)}
+     */
+    OperationSnapshot getSaveMetrics();
+
+    /**
+     * Gets the metrics of {@link SessionRepository#delete(String)}.
+     *
+     * @return the metrics of {@link SessionRepository#delete(String)}
+     */
+    OperationSnapshot getDeleteMetrics();
+
+    /**
+     * Gets the metrics of {@link SessionRepository#createSession()}.
+     *
+     * @return the metrics of {@link SessionRepository#createSession()}
+     */
+    OperationSnapshot getCreateSessionMetrics();
+
+    /**
+     * Gets the number of times {@link SessionRepository#getSession(String)} found a {@link Session}.
+     *
+     * @return the number of times a {@link Session} was found
+     */
+    long getHitCount();
+
+    /**
+     * Gets the number of times {@link SessionRepository#getSession(String)} did not find a {@link Session}.
+     *
+     * @return the number of times a {@link Session} was not found
+     */
+    long getMissCount();
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+/**
+ * Converts the attribute values and metadata of a {@link Session} to and from bytes so that they can be stored
+ * outside of the JVM.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see JdkSessionSerializer
+ * @see BinarySessionSerializer
+ */
+public interface SessionSerializer {
+
+    /**
+     * Serializes the provided value.
+     *
+     * @param value the value to serialize. May be null.
+     * @return the serialized form of the value
+     * @throws org.springframework.core.serializer.support.SerializationFailedException if the value cannot be
+     * serialized
+     */
+    byte[] serialize(Object value);
+
+    /**
+     * Deserializes the provided bytes.
+     *
+     * @param bytes the bytes that were produced by {@link #serialize(Object)}. May be null.
+     * @return the deserialized value. Null if the bytes are null or empty.
+     * @throws org.springframework.core.serializer.support.SerializationFailedException if the bytes cannot be
+     * deserialized
+     */
+    Object deserialize(byte[] bytes);
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Collects the serialized sizes of the sessions that a {@link SessionRepository} saves, which allows finding bloated
+ * sessions before they exhaust the memory of the store. The size of every {@link Session} is recorded in
+ * {@link #getSessionSizes()} and the size of each attribute in a {@link SizeHistogram} per attribute name, so the
+ * attributes that make sessions large can be found using their p50, p99 and max sizes.
+ * </p>
+ *
+ * <p>
+ * Optionally, a soft limit logs a warning for each {@link Session} that exceeds it, and a hard limit rejects saving
+ * a {@link Session} that exceeds it. Both name the largest attributes that would need to be removed for the
+ * {@link Session} to fit within the limit. The {@link Session#getId()} is never logged.
+ * </p>
+ *
+ * <p>
+ * A histogram is kept for every attribute name that is seen, so attribute names should not be generated dynamically.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see org.springframework.session.redis.RedisOperationsSessionRepository#setSessionSizeMonitor(SessionSizeMonitor)
+ */
+public class SessionSizeMonitor {
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final SizeHistogram sessionSizes = new SizeHistogram();
+
+    private final ConcurrentMap<String, SizeHistogram> attributeSizes = new ConcurrentHashMap<String, SizeHistogram>();
+
+    private final AtomicLong softLimitExceededCount = new AtomicLong();
+
+    private final AtomicLong hardLimitExceededCount = new AtomicLong();
+
+    private int softLimit = Integer.MAX_VALUE;
+
+    private int hardLimit = Integer.MAX_VALUE;
+
+    /**
+     * Sets the size in bytes above which a warning is logged when a {@link Session} is saved. By default there is no
+     * soft limit.
+     *
+     * @param softLimit the soft limit in bytes. Must be greater than 0.
+     */
+    public void setSoftLimit(int softLimit) {
+        Assert.isTrue(softLimit > 0, "softLimit must be greater than 0");
+        this.softLimit = softLimit;
+    }
+
+    /**
+     * Sets the size in bytes above which saving a {@link Session} fails with an {@link IllegalStateException}. By
+     * default there is no hard limit.
+     *
+     * @param hardLimit the hard limit in bytes. Must be greater than 0.
+     */
+    public void setHardLimit(int hardLimit) {
+        Assert.isTrue(hardLimit > 0, "hardLimit must be greater than 0");
+        this.hardLimit = hardLimit;
+    }
+
+    /**
+     * Records the size of a {@link Session} that is being saved and checks it against the limits. Invoked by the
+     * {@link SessionRepository} before the {@link Session} is written.
+     *
+     * @param attributeSizes the serialized size in bytes of each attribute of the {@link Session} keyed by the
+     * attribute name. Cannot be null.
+     * @return the size of the {@link Session}, which is the sum of the sizes of its attributes
+     * @throws IllegalStateException if the size of the {@link Session} exceeds the hard limit
+     */
+    public long record(Map<String, Integer> attributeSizes) {
+        Assert.notNull(attributeSizes, "attributeSizes cannot be null");
+        long size = 0;
+        for(Map.Entry<String, Integer> attribute : attributeSizes.entrySet()) {
+            histogramFor(attribute.getKey()).record(attribute.getValue());
+            size += attribute.getValue();
+        }
+        sessionSizes.record((int) Math.min(size, Integer.MAX_VALUE));
+        if(size > hardLimit) {
+            hardLimitExceededCount.incrementAndGet();
+            String message = describe(size, hardLimit, "hard", attributeSizes);
+            logger.error(message);
+            throw new IllegalStateException(message);
+        }
+        if(size > softLimit) {
+            softLimitExceededCount.incrementAndGet();
+            if(logger.isWarnEnabled()) {
+                logger.warn(describe(size, softLimit, "soft", attributeSizes));
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets the sizes of the sessions that were saved.
+     *
+     * @return the sizes of the sessions that were saved
+     */
+    public SizeHistogram getSessionSizes() {
+        return sessionSizes;
+    }
+
+    /**
+     * Gets the sizes of the attributes of the sessions that were saved.
+     *
+     * @return an unmodifiable view of the sizes of the attributes keyed by the attribute name
+     */
+    public Map<String, SizeHistogram> getAttributeSizes() {
+        return Collections.unmodifiableMap(attributeSizes);
+    }
+
+    /**
+     * Gets the number of times a {@link Session} that exceeded the soft limit was saved.
+     *
+     * @return the number of times a {@link Session} that exceeded the soft limit was saved
+     */
+    public long getSoftLimitExceededCount() {
+        return softLimitExceededCount.get();
+    }
+
+    /**
+     * Gets the number of times saving a {@link Session} was rejected because it exceeded the hard limit.
+     *
+     * @return the number of times saving a {@link Session} was rejected
+     */
+    public long getHardLimitExceededCount() {
+        return hardLimitExceededCount.get();
+    }
+
+    private SizeHistogram histogramFor(String attributeName) {
+        SizeHistogram histogram = attributeSizes.get(attributeName);
+        if(histogram == null) {
+            SizeHistogram newHistogram = new SizeHistogram();
+            histogram = attributeSizes.putIfAbsent(attributeName, newHistogram);
+            if(histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Describes a {@link Session} that exceeds a limit, naming the largest attributes that would need to be removed
+     * for it to fit within the limit.
+     */
+    private static String describe(long size, int limit, String kind, Map<String, Integer> attributeSizes) {
+        List<Map.Entry<String, Integer>> largestFirst = new ArrayList<Map.Entry<String, Integer>>(attributeSizes.entrySet());
+        Collections.sort(largestFirst, new Comparator<Map.Entry<String, Integer>>() {
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        StringBuilder message = new StringBuilder("Session of ").append(size).append(" bytes exceeds the ")
+                .append(kind).append(" limit of ").append(limit).append(" bytes. Largest attributes:");
+        long remaining = size;
+        for(Map.Entry<String, Integer> attribute : largestFirst) {
+            if(remaining <= limit) {
+                break;
+            }
+            message.append(' ').append(attribute.getKey()).append('=').append(attribute.getValue());
+            remaining -= attribute.getValue();
+        }
+        return message.toString();
+    }
+}
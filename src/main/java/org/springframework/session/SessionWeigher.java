@@ -0,0 +1,35 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+/**
+ * Calculates the weight of a {@link Session} so that a bounded {@link SessionRepository} can limit the total weight
+ * of the sessions it keeps rather than the number of sessions.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see MapSessionRepository#setWeigher(SessionWeigher)
+ */
+public interface SessionWeigher {
+
+    /**
+     * Gets the weight of the {@link Session}.
+     *
+     * @param session the {@link Session} to weigh
+     * @return the weight of the {@link Session}. Must not be negative.
+     */
+    int weigh(Session session);
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.session.events.SessionEventPublisher;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An in-memory {@link SessionRepository} that partitions the sessions by the hash of {@link Session#getId()} into
+ * independent {@link MapSessionRepository} shards. Each shard has its own map, locks, expiration index, eviction
+ * policy and metrics, so threads working with sessions of different shards never contend on shared state. This
+ * includes {@link #cleanupExpiredSessions()}, which can be spread over several threads using
+ * {@link #cleanupExpiredSessions(int)}.
+ * </p>
+ *
+ * <p>
+ * By default there are two shards per available processor. The metrics are available both per shard (i.e.
+ * {@link #getShardSize(int)}), which allows spotting an uneven distribution of the sessions, and summed over every
+ * shard (i.e. {@link #size()}).
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class ShardedSessionRepository implements BatchSessionRepository<Session>, FindByIndexNameSessionRepository<Session> {
+    /**
+     * The number of shards per available processor that are used by default
+     */
+    public static final int DEFAULT_SHARDS_PER_PROCESSOR = 2;
+
+    private final MapSessionRepository[] shards;
+
+    private SessionIdGenerator sessionIdGenerator = new SecureRandomSessionIdGenerator();
+
+    private Clock clock = SystemClock.INSTANCE;
+
+    /**
+     * Creates an instance with {@link #DEFAULT_SHARDS_PER_PROCESSOR} shards per available processor
+     */
+    public ShardedSessionRepository() {
+        this(Runtime.getRuntime().availableProcessors() * DEFAULT_SHARDS_PER_PROCESSOR);
+    }
+
+    /**
+     * Creates an instance with the provided number of shards.
+     *
+     * @param shardCount the number of shards. Must be greater than 0.
+     */
+    public ShardedSessionRepository(int shardCount) {
+        Assert.isTrue(shardCount > 0, "shardCount must be greater than 0");
+        this.shards = new MapSessionRepository[shardCount];
+        for(int i = 0; i < shardCount; i++) {
+            this.shards[i] = new MapSessionRepository();
+        }
+    }
+
+    /**
+     * Sets the {@link SessionIdGenerator} used to generate the identifiers of the sessions created by
+     * {@link #createSession()}. The default is a {@link SecureRandomSessionIdGenerator}.
+     *
+     * @param sessionIdGenerator the {@link SessionIdGenerator} to use. Cannot be null.
+     */
+    public void setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        Assert.notNull(sessionIdGenerator, "sessionIdGenerator cannot be null");
+        this.sessionIdGenerator = sessionIdGenerator;
+    }
+
+    /**
+     * Sets the {@link Clock} used to timestamp the sessions created by {@link #createSession()} and to determine if a
+     * {@link Session} has expired. The default is {@link SystemClock#INSTANCE}.
+     *
+     * @param clock the {@link Clock} to use. Cannot be null.
+     */
+    public void setClock(Clock clock) {
+        Assert.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+        for(MapSessionRepository shard : shards) {
+            shard.setClock(clock);
+        }
+    }
+
+    /**
+     * Bounds the total weight of the sessions that are kept. The weight is divided evenly between the shards and each
+     * shard evicts its own sessions, so the sessions that are evicted are not necessarily the least valuable ones
+     * overall. Should be invoked before the repository is used.
+     *
+     * @param maximumSize the maximum total weight of the sessions. Must be at least the number of shards.
+     * @see MapSessionRepository#setMaximumSize(long)
+     */
+    public void setMaximumSize(long maximumSize) {
+        Assert.isTrue(maximumSize >= shards.length, "maximumSize must be at least the number of shards");
+        long perShard = (maximumSize + shards.length - 1) / shards.length;
+        for(MapSessionRepository shard : shards) {
+            shard.setMaximumSize(perShard);
+        }
+    }
+
+    /**
+     * Sets the {@link SessionEventPublisher} that is notified when a {@link Session} is created, deleted or expired.
+     *
+     * @param sessionEventPublisher the {@link SessionEventPublisher} to use. Cannot be null.
+     * @see MapSessionRepository#setSessionEventPublisher(SessionEventPublisher)
+     */
+    public void setSessionEventPublisher(SessionEventPublisher sessionEventPublisher) {
+        Assert.notNull(sessionEventPublisher, "sessionEventPublisher cannot be null");
+        for(MapSessionRepository shard : shards) {
+            shard.setSessionEventPublisher(sessionEventPublisher);
+        }
+    }
+
+    /**
+     * Sets the {@link SessionWeigher} used to calculate the weight of each {@link Session} when the repository is
+     * bounded.
+     *
+     * @param weigher the {@link SessionWeigher} to use. Cannot be null.
+     * @see MapSessionRepository#setWeigher(SessionWeigher)
+     */
+    public void setWeigher(SessionWeigher weigher) {
+        Assert.notNull(weigher, "weigher cannot be null");
+        for(MapSessionRepository shard : shards) {
+            shard.setWeigher(weigher);
+        }
+    }
+
+    public Session createSession() {
+        return new MapSession(sessionIdGenerator.generateId(), clock.currentTimeMillis());
+    }
+
+    public void save(Session session) {
+        shardFor(session.getId()).save(session);
+    }
+
+    public void saveAll(Collection<? extends Session> sessions) {
+        Assert.notNull(sessions, "sessions cannot be null");
+        List<List<Session>> groups = newGroups();
+        for(Session session : sessions) {
+            group(groups, shardIndexFor(session.getId())).add(session);
+        }
+        for(int i = 0; i < groups.size(); i++) {
+            if(groups.get(i) != null) {
+                shards[i].saveAll(groups.get(i));
+            }
+        }
+    }
+
+    public Session getSession(String id) {
+        return shardFor(id).getSession(id);
+    }
+
+    public Map<String, Session> getSessions(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        List<List<String>> groups = groupIdsByShard(ids);
+        Map<String, Session> found = new HashMap<String, Session>();
+        for(int i = 0; i < groups.size(); i++) {
+            if(groups.get(i) != null) {
+                found.putAll(shards[i].getSessions(groups.get(i)));
+            }
+        }
+        // restore the iteration order of the provided ids
+        Map<String, Session> result = new LinkedHashMap<String, Session>();
+        for(String id : ids) {
+            Session session = found.get(id);
+            if(session != null) {
+                result.put(id, session);
+            }
+        }
+        return result;
+    }
+
+    public void delete(String id) {
+        shardFor(id).delete(id);
+    }
+
+    public void deleteAll(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        List<List<String>> groups = groupIdsByShard(ids);
+        for(int i = 0; i < groups.size(); i++) {
+            if(groups.get(i) != null) {
+                shards[i].deleteAll(groups.get(i));
+            }
+        }
+    }
+
+    /**
+     * Finds the unexpired sessions of a principal by querying the index of every shard.
+     *
+     * @param indexName the name of the index. Only {@link #PRINCIPAL_NAME_INDEX_NAME} is supported.
+     * @param indexValue the principal name
+     * @return the sessions of the principal keyed by {@link Session#getId()}
+     */
+    public Map<String, Session> findByIndexNameAndIndexValue(String indexName, String indexValue) {
+        Map<String, Session> result = new HashMap<String, Session>();
+        for(MapSessionRepository shard : shards) {
+            result.putAll(shard.findByIndexNameAndIndexValue(indexName, indexValue));
+        }
+        return result;
+    }
+
+    /**
+     * Removes the sessions that have expired from every shard.
+     *
+     * @see #cleanupExpiredSessions(int)
+     */
+    public void cleanupExpiredSessions() {
+        for(MapSessionRepository shard : shards) {
+            shard.cleanupExpiredSessions();
+        }
+    }
+
+    /**
+     * Removes the sessions that have expired from a single shard. Since the shards are independent, several threads
+     * can clean up different shards at the same time.
+     *
+     * @param shard the index of the shard, from 0 inclusive to {@link #getShardCount()} exclusive
+     */
+    public void cleanupExpiredSessions(int shard) {
+        shard(shard).cleanupExpiredSessions();
+    }
+
+    /**
+     * Gets the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Gets the number of sessions that are stored in every shard, which includes expired sessions that were not
+     * cleaned up yet.
+     *
+     * @return the number of sessions that are stored
+     */
+    public int size() {
+        int size = 0;
+        for(MapSessionRepository shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of times a lookup found an unexpired {@link Session}, summed over every shard.
+     *
+     * @return the number of times a lookup found an unexpired {@link Session}
+     */
+    public long getHitCount() {
+        long count = 0;
+        for(MapSessionRepository shard : shards) {
+            count += shard.getHitCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of times a lookup did not find an unexpired {@link Session}, summed over every shard.
+     *
+     * @return the number of times a lookup did not find an unexpired {@link Session}
+     */
+    public long getMissCount() {
+        long count = 0;
+        for(MapSessionRepository shard : shards) {
+            count += shard.getMissCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of sessions that were evicted to stay within the maximum size, summed over every shard.
+     *
+     * @return the number of sessions that were evicted
+     */
+    public long getEvictionCount() {
+        long count = 0;
+        for(MapSessionRepository shard : shards) {
+            count += shard.getEvictionCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of sessions that are stored in a shard.
+     *
+     * @param shard the index of the shard, from 0 inclusive to {@link #getShardCount()} exclusive
+     * @return the number of sessions that are stored in the shard
+     */
+    public int getShardSize(int shard) {
+        return shard(shard).size();
+    }
+
+    /**
+     * Gets the number of times a lookup in a shard found an unexpired {@link Session}.
+     *
+     * @param shard the index of the shard, from 0 inclusive to {@link #getShardCount()} exclusive
+     * @return the number of times a lookup in the shard found an unexpired {@link Session}
+     */
+    public long getShardHitCount(int shard) {
+        return shard(shard).getHitCount();
+    }
+
+    /**
+     * Gets the number of times a lookup in a shard did not find an unexpired {@link Session}.
+     *
+     * @param shard the index of the shard, from 0 inclusive to {@link #getShardCount()} exclusive
+     * @return the number of times a lookup in the shard did not find an unexpired {@link Session}
+     */
+    public long getShardMissCount(int shard) {
+        return shard(shard).getMissCount();
+    }
+
+    /**
+     * Gets the number of sessions that a shard evicted to stay within its share of the maximum size.
+     *
+     * @param shard the index of the shard, from 0 inclusive to {@link #getShardCount()} exclusive
+     * @return the number of sessions that the shard evicted
+     */
+    public long getShardEvictionCount(int shard) {
+        return shard(shard).getEvictionCount();
+    }
+
+    /**
+     * Gets the index of the shard that stores the {@link Session} with the provided id.
+     *
+     * @param id the {@link Session#getId()}
+     * @return the index of the shard, from 0 inclusive to {@link #getShardCount()} exclusive
+     */
+    int shardIndexFor(String id) {
+        // the shards stripe their locks by the low bits of the hash code, so the shard is chosen by the high bits of
+        // a multiplicative hash to keep the two independent. Multiplying by the number of shards maps the hash to
+        // the range without requiring a power of two.
+        long hash = (id.hashCode() * 0x9E3779B9) & 0xFFFFFFFFL;
+        return (int) ((hash * shards.length) >>> 32);
+    }
+
+    private MapSessionRepository shardFor(String id) {
+        return shards[shardIndexFor(id)];
+    }
+
+    private MapSessionRepository shard(int shard) {
+        Assert.isTrue(shard >= 0 && shard < shards.length, "shard must be between 0 and " + (shards.length - 1));
+        return shards[shard];
+    }
+
+    private List<List<String>> groupIdsByShard(Collection<String> ids) {
+        List<List<String>> groups = newGroups();
+        for(String id : ids) {
+            group(groups, shardIndexFor(id)).add(id);
+        }
+        return groups;
+    }
+
+    /**
+     * Creates a group for each shard. The group of a shard is created once something is added to it, so the shards
+     * that are not involved can be skipped.
+     */
+    private <T> List<List<T>> newGroups() {
+        List<List<T>> groups = new ArrayList<List<T>>(shards.length);
+        for(int i = 0; i < shards.length; i++) {
+            groups.add(null);
+        }
+        return groups;
+    }
+
+    private static <T> List<T> group(List<List<T>> groups, int shard) {
+        List<T> group = groups.get(shard);
+        if(group == null) {
+            group = new ArrayList<T>();
+            groups.set(shard, group);
+        }
+        return group;
+    }
+}
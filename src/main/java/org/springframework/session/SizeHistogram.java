@@ -0,0 +1,90 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of sizes in bytes that can be recorded concurrently without locking. Sizes below 16 are counted
+ * exactly. Larger sizes are counted in 8 buckets per power of two, so a percentile is accurate to within 12.5% while
+ * the histogram uses a fixed number of counters no matter how many sizes are recorded.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see SessionSizeMonitor
+ */
+public final class SizeHistogram {
+    private final AtomicLongArray counts = new AtomicLongArray(LogLinearBuckets.COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a size.
+     *
+     * @param size the size in bytes. Must not be negative.
+     */
+    public void record(int size) {
+        Assert.isTrue(size >= 0, "size cannot be negative");
+        counts.incrementAndGet(LogLinearBuckets.indexFor(size));
+        count.incrementAndGet();
+        long current;
+        while(size > (current = max.get())) {
+            if(max.compareAndSet(current, size)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of sizes that were recorded.
+     *
+     * @return the number of sizes that were recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the largest size that was recorded.
+     *
+     * @return the largest size that was recorded or 0 if no size was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the size that the provided percentage of the recorded sizes are smaller than or equal to. For example, 50
+     * gets the median and 99 gets the size that only 1% of the recorded sizes exceed. The result is the upper bound
+     * of the bucket the size falls into, but never exceeds {@link #getMax()}.
+     *
+     * @param percentile the percentile, from 0 exclusive to 100 inclusive
+     * @return the size at the percentile or 0 if no size was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        Assert.isTrue(percentile > 0 && percentile <= 100, "percentile must be greater than 0 and at most 100");
+        long[] snapshot = new long[counts.length()];
+        for(int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return LogLinearBuckets.valueAtPercentile(snapshot, percentile, getMax());
+    }
+}
@@ -0,0 +1,619 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * A {@link SessionRepository} that serves reads and writes from a local {@link MapSessionRepository} and writes the
+ * changes behind to a durable {@link SessionRepository} (i.e. Redis). Requests only pay for a local lookup, while the
+ * durable store still receives every change within the configured maximum staleness.
+ * </p>
+ *
+ * <p>
+ * Saving a {@link Session} records the attributes that changed. Changes to the same {@link Session} that are saved
+ * before the next flush are coalesced, so the durable store receives one write per {@link Session} per flush no
+ * matter how many requests modified it. Once {@link #start()} is invoked, a background daemon thread flushes the
+ * changes every {@code maxStalenessMillis}, using the batch operations of the durable store when it is a
+ * {@link BatchSessionRepository}. If a flush fails, the changes are kept and retried with the next flush.
+ * </p>
+ *
+ * <p>
+ * A {@link Session} that is not found locally (i.e. it was created on another node or evicted from a bounded
+ * {@link MapSessionRepository}) is loaded from the durable store. The changes are applied to sessions of the
+ * durable store, which allows it to use its own {@link Session} implementation. These are only retained until
+ * their changes are written, after which the next flush of the same {@link Session} loads it again.
+ * </p>
+ *
+ * <p>
+ * {@link #close()} stops the background thread and, unless {@link #setFlushOnClose(boolean)} is set to false,
+ * flushes the remaining changes.
+ * </p>
+ *
+ * @param <S> the type of {@link Session} used by the durable store
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class TieredSessionRepository<S extends Session> implements SessionRepository<Session>, Closeable {
+    /**
+     * The default maximum staleness of one second
+     */
+    public static final long DEFAULT_MAX_STALENESS_MILLIS = 1000;
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final MapSessionRepository local;
+
+    private final SessionRepository<S> backing;
+
+    private final BatchSessionRepository<S> batchBacking;
+
+    /**
+     * The sessions of the durable store that the pending changes are applied to
+     */
+    private final ConcurrentMap<String, Handle<S>> handles = new ConcurrentHashMap<String, Handle<S>>();
+
+    private final ConcurrentMap<String, PendingWrite> pending = new ConcurrentHashMap<String, PendingWrite>();
+
+    /**
+     * The ids of the {@link Handle}s that can be released once they are written or expire
+     */
+    private final ConcurrentLinkedQueue<String> releasable = new ConcurrentLinkedQueue<String>();
+
+    private final Object flushLock = new Object();
+
+    private final long maxStalenessNanos;
+
+    private Clock clock = SystemClock.INSTANCE;
+
+    private Thread flusher;
+
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicLong flushFailureCount = new AtomicLong();
+
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+
+    private volatile long lastFlushNanos;
+
+    private volatile long maxFlushNanos;
+
+    private volatile boolean flushOnClose = true;
+
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new instance that flushes changes every {@link #DEFAULT_MAX_STALENESS_MILLIS} milliseconds
+     *
+     * @param local the {@link MapSessionRepository} to serve requests from. Cannot be null.
+     * @param backing the durable {@link SessionRepository} to write the changes to. Cannot be null.
+     */
+    public TieredSessionRepository(MapSessionRepository local, SessionRepository<S> backing) {
+        this(local, backing, DEFAULT_MAX_STALENESS_MILLIS);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param local the {@link MapSessionRepository} to serve requests from. Cannot be null.
+     * @param backing the durable {@link SessionRepository} to write the changes to. Cannot be null.
+     * @param maxStalenessMillis the number of milliseconds between flushes, which is how long the durable store may
+     * lag behind the local tier. Must be greater than 0.
+     */
+    public TieredSessionRepository(MapSessionRepository local, SessionRepository<S> backing, long maxStalenessMillis) {
+        Assert.notNull(local, "local cannot be null");
+        Assert.notNull(backing, "backing cannot be null");
+        Assert.isTrue(maxStalenessMillis > 0, "maxStalenessMillis must be greater than 0");
+        this.local = local;
+        this.backing = backing;
+        this.batchBacking = BatchSessionRepositoryAdapter.adapt(backing);
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+    }
+
+    /**
+     * Sets the {@link Clock} used to determine if a {@link Session} of the durable store that was never saved has
+     * expired. The default is {@link SystemClock#INSTANCE}.
+     *
+     * @param clock the {@link Clock} to use. Cannot be null.
+     */
+    public void setClock(Clock clock) {
+        Assert.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+    }
+
+    /**
+     * Sets if {@link #close()} flushes the pending changes. The default is true.
+     *
+     * @param flushOnClose true if {@link #close()} should flush the pending changes
+     */
+    public void setFlushOnClose(boolean flushOnClose) {
+        this.flushOnClose = flushOnClose;
+    }
+
+    /**
+     * Starts the background thread that flushes the changes every {@code maxStalenessMillis}. Until this is invoked,
+     * changes are only written by {@link #flush()} and {@link #close()}.
+     */
+    public synchronized void start() {
+        Assert.state(flusher == null, "The flusher has already been started");
+        Thread flusher = new Thread("session-write-behind") {
+            @Override
+            public void run() {
+                runFlusher();
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+        this.flusher = flusher;
+    }
+
+    public Session createSession() {
+        S session = backing.createSession();
+        handles.put(session.getId(), new Handle<S>(session, false));
+        releasable.add(session.getId());
+        return new MapSession(session);
+    }
+
+    public void save(Session session) {
+        PendingWrite write = PendingWrite.of(session);
+        local.save(session);
+        enqueue(session.getId(), write);
+    }
+
+    public Session getSession(String id) {
+        Session result = local.getSession(id);
+        if(result != null) {
+            return result;
+        }
+        PendingWrite write = pending.get(id);
+        if(write != null && write.isDeleted()) {
+            return null;
+        }
+        MapSession loaded = load(id);
+        if(loaded == null) {
+            return null;
+        }
+        if(write != null) {
+            write.applyTo(loaded);
+        }
+        local.save(loaded);
+        return loaded;
+    }
+
+    public void delete(String id) {
+        local.delete(id);
+        enqueue(id, PendingWrite.deleted());
+    }
+
+    /**
+     * Writes the pending changes to the durable store. This is invoked by the background thread, but can be invoked
+     * directly (i.e. before a planned shutdown of the durable store). If writing fails the changes are kept, so they
+     * are written by the next flush.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            long start = System.nanoTime();
+            Map<String, PendingWrite> drained = new LinkedHashMap<String, PendingWrite>();
+            List<S> toSave = new ArrayList<S>();
+            List<String> toDelete = new ArrayList<String>();
+            for(String id : pending.keySet()) {
+                PendingWrite write = pending.remove(id);
+                if(write == null) {
+                    continue;
+                }
+                write.markFlushed();
+                drained.put(id, write);
+                if(write.isDeleted()) {
+                    handles.remove(id);
+                    toDelete.add(id);
+                    continue;
+                }
+                Handle<S> handle = getHandle(id);
+                if(handle == null) {
+                    logger.warn("Discarding changes to session " + id + " since it no longer exists in " + backing);
+                    continue;
+                }
+                handle.apply(write);
+                toSave.add(handle.session);
+            }
+            if(drained.isEmpty()) {
+                releaseHandles();
+                return;
+            }
+            try {
+                if(!toSave.isEmpty()) {
+                    batchBacking.saveAll(toSave);
+                }
+                if(!toDelete.isEmpty()) {
+                    batchBacking.deleteAll(toDelete);
+                }
+                for(S session : toSave) {
+                    release(session.getId());
+                }
+            } catch(RuntimeException e) {
+                flushFailureCount.incrementAndGet();
+                logger.error("Error writing " + drained.size() + " sessions to " + backing + ". Retrying with the next flush.", e);
+                for(Map.Entry<String, PendingWrite> entry : drained.entrySet()) {
+                    requeue(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                recordFlush(System.nanoTime() - start);
+            }
+            releaseHandles();
+        }
+    }
+
+    /**
+     * Gets the number of sessions with changes that have not been written to the durable store yet.
+     *
+     * @return the number of sessions with pending changes
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Gets the number of sessions of the durable store that are retained to apply changes to.
+     *
+     * @return the number of retained sessions of the durable store
+     */
+    int getRetainedCount() {
+        return handles.size();
+    }
+
+    /**
+     * Gets the number of flushes that wrote changes to the durable store, including the ones that failed.
+     *
+     * @return the number of flushes
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * Gets the number of flushes that failed.
+     *
+     * @return the number of flushes that failed
+     */
+    public long getFlushFailureCount() {
+        return flushFailureCount.get();
+    }
+
+    /**
+     * Gets how long the last flush took.
+     *
+     * @return the duration of the last flush in nanoseconds
+     */
+    public long getLastFlushNanos() {
+        return lastFlushNanos;
+    }
+
+    /**
+     * Gets how long the slowest flush took.
+     *
+     * @return the duration of the slowest flush in nanoseconds
+     */
+    public long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    /**
+     * Gets how long all flushes took together, which divided by {@link #getFlushCount()} is the mean flush latency.
+     *
+     * @return the total duration of the flushes in nanoseconds
+     */
+    public long getTotalFlushNanos() {
+        return totalFlushNanos.get();
+    }
+
+    /**
+     * Stops the background thread if it was started and, unless disabled with {@link #setFlushOnClose(boolean)},
+     * flushes the pending changes.
+     */
+    public void close() {
+        running = false;
+        Thread flusher;
+        synchronized (this) {
+            flusher = this.flusher;
+        }
+        if(flusher != null) {
+            LockSupport.unpark(flusher);
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(flushOnClose) {
+            flush();
+        }
+    }
+
+    private void runFlusher() {
+        while(running) {
+            LockSupport.parkNanos(this, maxStalenessNanos);
+            if(!running) {
+                return;
+            }
+            try {
+                flush();
+            } catch(RuntimeException e) {
+                logger.error("Error flushing sessions to " + backing, e);
+            }
+        }
+    }
+
+    private void enqueue(String id, PendingWrite write) {
+        while(true) {
+            PendingWrite existing = pending.putIfAbsent(id, write);
+            if(existing == null || existing.merge(write)) {
+                return;
+            }
+            // the existing write is being flushed, so it is replaced on the next attempt
+            pending.remove(id, existing);
+        }
+    }
+
+    /**
+     * Puts back changes that could not be written. Must be invoked while holding the flush lock, so any write that is
+     * found was saved after the flush started and takes precedence.
+     */
+    private void requeue(String id, PendingWrite write) {
+        PendingWrite existing = pending.putIfAbsent(id, write.copy());
+        if(existing != null) {
+            existing.mergeOlder(write);
+        }
+    }
+
+    /**
+     * Copies the {@link Session} with the provided id from the durable store, using the retained {@link Handle} if
+     * there is one since it might not have been written to the durable store yet.
+     */
+    private MapSession load(String id) {
+        Handle<S> handle = handles.get(id);
+        if(handle != null) {
+            return handle.copy();
+        }
+        handle = getHandle(id);
+        return handle == null ? null : handle.copy();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Handle<S> getHandle(String id) {
+        Handle<S> handle = handles.get(id);
+        if(handle != null) {
+            return handle;
+        }
+        S session = (S) backing.getSession(id);
+        if(session == null) {
+            return null;
+        }
+        Handle<S> loaded = new Handle<S>(session, true);
+        handle = handles.putIfAbsent(id, loaded);
+        if(handle != null) {
+            return handle;
+        }
+        releasable.add(id);
+        return loaded;
+    }
+
+    /**
+     * Forgets the {@link Handle} of a {@link Session} that was written to the durable store, unless it has changed
+     * since. Must be invoked while holding the flush lock.
+     */
+    private void release(String id) {
+        if(!pending.containsKey(id)) {
+            handles.remove(id);
+        }
+    }
+
+    /**
+     * Forgets the {@link Handle}s that were loaded or created since the last flush and are no longer needed. Handles
+     * with pending changes are released by the flush that writes them, so only sessions that were created but never
+     * saved are looked at again by the next flush. Must be invoked while holding the flush lock.
+     */
+    private void releaseHandles() {
+        long now = clock.currentTimeMillis();
+        List<String> retained = new ArrayList<String>();
+        String id;
+        while((id = releasable.poll()) != null) {
+            Handle<S> handle = handles.get(id);
+            if(handle == null || pending.containsKey(id)) {
+                continue;
+            }
+            if(handle.stored || handle.isExpired(now)) {
+                handles.remove(id, handle);
+            } else {
+                retained.add(id);
+            }
+        }
+        releasable.addAll(retained);
+    }
+
+    private void recordFlush(long nanos) {
+        flushCount.incrementAndGet();
+        totalFlushNanos.addAndGet(nanos);
+        lastFlushNanos = nanos;
+        if(nanos > maxFlushNanos) {
+            maxFlushNanos = nanos;
+        }
+    }
+
+    /**
+     * A {@link Session} of the durable store. Changes are applied and copies are made while holding its monitor,
+     * since it is shared by the flushing thread and requests that fall back to it.
+     */
+    private static final class Handle<S extends Session> {
+        private final S session;
+
+        private final boolean stored;
+
+        Handle(S session, boolean stored) {
+            this.session = session;
+            this.stored = stored;
+        }
+
+        synchronized void apply(PendingWrite write) {
+            write.applyTo(session);
+        }
+
+        synchronized MapSession copy() {
+            return new MapSession(session);
+        }
+
+        synchronized boolean isExpired(long now) {
+            return session.getMaxInactiveInterval() >= 0
+                    && now >= session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(session.getMaxInactiveInterval());
+        }
+    }
+
+    /**
+     * The changes to a {@link Session} that have not been written to the durable store. A value of null means the
+     * attribute was removed.
+     */
+    private static final class PendingWrite {
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        private long lastAccessedTime;
+
+        private int maxInactiveInterval;
+
+        private boolean maxInactiveIntervalChanged;
+
+        private boolean deleted;
+
+        private boolean flushed;
+
+        static PendingWrite of(Session session) {
+            PendingWrite write = new PendingWrite();
+            if(session instanceof MapSession) {
+                MapSession changes = (MapSession) session;
+                for(String attrName : changes.getChangedAttributeNames()) {
+                    write.attributes.put(attrName, changes.getAttribute(attrName));
+                }
+                write.maxInactiveIntervalChanged = changes.isMaxInactiveIntervalChanged();
+            } else {
+                for(String attrName : session.getAttributeNames()) {
+                    write.attributes.put(attrName, session.getAttribute(attrName));
+                }
+                write.maxInactiveIntervalChanged = true;
+            }
+            write.lastAccessedTime = session.getLastAccessedTime();
+            write.maxInactiveInterval = session.getMaxInactiveInterval();
+            return write;
+        }
+
+        static PendingWrite deleted() {
+            PendingWrite write = new PendingWrite();
+            write.deleted = true;
+            return write;
+        }
+
+        synchronized boolean isDeleted() {
+            return deleted;
+        }
+
+        synchronized void markFlushed() {
+            flushed = true;
+        }
+
+        synchronized PendingWrite copy() {
+            PendingWrite copy = new PendingWrite();
+            copy.attributes.putAll(attributes);
+            copy.lastAccessedTime = lastAccessedTime;
+            copy.maxInactiveInterval = maxInactiveInterval;
+            copy.maxInactiveIntervalChanged = maxInactiveIntervalChanged;
+            copy.deleted = deleted;
+            return copy;
+        }
+
+        /**
+         * Applies a newer write on top of this one.
+         *
+         * @return false if this write is already being flushed, in which case nothing was merged
+         */
+        synchronized boolean merge(PendingWrite newer) {
+            if(flushed) {
+                return false;
+            }
+            if(newer.deleted) {
+                attributes.clear();
+                maxInactiveIntervalChanged = false;
+                deleted = true;
+                return true;
+            }
+            deleted = false;
+            attributes.putAll(newer.attributes);
+            lastAccessedTime = Math.max(lastAccessedTime, newer.lastAccessedTime);
+            if(newer.maxInactiveIntervalChanged) {
+                maxInactiveInterval = newer.maxInactiveInterval;
+                maxInactiveIntervalChanged = true;
+            }
+            return true;
+        }
+
+        /**
+         * Applies an older write underneath this one, so the changes of this write take precedence.
+         */
+        synchronized void mergeOlder(PendingWrite older) {
+            if(deleted || older.deleted) {
+                return;
+            }
+            for(Map.Entry<String, Object> attribute : older.attributes.entrySet()) {
+                if(!attributes.containsKey(attribute.getKey())) {
+                    attributes.put(attribute.getKey(), attribute.getValue());
+                }
+            }
+            lastAccessedTime = Math.max(lastAccessedTime, older.lastAccessedTime);
+            if(!maxInactiveIntervalChanged && older.maxInactiveIntervalChanged) {
+                maxInactiveInterval = older.maxInactiveInterval;
+                maxInactiveIntervalChanged = true;
+            }
+        }
+
+        synchronized void applyTo(Session session) {
+            for(Map.Entry<String, Object> attribute : attributes.entrySet()) {
+                if(attribute.getValue() == null) {
+                    session.removeAttribute(attribute.getKey());
+                } else {
+                    session.setAttribute(attribute.getKey(), attribute.getValue());
+                }
+            }
+            if(lastAccessedTime > session.getLastAccessedTime()) {
+                session.setLastAccessedTime(lastAccessedTime);
+            }
+            if(maxInactiveIntervalChanged) {
+                session.setMaxInactiveInterval(maxInactiveInterval);
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An eviction policy that bounds the total weight of the session ids it tracks using the W-TinyLFU algorithm. New
+ * entries are admitted into a small LRU window. Entries that fall out of the window compete with the least recently
+ * used entry of the main space, and whichever one has been requested less often according to a
+ * {@link FrequencySketch} is evicted. The main space is a segmented LRU, so entries that are requested again are
+ * protected from entries that were only requested once.
+ * </p>
+ *
+ * <p>
+ * This implementation has no synchronization, so callers must guard every method with the same lock.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+final class WindowTinyLfuPolicy {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+    private final Node window = new Node(null, 0, WINDOW);
+    private final Node probation = new Node(null, 0, PROBATION);
+    private final Node protectedSegment = new Node(null, 0, PROTECTED);
+    private final FrequencySketch sketch;
+
+    private final long maximumWeight;
+    private final long maximumWindowWeight;
+    private final long maximumProtectedWeight;
+
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    /**
+     * Creates a new instance
+     *
+     * @param maximumWeight the maximum total weight of the entries. Must be greater than 0.
+     */
+    WindowTinyLfuPolicy(long maximumWeight) {
+        Assert.isTrue(maximumWeight > 0, "maximumWeight must be greater than 0");
+        this.maximumWeight = maximumWeight;
+        this.maximumWindowWeight = Math.max(1, maximumWeight / 100);
+        this.maximumProtectedWeight = (long) ((maximumWeight - maximumWindowWeight) * 0.8d);
+        this.sketch = new FrequencySketch((int) Math.min(maximumWeight, 1 << 24));
+    }
+
+    /**
+     * Records that the id was requested.
+     *
+     * @param id the id that was requested
+     */
+    void recordAccess(String id) {
+        sketch.increment(id);
+        Node node = nodes.get(id);
+        if(node == null) {
+            return;
+        }
+        if(node.segment == WINDOW) {
+            moveToTail(window, node);
+        } else if(node.segment == PROBATION) {
+            unlink(node);
+            probationWeight -= node.weight;
+            node.segment = PROTECTED;
+            linkLast(protectedSegment, node);
+            protectedWeight += node.weight;
+            demoteProtected();
+        } else {
+            moveToTail(protectedSegment, node);
+        }
+    }
+
+    /**
+     * Records that the id was written with the given weight.
+     *
+     * @param id the id that was written
+     * @param weight the weight of the entry
+     * @return the ids that must be evicted to stay within the maximum weight. Might include the id that was written.
+     */
+    List<String> recordWrite(String id, int weight) {
+        Node node = nodes.get(id);
+        if(node == null) {
+            sketch.increment(id);
+            node = new Node(id, weight, WINDOW);
+            nodes.put(id, node);
+            linkLast(window, node);
+            windowWeight += weight;
+        } else {
+            adjustWeight(node, weight - node.weight);
+            recordAccess(id);
+        }
+        return evict();
+    }
+
+    /**
+     * Stops tracking the id.
+     *
+     * @param id the id to stop tracking
+     */
+    void remove(String id) {
+        Node node = nodes.remove(id);
+        if(node != null) {
+            unlink(node);
+            adjustWeight(node, -node.weight);
+        }
+    }
+
+    /**
+     * Gets the total weight of the entries being tracked.
+     *
+     * @return the total weight of the entries being tracked
+     */
+    long weightedSize() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    private List<String> evict() {
+        List<String> evicted = new ArrayList<String>(1);
+        while(windowWeight > maximumWindowWeight && window.next != window) {
+            Node candidate = window.next;
+            unlink(candidate);
+            windowWeight -= candidate.weight;
+            candidate.segment = PROBATION;
+            admit(candidate, evicted);
+        }
+        // an entry that is heavier than the window may still not fit
+        while(weightedSize() > maximumWeight) {
+            Node victim = firstOf(window, probation, protectedSegment);
+            evict(victim, evicted);
+        }
+        return evicted;
+    }
+
+    private void admit(Node candidate, List<String> evicted) {
+        while(probationWeight + protectedWeight + candidate.weight > maximumWeight - maximumWindowWeight) {
+            Node victim = firstOf(probation, protectedSegment, null);
+            if(victim == null) {
+                break;
+            }
+            if(sketch.frequency(candidate.id) <= sketch.frequency(victim.id)) {
+                nodes.remove(candidate.id);
+                evicted.add(candidate.id);
+                return;
+            }
+            evict(victim, evicted);
+        }
+        linkLast(probation, candidate);
+        probationWeight += candidate.weight;
+    }
+
+    private void evict(Node victim, List<String> evicted) {
+        nodes.remove(victim.id);
+        unlink(victim);
+        adjustWeight(victim, -victim.weight);
+        evicted.add(victim.id);
+    }
+
+    private void demoteProtected() {
+        while(protectedWeight > maximumProtectedWeight && protectedSegment.next != protectedSegment) {
+            Node demoted = protectedSegment.next;
+            unlink(demoted);
+            protectedWeight -= demoted.weight;
+            demoted.segment = PROBATION;
+            linkLast(probation, demoted);
+            probationWeight += demoted.weight;
+        }
+    }
+
+    private void adjustWeight(Node node, long delta) {
+        if(node.segment == WINDOW) {
+            windowWeight += delta;
+        } else if(node.segment == PROBATION) {
+            probationWeight += delta;
+        } else {
+            protectedWeight += delta;
+        }
+        node.weight += delta;
+    }
+
+    private static Node firstOf(Node first, Node second, Node third) {
+        if(first.next != first) {
+            return first.next;
+        }
+        if(second.next != second) {
+            return second.next;
+        }
+        if(third != null && third.next != third) {
+            return third.next;
+        }
+        return null;
+    }
+
+    private static void moveToTail(Node head, Node node) {
+        unlink(node);
+        linkLast(head, node);
+    }
+
+    private static void linkLast(Node head, Node node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node;
+        node.next = node;
+    }
+
+    /**
+     * An entry of a circular doubly linked list. The head of each list is a sentinel with a null id.
+     */
+    private static final class Node {
+        final String id;
+        long weight;
+        int segment;
+        Node prev = this;
+        Node next = this;
+
+        Node(String id, long weight, int segment) {
+            this.id = id;
+            this.weight = weight;
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters that estimates how often an id has been requested. The counters are
+     * halved periodically so that the frequencies reflect recent history.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = new long[] {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int size;
+
+        FrequencySketch(int expectedSize) {
+            int capacity = 16;
+            while(capacity < expectedSize) {
+                capacity <<= 1;
+            }
+            this.table = new long[Math.max(1, capacity >>> 2)];
+            this.tableMask = table.length - 1;
+            this.sampleSize = 10 * capacity;
+        }
+
+        int frequency(String id) {
+            int hash = spread(id.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for(int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(String id) {
+            int hash = spread(id.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for(int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if(added && ++size == sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            for(int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = size >>> 1;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private static int spread(int hash) {
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            return (hash >>> 16) ^ hash;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.events;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * A {@link SessionEventPublisher} that hands each {@link SessionEvent} to a dedicated dispatcher thread, which
+ * delivers the events to the {@link SessionEventListener}s in batches. Publishing an event only adds it to a bounded,
+ * lock-free queue, so listeners never run on the thread that is processing a request.
+ * </p>
+ *
+ * <p>
+ * When the queue is full the configured {@link OverflowPolicy} decides what happens to the event being published. The
+ * number of events that were discarded is available from {@link #getDroppedCount()}.
+ * </p>
+ *
+ * <p>
+ * The dispatcher thread is a daemon thread. {@link #close()} should be invoked to deliver the remaining events and
+ * stop it when the application is shut down.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class AsyncSessionEventPublisher implements SessionEventPublisher, Closeable {
+
+    /**
+     * Determines what happens to a {@link SessionEvent} that is published while the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * The {@link SessionEvent} being published is discarded
+         */
+        DROP_NEWEST,
+        /**
+         * The oldest queued {@link SessionEvent} is discarded to make room
+         */
+        DROP_OLDEST,
+        /**
+         * The {@link SessionEvent} is delivered on the publishing thread. No events are lost, but the listeners then
+         * run on the request path until the dispatcher catches up.
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * The default capacity of the queue
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * The default maximum number of {@link SessionEvent}s delivered to the listeners at once
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    /**
+     * The longest the dispatcher sleeps before checking the queue, in case a wake up was missed
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final Queue<SessionEvent> queue = new ConcurrentLinkedQueue<SessionEvent>();
+
+    /**
+     * The number of queued events, since {@link ConcurrentLinkedQueue#size()} is not constant time
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final int capacity;
+
+    private final List<SessionEventListener> listeners = new CopyOnWriteArrayList<SessionEventListener>();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final Thread dispatcher;
+
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private volatile boolean running = true;
+
+    private volatile boolean waiting;
+
+    /**
+     * Creates a new instance with a capacity of {@link #DEFAULT_CAPACITY}
+     */
+    public AsyncSessionEventPublisher() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param capacity the maximum number of {@link SessionEvent}s waiting to be delivered. Must be greater than 0.
+     */
+    public AsyncSessionEventPublisher(int capacity) {
+        Assert.isTrue(capacity > 0, "capacity must be greater than 0");
+        this.capacity = capacity;
+        this.dispatcher = new Thread("session-event-dispatcher") {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        };
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Adds a {@link SessionEventListener} that is notified of every {@link SessionEvent}.
+     *
+     * @param listener the {@link SessionEventListener} to add. Cannot be null.
+     */
+    public void addSessionEventListener(SessionEventListener listener) {
+        Assert.notNull(listener, "listener cannot be null");
+        listeners.add(listener);
+    }
+
+    /**
+     * Sets the {@link OverflowPolicy}. The default is {@link OverflowPolicy#DROP_NEWEST}.
+     *
+     * @param overflowPolicy the {@link OverflowPolicy} to use. Cannot be null.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        Assert.notNull(overflowPolicy, "overflowPolicy cannot be null");
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets the maximum number of {@link SessionEvent}s that are delivered to the listeners at once. The default is
+     * {@link #DEFAULT_MAX_BATCH_SIZE}.
+     *
+     * @param maxBatchSize the maximum number of {@link SessionEvent}s delivered at once. Must be greater than 0.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void publish(SessionEvent event) {
+        if(!running) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        while(!tryReserve()) {
+            switch(overflowPolicy) {
+                case DROP_NEWEST:
+                    droppedCount.incrementAndGet();
+                    return;
+                case CALLER_RUNS:
+                    deliver(Collections.singletonList(event));
+                    return;
+                default:
+                    if(queue.poll() != null) {
+                        size.decrementAndGet();
+                        droppedCount.incrementAndGet();
+                    }
+            }
+        }
+        queue.add(event);
+        // the dispatcher may have stopped since the check above, in which case the event is taken back unless the
+        // dispatcher already took it
+        if(!running && queue.remove(event)) {
+            size.decrementAndGet();
+            droppedCount.incrementAndGet();
+            return;
+        }
+        if(waiting) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    /**
+     * Gets the number of {@link SessionEvent}s that were discarded because the queue was full or the publisher was
+     * closed.
+     *
+     * @return the number of {@link SessionEvent}s that were discarded
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets the number of {@link SessionEvent}s waiting to be delivered.
+     *
+     * @return the number of {@link SessionEvent}s waiting to be delivered
+     */
+    public int getPendingCount() {
+        return size.get();
+    }
+
+    /**
+     * Delivers the {@link SessionEvent}s that are already queued and stops the dispatcher thread. Events that are
+     * published afterwards are discarded.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean tryReserve() {
+        while(true) {
+            int current = size.get();
+            if(current >= capacity) {
+                return false;
+            }
+            if(size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void dispatch() {
+        while(true) {
+            // read before draining the queue, so an event that was added before the publisher was closed is delivered
+            boolean stopping = !running;
+            List<SessionEvent> batch = new ArrayList<SessionEvent>();
+            int max = maxBatchSize;
+            SessionEvent event;
+            while(batch.size() < max && (event = queue.poll()) != null) {
+                batch.add(event);
+            }
+            if(!batch.isEmpty()) {
+                size.addAndGet(-batch.size());
+                deliver(Collections.unmodifiableList(batch));
+                continue;
+            }
+            if(stopping) {
+                return;
+            }
+            waiting = true;
+            // checking again after announcing that the dispatcher is waiting ensures a publish is not missed
+            if(queue.isEmpty() && running) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+
+    private void deliver(List<SessionEvent> events) {
+        for(SessionEventListener listener : listeners) {
+            try {
+                listener.onSessionEvents(events);
+            } catch (RuntimeException e) {
+                logger.error("Error delivering session events to " + listener, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.events;
+
+import org.springframework.util.Assert;
+
+/**
+ * Describes a change in the lifecycle of a {@link org.springframework.session.Session}.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public final class SessionEvent {
+
+    /**
+     * The types of {@link SessionEvent}
+     */
+    public enum Type {
+        /**
+         * A new {@link org.springframework.session.Session} was saved for the first time
+         */
+        CREATED,
+        /**
+         * A {@link org.springframework.session.Session} was deleted or evicted
+         */
+        DELETED,
+        /**
+         * A {@link org.springframework.session.Session} was removed because it expired
+         */
+        EXPIRED
+    }
+
+    private final Type type;
+
+    private final String sessionId;
+
+    private final long timestamp;
+
+    /**
+     * Creates a new instance
+     *
+     * @param type the {@link Type} of the event. Cannot be null.
+     * @param sessionId the {@link org.springframework.session.Session#getId()}. Cannot be null.
+     * @param timestamp the time the event occurred in milliseconds since midnight of 1/1/1970 GMT
+     */
+    public SessionEvent(Type type, String sessionId, long timestamp) {
+        Assert.notNull(type, "type cannot be null");
+        Assert.notNull(sessionId, "sessionId cannot be null");
+        this.type = type;
+        this.sessionId = sessionId;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Gets the {@link Type} of the event.
+     *
+     * @return the {@link Type} of the event
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the {@link org.springframework.session.Session#getId()} of the
+     * {@link org.springframework.session.Session} the event is about.
+     *
+     * @return the {@link org.springframework.session.Session#getId()}
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Gets the time the event occurred.
+     *
+     * @return the time the event occurred in milliseconds since midnight of 1/1/1970 GMT
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionEvent [type=" + type + ", sessionId=" + sessionId + ", timestamp=" + timestamp + "]";
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.events;
+
+import java.util.List;
+
+/**
+ * Receives {@link SessionEvent}s from an {@link AsyncSessionEventPublisher}. The events are delivered in batches on
+ * the dispatcher thread of the {@link AsyncSessionEventPublisher}, so an implementation can, for example, write an
+ * entire batch to an audit log at once.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public interface SessionEventListener {
+
+    /**
+     * Invoked with the {@link SessionEvent}s that were published since the previous invocation, in the order they
+     * were published.
+     *
+     * @param events the {@link SessionEvent}s. Never empty.
+     */
+    void onSessionEvents(List<SessionEvent> events);
+}
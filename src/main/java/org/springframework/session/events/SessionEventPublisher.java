@@ -0,0 +1,41 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.events;
+
+/**
+ * Publishes {@link SessionEvent}s on behalf of a {@link org.springframework.session.SessionRepository}.
+ * Implementations are invoked while a request is being processed, so they must not block.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see AsyncSessionEventPublisher
+ */
+public interface SessionEventPublisher {
+    /**
+     * A {@link SessionEventPublisher} that discards every {@link SessionEvent}
+     */
+    SessionEventPublisher NONE = new SessionEventPublisher() {
+        public void publish(SessionEvent event) {
+        }
+    };
+
+    /**
+     * Publishes the provided {@link SessionEvent}.
+     *
+     * @param event the {@link SessionEvent} to publish
+     */
+    void publish(SessionEvent event);
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.mmap;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.session.Clock;
+import org.springframework.session.MapSession;
+import org.springframework.session.SecureRandomSessionIdGenerator;
+import org.springframework.session.Session;
+import org.springframework.session.SessionIdGenerator;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.SystemClock;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A {@link SessionRepository} that keeps serialized sessions in memory mapped files, so that the sessions survive a
+ * restart of the application. Every save and delete is appended to a log that is split into fixed size segment files.
+ * An in memory index maps each session id to its latest record.
+ * </p>
+ *
+ * <p>
+ * On startup the existing segments are mapped and their record headers are scanned to rebuild the index. The sessions
+ * themselves are not deserialized until they are requested, so startup time is bound by how fast the files can be read.
+ * Each record carries a checksum, so a record that was only partially written when the application stopped is
+ * ignored. The sessions that have expired according to the {@link Clock} passed to the constructor are not loaded.
+ * </p>
+ *
+ * <p>
+ * Saving or deleting a {@link Session} leaves its previous record behind as garbage. {@link #compact()} copies the live
+ * records of segments that are mostly garbage to the end of the log and removes those segments, and
+ * {@link #cleanupExpiredSessions()} deletes the sessions that have expired. Both only hold the lock for one record at a
+ * time (after {@link #cleanupExpiredSessions()} copies the index), so they can run on a background thread while
+ * requests are processed. They should be invoked periodically (i.e.
+ * using a {@link java.util.concurrent.ScheduledExecutorService} or Spring's {@code @Scheduled} support).
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class MappedFileSessionRepository implements SessionRepository<Session>, Closeable {
+    /**
+     * The default size of each segment file (64 MB)
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "sessions-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    /**
+     * recordLength (int) + crc (int) + type (byte) + expiresAt (long) + idLength (short)
+     */
+    private static final int RECORD_HEADER_LENGTH = 4 + 4 + 1 + 8 + 2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    private final Map<String, Long> index = new HashMap<String, Long>();
+
+    private Segment active;
+
+    private float compactionThreshold = 0.5f;
+
+    private SessionIdGenerator sessionIdGenerator = new SecureRandomSessionIdGenerator();
+
+    private Clock clock = SystemClock.INSTANCE;
+
+    private Converter<Object, byte[]> serializer = new SerializingConverter();
+
+    private Converter<byte[], Object> deserializer = new DeserializingConverter();
+
+    /**
+     * Creates a new instance that stores its segments in the provided directory using segments of
+     * {@link #DEFAULT_SEGMENT_SIZE}. Any sessions that were previously stored in the directory are loaded.
+     *
+     * @param directory the directory to store the segments in. Created if it does not exist.
+     * @throws IOException if the directory cannot be read
+     */
+    public MappedFileSessionRepository(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a new instance that stores its segments in the provided directory. Any sessions that were previously
+     * stored in the directory are loaded.
+     *
+     * @param directory the directory to store the segments in. Created if it does not exist.
+     * @param segmentSize the size of each segment file in bytes. A serialized {@link Session} cannot be larger than a
+     * segment.
+     * @throws IOException if the directory cannot be read
+     */
+    public MappedFileSessionRepository(File directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Creates a new instance that stores its segments in the provided directory. Any sessions that were previously
+     * stored in the directory and have not expired according to the provided {@link Clock} are loaded.
+     *
+     * @param directory the directory to store the segments in. Created if it does not exist.
+     * @param segmentSize the size of each segment file in bytes. A serialized {@link Session} cannot be larger than a
+     * segment.
+     * @param clock the {@link Clock} used to timestamp the sessions created by {@link #createSession()} and to
+     * determine if a {@link Session} has expired. Cannot be null.
+     * @throws IOException if the directory cannot be read
+     */
+    public MappedFileSessionRepository(File directory, int segmentSize, Clock clock) throws IOException {
+        Assert.notNull(directory, "directory cannot be null");
+        Assert.isTrue(segmentSize > RECORD_HEADER_LENGTH, "segmentSize must be greater than " + RECORD_HEADER_LENGTH);
+        Assert.notNull(clock, "clock cannot be null");
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.clock = clock;
+        load();
+    }
+
+    /**
+     * Sets the {@link SessionIdGenerator} used to generate the identifiers of the sessions created by
+     * {@link #createSession()}. The default is a {@link SecureRandomSessionIdGenerator}.
+     *
+     * @param sessionIdGenerator the {@link SessionIdGenerator} to use. Cannot be null.
+     */
+    public void setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        Assert.notNull(sessionIdGenerator, "sessionIdGenerator cannot be null");
+        this.sessionIdGenerator = sessionIdGenerator;
+    }
+
+    /**
+     * Sets the {@link Clock} used to timestamp the sessions created by {@link #createSession()} and to determine if a
+     * {@link Session} has expired. The default is {@link SystemClock#INSTANCE}. The {@link Clock} used to load the
+     * existing sessions is passed to the constructor.
+     *
+     * @param clock the {@link Clock} to use. Cannot be null.
+     */
+    public void setClock(Clock clock) {
+        Assert.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the ratio of live bytes to used bytes below which {@link #compact()} rewrites a segment. The default is 0.5.
+     *
+     * @param compactionThreshold the ratio of live bytes to used bytes. Must be between 0 and 1.
+     */
+    public void setCompactionThreshold(float compactionThreshold) {
+        Assert.isTrue(compactionThreshold >= 0 && compactionThreshold <= 1, "compactionThreshold must be between 0 and 1");
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Sets the {@link Converter} used to serialize a {@link MapSession}. The default uses JDK serialization.
+     *
+     * @param serializer the {@link Converter} to use. Cannot be null.
+     */
+    public void setSerializer(Converter<Object, byte[]> serializer) {
+        Assert.notNull(serializer, "serializer cannot be null");
+        this.serializer = serializer;
+    }
+
+    /**
+     * Sets the {@link Converter} used to deserialize a {@link MapSession}. The default uses JDK serialization.
+     *
+     * @param deserializer the {@link Converter} to use. Cannot be null.
+     */
+    public void setDeserializer(Converter<byte[], Object> deserializer) {
+        Assert.notNull(deserializer, "deserializer cannot be null");
+        this.deserializer = deserializer;
+    }
+
+    public void save(Session session) {
+        MapSession toSave = session instanceof MapSession ? (MapSession) session : new MapSession(session);
+        byte[] record = createRecord(PUT, getExpirationTime(toSave), encode(toSave.getId()), serializer.convert(toSave));
+        lock.writeLock().lock();
+        try {
+            long address = append(record);
+            release(index.put(toSave.getId(), address));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Session getSession(String id) {
+        byte[] payload;
+        lock.readLock().lock();
+        try {
+            Long address = index.get(id);
+            if(address == null) {
+                return null;
+            }
+            ByteBuffer record = readRecord(address);
+            if(clock.currentTimeMillis() >= record.getLong(9)) {
+                payload = null;
+            } else {
+                record.position(RECORD_HEADER_LENGTH + record.getShort(17));
+                payload = new byte[record.remaining()];
+                record.get(payload);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if(payload == null) {
+            deleteIfExpired(id, clock.currentTimeMillis());
+            return null;
+        }
+        return (Session) deserializer.convert(payload);
+    }
+
+    public void delete(String id) {
+        byte[] record = createRecord(DELETE, 0, encode(id), new byte[0]);
+        lock.writeLock().lock();
+        try {
+            Long previous = index.remove(id);
+            if(previous != null) {
+                release(previous);
+                release(append(record));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Session createSession() {
+        return new MapSession(sessionIdGenerator.generateId(), clock.currentTimeMillis());
+    }
+
+    /**
+     * Deletes the sessions that have expired.
+     */
+    public void cleanupExpiredSessions() {
+        long now = clock.currentTimeMillis();
+        Map<String, Long> addresses;
+        lock.readLock().lock();
+        try {
+            addresses = new HashMap<String, Long>(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+        for(Map.Entry<String, Long> entry : addresses.entrySet()) {
+            if(isExpired(entry.getKey(), entry.getValue(), now)) {
+                deleteIfExpired(entry.getKey(), now);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the segments whose ratio of live bytes is below the compaction threshold. The live records are appended
+     * to the end of the log and the segment files are deleted.
+     *
+     * @throws IOException if a segment cannot be rewritten
+     */
+    public void compact() throws IOException {
+        List<Segment> candidates = new ArrayList<Segment>();
+        lock.readLock().lock();
+        try {
+            for(Segment segment : segments.values()) {
+                if(segment != active && segment.live < segment.writePosition * compactionThreshold) {
+                    candidates.add(segment);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for(Segment segment : candidates) {
+            compact(segment);
+        }
+    }
+
+    /**
+     * Forces the changes to be written to the storage device. This is not necessary to survive a restart of the
+     * application, since the operating system writes the mapped pages eventually, but it is necessary to survive a
+     * crash of the operating system.
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            for(Segment segment : segments.values()) {
+                segment.buffer.force();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes the segments and stops using them. The repository must not be used after it is closed.
+     */
+    public void close() {
+        flush();
+        lock.writeLock().lock();
+        try {
+            segments.clear();
+            index.clear();
+            active = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of sessions that are stored, including expired sessions that have not been cleaned up.
+     *
+     * @return the number of sessions that are stored
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of segment files.
+     *
+     * @return the number of segment files
+     */
+    int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        boolean oldest;
+        int writePosition;
+        lock.readLock().lock();
+        try {
+            oldest = segments.firstKey() == segment.id;
+            writePosition = segment.writePosition;
+        } finally {
+            lock.readLock().unlock();
+        }
+        // the records of a segment are not modified once it is no longer active, so its buffer can be read without
+        // holding the lock. The segments and the bookkeeping of the segment are only accessed while holding it.
+        int position = 0;
+        while(position < writePosition) {
+            long address = address(segment.id, position);
+            ByteBuffer record = readRecord(segment, position);
+            int recordLength = record.getInt(0);
+            String id = readId(record);
+            lock.writeLock().lock();
+            try {
+                if(record.get(8) == PUT) {
+                    Long current = index.get(id);
+                    if(current != null && current == address) {
+                        index.put(id, append(copy(record)));
+                        segment.live -= recordLength;
+                    }
+                } else if(!oldest && !index.containsKey(id)) {
+                    // an older segment may still hold a record that the delete needs to hide after a restart
+                    release(append(copy(record)));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            position += recordLength;
+        }
+        lock.writeLock().lock();
+        try {
+            segments.remove(segment.id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        File file = segment.file;
+        if(!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Determines if the record at the address is still the latest record of the id and has expired.
+     */
+    private boolean isExpired(String id, long address, long now) {
+        lock.readLock().lock();
+        try {
+            Long current = index.get(id);
+            return current != null && current == address && now >= readRecord(address).getLong(9);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void deleteIfExpired(String id, long now) {
+        lock.writeLock().lock();
+        try {
+            Long address = index.get(id);
+            if(address != null && now >= readRecord(address).getLong(9)) {
+                delete(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the record to the active segment, starting a new segment if the active segment is full. Must be invoked
+     * while holding the write lock.
+     */
+    private long append(byte[] record) {
+        Assert.isTrue(record.length <= segmentSize, "A record of " + record.length
+                + " bytes exceeds the segment size of " + segmentSize);
+        if(active.writePosition + record.length > segmentSize) {
+            try {
+                active = createSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not create a new segment in " + directory, e);
+            }
+        }
+        int position = active.writePosition;
+        ByteBuffer target = active.buffer.duplicate();
+        target.position(position);
+        target.put(record);
+        active.writePosition += record.length;
+        active.live += record.length;
+        return address(active.id, position);
+    }
+
+    /**
+     * Marks the record at the address as garbage. Must be invoked while holding the write lock.
+     */
+    private void release(Long address) {
+        if(address == null) {
+            return;
+        }
+        Segment segment = segments.get(segmentOf(address));
+        if(segment != null) {
+            segment.live -= segment.buffer.getInt(offsetOf(address));
+        }
+    }
+
+    /**
+     * Reads the record at the address. Must be invoked while holding the lock.
+     */
+    private ByteBuffer readRecord(long address) {
+        return readRecord(segments.get(segmentOf(address)), offsetOf(address));
+    }
+
+    private static ByteBuffer readRecord(Segment segment, int offset) {
+        ByteBuffer record = segment.buffer.duplicate();
+        record.position(offset);
+        record.limit(offset + record.getInt(offset));
+        return record.slice();
+    }
+
+    private void load() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        long now = clock.currentTimeMillis();
+        for(File file : files) {
+            String name = file.getName();
+            int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = mapSegment(id, file);
+            segments.put(id, segment);
+            scan(segment, now);
+        }
+        active = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+    }
+
+    /**
+     * Adds the records of the segment to the index, stopping at the first record that is incomplete or corrupt.
+     */
+    private void scan(Segment segment, long now) {
+        int position = 0;
+        while(position + RECORD_HEADER_LENGTH <= segmentSize) {
+            int recordLength = segment.buffer.getInt(position);
+            if(recordLength < RECORD_HEADER_LENGTH || position + recordLength > segmentSize) {
+                break;
+            }
+            segment.writePosition = position + recordLength;
+            ByteBuffer record = readRecord(address(segment.id, position));
+            if(!isValid(record)) {
+                segment.writePosition = position;
+                break;
+            }
+            segment.live += recordLength;
+            long address = address(segment.id, position);
+            String id = readId(record);
+            if(record.get(8) == PUT && now < record.getLong(9)) {
+                release(index.put(id, address));
+            } else {
+                release(index.remove(id));
+                release(address);
+            }
+            position += recordLength;
+        }
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        File file = new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = mapSegment(id, file);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Segment mapSegment(int id, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(segmentSize);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            return new Segment(id, file, buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] createRecord(byte type, long expiresAt, byte[] id, byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + id.length + payload.length);
+        record.putInt(record.capacity());
+        record.putInt(0);
+        record.put(type);
+        record.putLong(expiresAt);
+        record.putShort((short) id.length);
+        record.put(id);
+        record.put(payload);
+        byte[] bytes = record.array();
+        record.putInt(4, checksum(bytes));
+        return bytes;
+    }
+
+    private static byte[] copy(ByteBuffer record) {
+        byte[] bytes = new byte[record.limit()];
+        ByteBuffer source = record.duplicate();
+        source.position(0);
+        source.get(bytes);
+        return bytes;
+    }
+
+    private static boolean isValid(ByteBuffer record) {
+        return record.getInt(4) == checksum(copy(record));
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 8, record.length - 8);
+        return (int) crc.getValue();
+    }
+
+    private static String readId(ByteBuffer record) {
+        byte[] id = new byte[record.getShort(17)];
+        ByteBuffer source = record.duplicate();
+        source.position(RECORD_HEADER_LENGTH);
+        source.get(id);
+        try {
+            return new String(id, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] encode(String id) {
+        try {
+            return id.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long getExpirationTime(Session session) {
+        if(session.getMaxInactiveInterval() < 0) {
+            return Long.MAX_VALUE;
+        }
+        return session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(session.getMaxInactiveInterval());
+    }
+
+    private static long address(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private static final class Segment {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        long live;
+
+        Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,556 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.offheap;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.session.Clock;
+import org.springframework.session.MapSession;
+import org.springframework.session.SecureRandomSessionIdGenerator;
+import org.springframework.session.Session;
+import org.springframework.session.SessionIdGenerator;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.SystemClock;
+import org.springframework.util.Assert;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ * A {@link SessionRepository} that keeps serialized sessions outside of the Java heap, so that the heap stays the same
+ * size regardless of how many sessions are stored. This avoids filling the old generation with long lived
+ * {@link MapSession} instances when there are millions of sessions.
+ * </p>
+ *
+ * <p>
+ * Sessions are appended to fixed size slabs of direct memory, and an open addressing hash table that also lives in
+ * direct memory maps each session id to the location of its latest record. Saving or deleting a {@link Session} leaves
+ * its previous record behind as garbage. Once the live records of a slab fall below the compaction threshold, the live
+ * records are copied to the current slab and the slab is put on a free list to be reused.
+ * </p>
+ *
+ * <p>
+ * Expired sessions are treated as absent by {@link #getSession(String)}. They are only released when they are looked
+ * up or when {@link #cleanupExpiredSessions()} is invoked, so {@link #cleanupExpiredSessions()} should be invoked
+ * periodically.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class OffHeapSessionRepository implements SessionRepository<Session> {
+    /**
+     * The default size of each slab (1 MB)
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * recordLength (int) + expiresAt (long) + idLength (short)
+     */
+    private static final int RECORD_HEADER_LENGTH = 4 + 8 + 2;
+
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private static final long EMPTY = -1L;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final int slabSize;
+
+    private final List<Slab> slabs = new ArrayList<Slab>();
+
+    private final LinkedList<Slab> freeSlabs = new LinkedList<Slab>();
+
+    private Slab current;
+
+    private SlotIndex index = new SlotIndex(INITIAL_INDEX_CAPACITY);
+
+    private float compactionThreshold = 0.5f;
+
+    private SessionIdGenerator sessionIdGenerator = new SecureRandomSessionIdGenerator();
+
+    private Clock clock = SystemClock.INSTANCE;
+
+    private Converter<Object, byte[]> serializer = new SerializingConverter();
+
+    private Converter<byte[], Object> deserializer = new DeserializingConverter();
+
+    /**
+     * Creates a new instance using slabs of {@link #DEFAULT_SLAB_SIZE}
+     */
+    public OffHeapSessionRepository() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param slabSize the size of each slab in bytes. A serialized {@link Session} cannot be larger than a slab.
+     */
+    public OffHeapSessionRepository(int slabSize) {
+        Assert.isTrue(slabSize > RECORD_HEADER_LENGTH, "slabSize must be greater than " + RECORD_HEADER_LENGTH);
+        this.slabSize = slabSize;
+        this.current = allocateSlab();
+    }
+
+    /**
+     * Sets the {@link SessionIdGenerator} used to generate the identifiers of the sessions created by
+     * {@link #createSession()}. The default is a {@link SecureRandomSessionIdGenerator}.
+     *
+     * @param sessionIdGenerator the {@link SessionIdGenerator} to use. Cannot be null.
+     */
+    public void setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        Assert.notNull(sessionIdGenerator, "sessionIdGenerator cannot be null");
+        this.sessionIdGenerator = sessionIdGenerator;
+    }
+
+    /**
+     * Sets the {@link Clock} used to timestamp the sessions created by {@link #createSession()} and to determine if a
+     * {@link Session} has expired. The default is {@link SystemClock#INSTANCE}.
+     *
+     * @param clock the {@link Clock} to use. Cannot be null.
+     */
+    public void setClock(Clock clock) {
+        Assert.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the ratio of live bytes to used bytes below which a slab is compacted. The default is 0.5.
+     *
+     * @param compactionThreshold the ratio of live bytes to used bytes. Must be between 0 and 1.
+     */
+    public void setCompactionThreshold(float compactionThreshold) {
+        Assert.isTrue(compactionThreshold >= 0 && compactionThreshold <= 1, "compactionThreshold must be between 0 and 1");
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Sets the {@link Converter} used to serialize a {@link MapSession}. The default uses JDK serialization.
+     *
+     * @param serializer the {@link Converter} to use. Cannot be null.
+     */
+    public void setSerializer(Converter<Object, byte[]> serializer) {
+        Assert.notNull(serializer, "serializer cannot be null");
+        this.serializer = serializer;
+    }
+
+    /**
+     * Sets the {@link Converter} used to deserialize a {@link MapSession}. The default uses JDK serialization.
+     *
+     * @param deserializer the {@link Converter} to use. Cannot be null.
+     */
+    public void setDeserializer(Converter<byte[], Object> deserializer) {
+        Assert.notNull(deserializer, "deserializer cannot be null");
+        this.deserializer = deserializer;
+    }
+
+    public void save(Session session) {
+        MapSession toSave = session instanceof MapSession ? (MapSession) session : new MapSession(session);
+        byte[] id = encode(toSave.getId());
+        byte[] payload = serializer.convert(toSave);
+        int recordLength = RECORD_HEADER_LENGTH + id.length + payload.length;
+        Assert.isTrue(recordLength <= slabSize, "Session " + toSave.getId() + " requires " + recordLength
+                + " bytes which exceeds the slab size of " + slabSize);
+        long expiresAt = getExpirationTime(toSave);
+
+        lock.writeLock().lock();
+        try {
+            long address = append(recordLength, expiresAt, id, payload);
+            int slot = index.find(id, hash(id));
+            if(slot < 0) {
+                index = index.insert(hash(id), address);
+            } else {
+                long previous = index.addressAt(slot);
+                index.setAddressAt(slot, address);
+                release(previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Session getSession(String id) {
+        byte[] encodedId = encode(id);
+        byte[] payload;
+        lock.readLock().lock();
+        try {
+            int slot = index.find(encodedId, hash(encodedId));
+            if(slot < 0) {
+                return null;
+            }
+            long address = index.addressAt(slot);
+            Slab slab = slabs.get(slabOf(address));
+            int offset = offsetOf(address);
+            if(clock.currentTimeMillis() >= slab.buffer.getLong(offset + 4)) {
+                payload = null;
+            } else {
+                int payloadOffset = offset + RECORD_HEADER_LENGTH + encodedId.length;
+                payload = new byte[slab.buffer.getInt(offset) - RECORD_HEADER_LENGTH - encodedId.length];
+                ByteBuffer source = slab.buffer.duplicate();
+                source.position(payloadOffset);
+                source.get(payload);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if(payload == null) {
+            deleteIfExpired(encodedId, clock.currentTimeMillis());
+            return null;
+        }
+        return (Session) deserializer.convert(payload);
+    }
+
+    public void delete(String id) {
+        byte[] encodedId = encode(id);
+        lock.writeLock().lock();
+        try {
+            int slot = index.find(encodedId, hash(encodedId));
+            if(slot >= 0) {
+                release(index.removeAt(slot));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Session createSession() {
+        return new MapSession(sessionIdGenerator.generateId(), clock.currentTimeMillis());
+    }
+
+    /**
+     * Removes the sessions that have expired. Only the off heap index is scanned, so the heap is not filled with
+     * sessions that are about to be discarded.
+     */
+    public void cleanupExpiredSessions() {
+        long now = clock.currentTimeMillis();
+        List<byte[]> expired = new ArrayList<byte[]>();
+        lock.readLock().lock();
+        try {
+            for(int slot = 0; slot < index.capacity; slot++) {
+                long address = index.addressAt(slot);
+                if(address != EMPTY && now >= slabs.get(slabOf(address)).buffer.getLong(offsetOf(address) + 4)) {
+                    expired.add(readId(address));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for(byte[] id : expired) {
+            deleteIfExpired(id, now);
+        }
+    }
+
+    /**
+     * Gets the number of slabs that have been allocated, including the slabs on the free list.
+     *
+     * @return the number of slabs that have been allocated
+     */
+    int getSlabCount() {
+        lock.readLock().lock();
+        try {
+            return slabs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of sessions that are stored, including expired sessions that have not been cleaned up.
+     *
+     * @return the number of sessions that are stored
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void deleteIfExpired(byte[] id, long now) {
+        lock.writeLock().lock();
+        try {
+            int slot = index.find(id, hash(id));
+            if(slot < 0) {
+                return;
+            }
+            long address = index.addressAt(slot);
+            if(now >= slabs.get(slabOf(address)).buffer.getLong(offsetOf(address) + 4)) {
+                release(index.removeAt(slot));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a record to the current slab, moving to a new slab if the current slab is full. Must be invoked while
+     * holding the write lock.
+     */
+    private long append(int recordLength, long expiresAt, byte[] id, byte[] payload) {
+        if(current.used + recordLength > slabSize) {
+            Slab full = current;
+            current = freeSlabs.isEmpty() ? allocateSlab() : freeSlabs.removeFirst();
+            maybeCompact(full);
+        }
+        int offset = current.used;
+        ByteBuffer target = current.buffer.duplicate();
+        target.position(offset);
+        target.putInt(recordLength);
+        target.putLong(expiresAt);
+        target.putShort((short) id.length);
+        target.put(id);
+        target.put(payload);
+        current.used += recordLength;
+        current.live += recordLength;
+        return address(current.id, offset);
+    }
+
+    /**
+     * Marks the record at the address as garbage. Must be invoked while holding the write lock.
+     */
+    private void release(long address) {
+        Slab slab = slabs.get(slabOf(address));
+        slab.live -= slab.buffer.getInt(offsetOf(address));
+        maybeCompact(slab);
+    }
+
+    private void maybeCompact(Slab slab) {
+        if(slab == current || slab.used == 0) {
+            return;
+        }
+        if(slab.live == 0) {
+            slab.used = 0;
+            freeSlabs.add(slab);
+        } else if(slab.live < slab.used * compactionThreshold) {
+            compact(slab);
+        }
+    }
+
+    /**
+     * Copies the live records of the slab to the current slab and puts the slab on the free list.
+     */
+    private void compact(Slab slab) {
+        int offset = 0;
+        while(offset < slab.used) {
+            int recordLength = slab.buffer.getInt(offset);
+            long address = address(slab.id, offset);
+            byte[] id = readId(address);
+            int slot = index.find(id, hash(id));
+            if(slot >= 0 && index.addressAt(slot) == address) {
+                byte[] payload = new byte[recordLength - RECORD_HEADER_LENGTH - id.length];
+                ByteBuffer source = slab.buffer.duplicate();
+                source.position(offset + RECORD_HEADER_LENGTH + id.length);
+                source.get(payload);
+                slab.live -= recordLength;
+                index.setAddressAt(slot, append(recordLength, slab.buffer.getLong(offset + 4), id, payload));
+            }
+            offset += recordLength;
+        }
+        slab.used = 0;
+        slab.live = 0;
+        if(slab != current) {
+            freeSlabs.add(slab);
+        }
+    }
+
+    private Slab allocateSlab() {
+        Slab slab = new Slab(slabs.size(), ByteBuffer.allocateDirect(slabSize));
+        slabs.add(slab);
+        return slab;
+    }
+
+    private byte[] readId(long address) {
+        ByteBuffer source = slabs.get(slabOf(address)).buffer.duplicate();
+        source.position(offsetOf(address) + 12);
+        byte[] id = new byte[source.getShort()];
+        source.get(id);
+        return id;
+    }
+
+    private boolean idEquals(long address, byte[] id) {
+        ByteBuffer buffer = slabs.get(slabOf(address)).buffer;
+        int offset = offsetOf(address) + 12;
+        if(buffer.getShort(offset) != id.length) {
+            return false;
+        }
+        offset += 2;
+        for(int i = 0; i < id.length; i++) {
+            if(buffer.get(offset + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long getExpirationTime(Session session) {
+        if(session.getMaxInactiveInterval() < 0) {
+            return Long.MAX_VALUE;
+        }
+        return session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(session.getMaxInactiveInterval());
+    }
+
+    private static byte[] encode(String id) {
+        try {
+            return id.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int hash(byte[] id) {
+        int hash = 1;
+        for(byte b : id) {
+            hash = 31 * hash + b;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static long address(int slab, int offset) {
+        return ((long) slab << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int slabOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private static final class Slab {
+        final int id;
+        final ByteBuffer buffer;
+        int used;
+        int live;
+
+        Slab(int id, ByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * An open addressing hash table with linear probing that is stored in direct memory. Each slot holds the hash of
+     * the session id and the address of its record. Removal shifts the following entries back rather than leaving
+     * tombstones, so lookups never degrade as sessions come and go.
+     */
+    private final class SlotIndex {
+        final LongBuffer table;
+        final int capacity;
+        final int mask;
+        int size;
+
+        SlotIndex(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.table = ByteBuffer.allocateDirect(capacity * 16).asLongBuffer();
+            for(int slot = 0; slot < capacity; slot++) {
+                table.put(slot * 2, EMPTY);
+            }
+        }
+
+        long addressAt(int slot) {
+            return table.get(slot * 2);
+        }
+
+        void setAddressAt(int slot, long address) {
+            table.put(slot * 2, address);
+        }
+
+        int hashAt(int slot) {
+            return (int) table.get(slot * 2 + 1);
+        }
+
+        int find(byte[] id, int hash) {
+            int slot = hash & mask;
+            while(true) {
+                long address = addressAt(slot);
+                if(address == EMPTY) {
+                    return -1;
+                }
+                if(hashAt(slot) == hash && idEquals(address, id)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Inserts an id that is known to be absent, growing the table if necessary.
+         *
+         * @return the index to use from now on, which is a new instance if the table grew
+         */
+        SlotIndex insert(int hash, long address) {
+            SlotIndex target = this;
+            if((size + 1) * 10 > capacity * 6) {
+                target = new SlotIndex(capacity * 2);
+                for(int slot = 0; slot < capacity; slot++) {
+                    if(addressAt(slot) != EMPTY) {
+                        target.put(hashAt(slot), addressAt(slot));
+                    }
+                }
+            }
+            target.put(hash, address);
+            return target;
+        }
+
+        long removeAt(int slot) {
+            long removed = addressAt(slot);
+            int hole = slot;
+            int next = slot;
+            while(true) {
+                next = (next + 1) & mask;
+                long address = addressAt(next);
+                if(address == EMPTY) {
+                    break;
+                }
+                int home = hashAt(next) & mask;
+                // move the entry into the hole unless its home slot lies cyclically within (hole, next]
+                boolean homeBetween = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+                if(!homeBetween) {
+                    table.put(hole * 2, address);
+                    table.put(hole * 2 + 1, hashAt(next));
+                    hole = next;
+                }
+            }
+            table.put(hole * 2, EMPTY);
+            size--;
+            return removed;
+        }
+
+        private void put(int hash, long address) {
+            int slot = hash & mask;
+            while(addressAt(slot) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table.put(slot * 2, address);
+            table.put(slot * 2 + 1, hash);
+            size++;
+        }
+    }
+}
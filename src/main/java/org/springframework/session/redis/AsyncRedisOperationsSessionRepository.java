@@ -0,0 +1,332 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.redis;
+
+import org.springframework.session.AsyncSessionRepository;
+import org.springframework.session.Session;
+import org.springframework.session.redis.RedisOperationsSessionRepository.RedisSession;
+import org.springframework.util.Assert;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * An {@link AsyncSessionRepository} for Redis that performs the operations of a
+ * {@link RedisOperationsSessionRepository} on an {@link Executor}.
+ * </p>
+ *
+ * <p>
+ * Operations that are requested while a previous operation of the same kind is in progress are queued and then
+ * performed together using the pipelined batch operations of {@link RedisOperationsSessionRepository}. Under load
+ * this means that many requests share a single round trip to Redis, and that a single thread of the {@link Executor}
+ * can keep up with many request threads.
+ * </p>
+ *
+ * <p>
+ * Saves and deletes share a single queue, so the writes of a {@link Session} are performed in the order they were
+ * requested. For example, a {@link Session} that is saved and then deleted (i.e. when logging out) cannot be revived
+ * by the save being performed after the delete.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class AsyncRedisOperationsSessionRepository implements AsyncSessionRepository<RedisSession> {
+    /**
+     * The default maximum number of operations that are performed in a single round trip
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 128;
+
+    private final RedisOperationsSessionRepository repository;
+
+    private final Executor executor;
+
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private final Batcher<String, Session> loads = new Batcher<String, Session>() {
+        @Override
+        void perform(List<Pending<String, Session>> batch) {
+            Map<String, Session> loaded = repository.getSessions(new LinkedHashSet<String>(arguments(batch)));
+            Set<String> used = new HashSet<String>();
+            for(Pending<String, Session> pending : batch) {
+                // a Session is mutable, so each request for the same id must receive its own instance
+                pending.result = used.add(pending.argument) ? loaded.get(pending.argument) : repository.getSession(pending.argument);
+            }
+        }
+    };
+
+    private final Batcher<Write, Void> writes = new Batcher<Write, Void>() {
+        @Override
+        void perform(List<Pending<Write, Void>> batch) {
+            int start = 0;
+            while(start < batch.size()) {
+                int end = endOfRun(batch, start);
+                performRun(batch.subList(start, end));
+                start = end;
+            }
+        }
+    };
+
+    /**
+     * Creates a new instance
+     *
+     * @param repository the {@link RedisOperationsSessionRepository} to perform the operations with. Cannot be null.
+     * @param executor the {@link Executor} to perform the operations on. Cannot be null.
+     */
+    public AsyncRedisOperationsSessionRepository(RedisOperationsSessionRepository repository, Executor executor) {
+        Assert.notNull(repository, "repository cannot be null");
+        Assert.notNull(executor, "executor cannot be null");
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the maximum number of queued operations that are performed in a single round trip. The default is
+     * {@link #DEFAULT_MAX_BATCH_SIZE}.
+     *
+     * @param maxBatchSize the maximum number of operations to perform in a single round trip. Must be greater than 0.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public ListenableFuture<Void> save(RedisSession session) {
+        return writes.submit(new Write(session.getId(), session));
+    }
+
+    public ListenableFuture<Session> getSession(String id) {
+        return loads.submit(id);
+    }
+
+    public ListenableFuture<Void> delete(String id) {
+        return writes.submit(new Write(id, null));
+    }
+
+    public RedisSession createSession() {
+        return repository.createSession();
+    }
+
+    /**
+     * Finds the end of the run of writes that starts at the provided index. Within a run no id is both saved and
+     * deleted, so the saves and the deletes of a run can be performed as two batches without changing the outcome.
+     */
+    private static int endOfRun(List<Pending<Write, Void>> batch, int start) {
+        Set<String> saved = new HashSet<String>();
+        Set<String> deleted = new HashSet<String>();
+        int end = start;
+        while(end < batch.size()) {
+            Write write = batch.get(end).argument;
+            if(write.session == null ? saved.contains(write.id) : deleted.contains(write.id)) {
+                break;
+            }
+            (write.session == null ? deleted : saved).add(write.id);
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Performs a run of writes, failing only the saves or the deletes if one of the two batches fails.
+     */
+    private void performRun(List<Pending<Write, Void>> run) {
+        List<Pending<Write, Void>> saves = new ArrayList<Pending<Write, Void>>();
+        List<Pending<Write, Void>> deletes = new ArrayList<Pending<Write, Void>>();
+        for(Pending<Write, Void> pending : run) {
+            (pending.argument.session == null ? deletes : saves).add(pending);
+        }
+        if(!saves.isEmpty()) {
+            List<RedisSession> sessions = new ArrayList<RedisSession>(saves.size());
+            for(Pending<Write, Void> pending : saves) {
+                sessions.add(pending.argument.session);
+            }
+            try {
+                // only a request whose session is too large fails, the sessions of the other requests are still saved
+                Map<RedisSession, IllegalStateException> rejected = repository.saveAllWithinSizeLimit(sessions);
+                for(Pending<Write, Void> pending : saves) {
+                    pending.failure = rejected.get(pending.argument.session);
+                }
+            } catch (RuntimeException e) {
+                fail(saves, e);
+            }
+        }
+        if(!deletes.isEmpty()) {
+            List<String> ids = new ArrayList<String>(deletes.size());
+            for(Pending<Write, Void> pending : deletes) {
+                ids.add(pending.argument.id);
+            }
+            try {
+                repository.deleteAll(ids);
+            } catch (RuntimeException e) {
+                fail(deletes, e);
+            }
+        }
+    }
+
+    private static void fail(List<Pending<Write, Void>> operations, RuntimeException failure) {
+        for(Pending<Write, Void> pending : operations) {
+            pending.failure = failure;
+        }
+    }
+
+    /**
+     * A save of a {@link RedisSession} or, when there is no {@link RedisSession}, a delete
+     */
+    private static final class Write {
+        private final String id;
+        private final RedisSession session;
+
+        private Write(String id, RedisSession session) {
+            this.id = id;
+            this.session = session;
+        }
+    }
+
+    /**
+     * Queues operations of one kind and performs them in batches. At most one batch of each kind is in progress at a
+     * time, which is what allows the operations that arrive in the meantime to accumulate.
+     *
+     * @param <T> the argument of each operation
+     * @param <R> the result of each operation
+     */
+    private abstract class Batcher<T, R> implements Runnable {
+        private final Queue<Pending<T, R>> queue = new ConcurrentLinkedQueue<Pending<T, R>>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        ListenableFuture<R> submit(T argument) {
+            Pending<T, R> pending = new Pending<T, R>(argument);
+            queue.add(pending);
+            schedule();
+            return pending.task;
+        }
+
+        /**
+         * Schedules a run unless one is scheduled already. If the {@link Executor} rejects the run, the queued
+         * operations are failed, since nothing would perform them.
+         */
+        private void schedule() {
+            if(!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {
+                scheduled.set(false);
+                List<Pending<T, R>> rejected = new ArrayList<Pending<T, R>>();
+                Pending<T, R> pending;
+                while((pending = queue.poll()) != null) {
+                    pending.failure = e;
+                    rejected.add(pending);
+                }
+                for(Pending<T, R> failed : rejected) {
+                    failed.task.run();
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                List<Pending<T, R>> batch = new ArrayList<Pending<T, R>>();
+                Pending<T, R> pending;
+                while(batch.size() < maxBatchSize && (pending = queue.poll()) != null) {
+                    batch.add(pending);
+                }
+                if(!batch.isEmpty()) {
+                    complete(batch);
+                }
+            } finally {
+                scheduled.set(false);
+                // operations that were queued after the batch was taken are performed by another run
+                if(!queue.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+
+        private void complete(List<Pending<T, R>> batch) {
+            Throwable failure = null;
+            try {
+                perform(batch);
+            } catch (Throwable t) {
+                failure = t;
+                for(Pending<T, R> pending : batch) {
+                    pending.failure = t;
+                }
+            }
+            for(Pending<T, R> pending : batch) {
+                pending.task.run();
+            }
+            // the callers were notified, but an Error must still reach the thread running the batch
+            if(failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+
+        /**
+         * Performs the operations, setting the result or failure of each of them. An exception fails every operation
+         * of the batch.
+         *
+         * @param batch the operations to perform
+         */
+        abstract void perform(List<Pending<T, R>> batch);
+
+        List<T> arguments(List<Pending<T, R>> batch) {
+            List<T> arguments = new ArrayList<T>(batch.size());
+            for(Pending<T, R> pending : batch) {
+                arguments.add(pending.argument);
+            }
+            return arguments;
+        }
+    }
+
+    /**
+     * An operation that is waiting to be performed. The {@link ListenableFutureTask} is run once the outcome is known
+     * in order to complete it with that outcome.
+     */
+    private static final class Pending<T, R> {
+        private final T argument;
+        private R result;
+        private Throwable failure;
+        private final ListenableFutureTask<R> task = new ListenableFutureTask<R>(new Callable<R>() {
+            public R call() throws Exception {
+                if(failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                if(failure != null) {
+                    throw (Exception) failure;
+                }
+                return result;
+            }
+        });
+
+        private Pending(T argument) {
+            this.argument = argument;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.redis;
+
+import org.springframework.util.Assert;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link NearCacheInvalidationTransport} that delivers the invalidations to the listeners within the same JVM on the
+ * publishing thread. Sharing an instance between several {@link RedisOperationsSessionRepository} instances simulates
+ * several nodes, which is useful for tests.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class InMemoryNearCacheInvalidationTransport implements NearCacheInvalidationTransport {
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    public void publish(String sessionId, long version) {
+        for(Listener listener : listeners) {
+            listener.onInvalidation(sessionId, version);
+        }
+    }
+
+    public void subscribe(Listener listener) {
+        Assert.notNull(listener, "listener cannot be null");
+        listeners.add(listener);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.redis;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The local copies of the Redis hashes of the sessions that were recently read or written by a
+ * {@link RedisOperationsSessionRepository}. Each entry records the version of the hash it was copied from, so an
+ * invalidation only removes entries that are older than the version that was written.
+ *
+ * <p>
+ * A copy that is loaded from Redis may be older than an invalidation that is received while it is being loaded. To
+ * avoid caching such a copy, a placeholder is added before loading and an invalidation replaces the placeholder, or
+ * an outdated copy, with a tombstone that records the version that was written. The tombstone rejects older copies
+ * until it expires.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+final class NearCache {
+    /**
+     * How long a placeholder or tombstone is kept, which must be longer than loading a session takes
+     */
+    static final long TOMBSTONE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The version of a placeholder, which is older than any version that is written
+     */
+    private static final long NO_VERSION = -1;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong staleReadCount = new AtomicLong();
+
+    private volatile int maximumSize;
+
+    NearCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Gets the unexpired copy for the provided id, counting the hit or miss. Placeholders and tombstones are misses.
+     */
+    Entry get(String id, long now) {
+        Entry entry = entries.get(id);
+        if(entry != null && now >= entry.expirationTime) {
+            entries.remove(id, entry);
+            entry = null;
+        }
+        if(entry != null && entry.fields == null) {
+            entry = null;
+        }
+        if(entry == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a placeholder for the provided id before it is loaded from Redis, so that an invalidation that is received
+     * while it is loaded is remembered.
+     */
+    void beginLoad(String id, long now) {
+        if(entries.putIfAbsent(id, new Entry(NO_VERSION, null, now + TOMBSTONE_MILLIS)) == null) {
+            evictIfNecessary();
+        }
+    }
+
+    /**
+     * Removes the placeholder for the provided id after finding that there is nothing to load.
+     */
+    void endLoad(String id) {
+        Entry existing = entries.get(id);
+        if(existing != null && existing.version == NO_VERSION) {
+            entries.remove(id, existing);
+        }
+    }
+
+    /**
+     * Caches the provided copy unless the same or a newer version is already cached, or a tombstone shows that a newer
+     * version was written.
+     */
+    void put(String id, Entry entry) {
+        while(true) {
+            Entry existing = entries.putIfAbsent(id, entry);
+            if(existing == null) {
+                evictIfNecessary();
+                return;
+            }
+            boolean newer = existing.fields == null ? existing.version > entry.version : existing.version >= entry.version;
+            if(newer || entries.replace(id, existing, entry)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replaces the entry for the provided id with a tombstone if it is older than the provided version.
+     */
+    void invalidate(String id, long version, long now) {
+        Entry tombstone = new Entry(version, null, now + TOMBSTONE_MILLIS);
+        while(true) {
+            Entry existing = entries.get(id);
+            if(existing == null || existing.version >= version || entries.replace(id, existing, tombstone)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records that a session was written based on an outdated copy and forgets the copy. A tombstone is kept, since
+     * it was added by the invalidation of the newer version.
+     */
+    void staleRead(String id) {
+        staleReadCount.incrementAndGet();
+        Entry existing = entries.get(id);
+        if(existing != null && existing.fields != null) {
+            entries.remove(id, existing);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    long getStaleReadCount() {
+        return staleReadCount.get();
+    }
+
+    /**
+     * Removes arbitrary entries while the cache is too big. Entries are cheap to reload, so this avoids the bookkeeping
+     * of tracking recency on every read.
+     */
+    private void evictIfNecessary() {
+        int excess = entries.size() - maximumSize;
+        Iterator<String> ids = entries.keySet().iterator();
+        while(excess-- > 0 && ids.hasNext()) {
+            ids.next();
+            ids.remove();
+        }
+    }
+
+    /**
+     * A copy of the Redis hash of a session
+     */
+    static final class Entry {
+        final long version;
+
+        /**
+         * The fields of the hash keyed by the deserialized hash key or null for a placeholder or tombstone. Never
+         * modified once the entry is created.
+         */
+        final Map<String, byte[]> fields;
+
+        final long expirationTime;
+
+        Entry(long version, Map<String, byte[]> fields, long expirationTime) {
+            this.version = version;
+            this.fields = fields;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.redis;
+
+/**
+ * Delivers the invalidations of the near cache of a {@link RedisOperationsSessionRepository} to the other nodes that
+ * share the same Redis. Each invalidation carries the version of the session that was written, so a node only drops
+ * entries that are older than that version.
+ *
+ * @author Rob Winch
+ * @since 1.0
+ * @see RedisOperationsSessionRepository#setNearCacheInvalidationTransport(NearCacheInvalidationTransport)
+ * @see RedisNearCacheInvalidationTransport
+ * @see InMemoryNearCacheInvalidationTransport
+ */
+public interface NearCacheInvalidationTransport {
+
+    /**
+     * Notifies every subscribed {@link Listener}, including the ones of this node, that a session changed.
+     *
+     * @param sessionId the id of the session that changed
+     * @param version the version of the session that was written or {@link Long#MAX_VALUE} if it was deleted
+     */
+    void publish(String sessionId, long version);
+
+    /**
+     * Subscribes a {@link Listener} to the invalidations published by every node.
+     *
+     * @param listener the {@link Listener} to notify. Cannot be null.
+     */
+    void subscribe(Listener listener);
+
+    /**
+     * Receives the invalidations published using a {@link NearCacheInvalidationTransport}.
+     */
+    interface Listener {
+
+        /**
+         * Invoked when a session changed.
+         *
+         * @param sessionId the id of the session that changed
+         * @param version the version of the session that was written or {@link Long#MAX_VALUE} if it was deleted
+         */
+        void onInvalidation(String sessionId, long version);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session.redis;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.util.Assert;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+/**
+ * A {@link NearCacheInvalidationTransport} that uses a Redis pub/sub channel. When it is used by a
+ * {@link RedisOperationsSessionRepository}, the invalidations of all of the sessions that are saved or deleted
+ * together are published in a single pipeline.
+ *
+ * <p>
+ * The subscriptions are managed by the provided {@link RedisMessageListenerContainer}, which must be started (i.e. by
+ * declaring it as a bean) for invalidations to be received.
+ * </p>
+ *
+ * @author Rob Winch
+ * @since 1.0
+ */
+public class RedisNearCacheInvalidationTransport implements NearCacheInvalidationTransport {
+    /**
+     * The default name of the channel
+     */
+    public static final String DEFAULT_CHANNEL = "spring-security-sessions:near-cache:invalidations";
+
+    private static final String CHARSET = "UTF-8";
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final RedisOperations<?, ?> redisOperations;
+
+    private final RedisMessageListenerContainer container;
+
+    private final String channel;
+
+    private final byte[] channelBytes;
+
+    /**
+     * Creates a new instance that uses the {@link #DEFAULT_CHANNEL}
+     *
+     * @param redisOperations the {@link RedisOperations} used to publish. Cannot be null.
+     * @param container the {@link RedisMessageListenerContainer} used to subscribe. Cannot be null.
+     */
+    public RedisNearCacheInvalidationTransport(RedisOperations<?, ?> redisOperations,
+            RedisMessageListenerContainer container) {
+        this(redisOperations, container, DEFAULT_CHANNEL);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param redisOperations the {@link RedisOperations} used to publish. Cannot be null.
+     * @param container the {@link RedisMessageListenerContainer} used to subscribe. Cannot be null.
+     * @param channel the name of the channel. Cannot be null or empty.
+     */
+    public RedisNearCacheInvalidationTransport(RedisOperations<?, ?> redisOperations,
+            RedisMessageListenerContainer container, String channel) {
+        Assert.notNull(redisOperations, "redisOperations cannot be null");
+        Assert.notNull(container, "container cannot be null");
+        Assert.hasLength(channel, "channel cannot be null or empty");
+        this.redisOperations = redisOperations;
+        this.container = container;
+        this.channel = channel;
+        this.channelBytes = encode(channel);
+    }
+
+    public void publish(final String sessionId, final long version) {
+        redisOperations.execute(new RedisCallback<Object>() {
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                writeTo(connection, sessionId, version);
+                return null;
+            }
+        });
+    }
+
+    public void subscribe(final Listener listener) {
+        Assert.notNull(listener, "listener cannot be null");
+        container.addMessageListener(new MessageListener() {
+            public void onMessage(Message message, byte[] pattern) {
+                String body = decode(message.getBody());
+                int separator = body.indexOf(':');
+                if(separator < 0) {
+                    logger.warn("Ignoring invalid near cache invalidation " + body);
+                    return;
+                }
+                listener.onInvalidation(body.substring(separator + 1), Long.parseLong(body.substring(0, separator)));
+            }
+        }, new ChannelTopic(channel));
+    }
+
+    /**
+     * Publishes the invalidations of several sessions in a single pipeline.
+     *
+     * @param versions the version of each session that was written keyed by the id of the session
+     */
+    void publishAll(final Map<String, Long> versions) {
+        if(versions.isEmpty()) {
+            return;
+        }
+        redisOperations.execute(new RedisCallback<Object>() {
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                connection.openPipeline();
+                for(Map.Entry<String, Long> version : versions.entrySet()) {
+                    writeTo(connection, version.getKey(), version.getValue());
+                }
+                connection.closePipeline();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Publishes an invalidation using the provided {@link RedisConnection}, which allows adding it to a pipeline.
+     *
+     * @param connection the {@link RedisConnection} to use
+     * @param sessionId the id of the session that changed
+     * @param version the version of the session that was written
+     */
+    void writeTo(RedisConnection connection, String sessionId, long version) {
+        connection.publish(channelBytes, encode(version + ":" + sessionId));
+    }
+
+    private static byte[] encode(String value) {
+        try {
+            return value.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(byte[] value) {
+        try {
+            return new String(value, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -15,66 +15,743 @@
  */
 package org.springframework.session.redis;
 
-import org.springframework.data.redis.core.BoundHashOperations;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.session.BatchSessionRepository;
+import org.springframework.session.Clock;
+import org.springframework.session.FindByIndexNameSessionRepository;
 import org.springframework.session.MapSession;
+import org.springframework.session.PrincipalNameResolver;
+import org.springframework.session.SecureRandomSessionIdGenerator;
 import org.springframework.session.Session;
+import org.springframework.session.SessionIdGenerator;
 import org.springframework.session.SessionRepository;
+import org.springframework.session.SessionSerializer;
+import org.springframework.session.SessionSizeMonitor;
+import org.springframework.session.SystemClock;
+import org.springframework.session.events.SessionEvent;
+import org.springframework.session.events.SessionEventPublisher;
+import org.springframework.util.Assert;
 
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * A {@link SessionRepository} that stores each {@link Session} as a Redis hash using the provided
+ * {@link RedisOperations}.
+ *
+ * <p>
+ * The session attributes are not deserialized when a {@link Session} is loaded. Instead the serialized form is kept
+ * and each attribute is deserialized the first time it is requested, so a request that only reads one attribute does
+ * not pay for deserializing the others. Only the attributes that are set or removed are written when the
+ * {@link Session} is saved.
+ * </p>
+ *
+ * <p>
+ * By default the attribute values and the metadata of a {@link Session} are serialized using the hash value
+ * serializer of the {@link RedisOperations}. A more compact format can be used by providing a
+ * {@link org.springframework.session.BinarySessionSerializer} to {@link #setSessionSerializer(SessionSerializer)}.
+ * Wrapping it in a {@link org.springframework.session.CompressingSessionSerializer} compresses large attributes, which
+ * are then only decompressed if they are requested.
+ * </p>
+ *
+ * <p>
+ * The batch operations of {@link BatchSessionRepository} are pipelined, so they take a single round trip to Redis
+ * regardless of the number of sessions.
+ * </p>
+ *
+ * <p>
+ * The ids of the sessions of each principal are kept in a Redis set that is updated in the same pipeline as the
+ * {@link Session} itself, so {@link #findByIndexNameAndIndexValue(String, String)} only loads the sessions of the
+ * requested principal. The principal name is stored with the {@link Session} so that it is only resolved again when
+ * an attribute it is resolved from changes. Ids of sessions that expired are removed from the set when they are
+ * found to be missing.
+ * </p>
+ *
+ * <p>
+ * Providing a {@link NearCacheInvalidationTransport} to
+ * {@link #setNearCacheInvalidationTransport(NearCacheInvalidationTransport)} enables a near cache that keeps a local
+ * copy of the hashes of the sessions this node recently read or wrote, so repeated requests for the same
+ * {@link Session} are served without a round trip to Redis. Every save increments a version stored in the hash and
+ * publishes it, so the other nodes drop copies that are older. If a {@link Session} was read from a copy that turns
+ * out to be outdated (i.e. because the invalidation had not arrived yet), this is detected when it is saved, counted by
+ * {@link #getNearCacheStaleReadCount()} and the copy is discarded. Only the attributes that changed are written, so
+ * such a save does not overwrite the attributes written by the other node.
+ * </p>
+ *
+ * <p>
+ * Most requests only update {@link Session#getLastAccessedTime()}. Setting a touch threshold with
+ * {@link #setTouchThreshold(double)} skips saving a {@link Session} whose only change is its last accessed time until
+ * the given fraction of its {@link Session#getMaxInactiveInterval()} has passed since the last accessed time that was
+ * written, so most read-only requests do not write to Redis at all. The trade-off is that a {@link Session} may expire
+ * up to that fraction of its max inactive interval early.
+ * </p>
+ *
+ * <p>
+ * Enabling {@link #setDirtyChecking(boolean)} fingerprints the serialized form of each attribute when it is read and
+ * compares it when the {@link Session} is saved. Attributes that are set to a value equal to the stored one are not
+ * written, while attributes whose value was modified in place are written without having to set them again.
+ * </p>
+ *
+ * <p>
+ * Setting a {@link SessionSizeMonitor} with {@link #setSessionSizeMonitor(SessionSizeMonitor)} records the size that
+ * each {@link Session} and each of its attributes has in Redis whenever it is saved. The sizes are taken from the
+ * serialized form that is loaded or written anyway, so no attribute is serialized only to be measured.
+ * </p>
+ *
  * @author Rob Winch
  */
-public class RedisOperationsSessionRepository implements SessionRepository<RedisOperationsSessionRepository.RedisSession> {
+public class RedisOperationsSessionRepository implements BatchSessionRepository<RedisOperationsSessionRepository.RedisSession>,
+        FindByIndexNameSessionRepository<RedisOperationsSessionRepository.RedisSession> {
     private final String BOUNDED_HASH_KEY_PREFIX = "spring-security-sessions:";
     private final String CREATION_TIME_ATTR = "creationTime";
     private final String MAX_INACTIVE_ATTR = "maxInactiveInterval";
     private final String LAST_ACCESSED_ATTR = "lastAccessedTime";
     private final String SESSION_ATTR_PREFIX = "sessionAttr:";
+    private final String PRINCIPAL_NAME_ATTR = "principalName";
+    private final String PRINCIPAL_INDEX_KEY_PREFIX = BOUNDED_HASH_KEY_PREFIX + "index:principal:";
+    private final String VERSION_ATTR = "version";
+
+    /**
+     * The default maximum number of sessions kept by the near cache
+     */
+    public static final int DEFAULT_NEAR_CACHE_MAXIMUM_SIZE = 10000;
 
 
     private final RedisOperations<String,Session> redisTemplate;
 
+    private SessionIdGenerator sessionIdGenerator = new SecureRandomSessionIdGenerator();
+
+    private Clock clock = SystemClock.INSTANCE;
+
+    private SessionSerializer sessionSerializer;
+
+    private final PrincipalNameResolver principalNameResolver = new PrincipalNameResolver();
+
+    private SessionEventPublisher sessionEventPublisher = SessionEventPublisher.NONE;
+
+    private final NearCache nearCache = new NearCache(DEFAULT_NEAR_CACHE_MAXIMUM_SIZE);
+
+    /**
+     * The transport of the near cache invalidations or null if the near cache is disabled
+     */
+    private NearCacheInvalidationTransport invalidationTransport;
+
+    private double touchThreshold;
+
+    private final AtomicLong skippedTouchCount = new AtomicLong();
+
+    private boolean dirtyChecking;
+
+    private final AtomicLong unchangedAttributeCount = new AtomicLong();
+
+    /**
+     * The monitor the sizes of the saved sessions are recorded with or null if the sizes are not measured
+     */
+    private SessionSizeMonitor sessionSizeMonitor;
+
     public RedisOperationsSessionRepository(RedisOperations<String, Session> redisTemplate) {
         this.redisTemplate = redisTemplate;
+        this.sessionSerializer = new HashValueSessionSerializer();
+    }
+
+    /**
+     * Sets the {@link SessionSerializer} used to serialize the attribute values and the metadata of each
+     * {@link Session}. The default uses the hash value serializer of the {@link RedisOperations}. Changing the
+     * {@link SessionSerializer} changes the stored format, so sessions that were stored with the previous
+     * {@link SessionSerializer} can no longer be read.
+     *
+     * @param sessionSerializer the {@link SessionSerializer} to use. Cannot be null.
+     */
+    public void setSessionSerializer(SessionSerializer sessionSerializer) {
+        Assert.notNull(sessionSerializer, "sessionSerializer cannot be null");
+        this.sessionSerializer = sessionSerializer;
+    }
+
+    /**
+     * Sets the {@link SessionIdGenerator} used to generate the identifiers of the sessions created by
+     * {@link #createSession()}. The default is a {@link SecureRandomSessionIdGenerator}.
+     *
+     * @param sessionIdGenerator the {@link SessionIdGenerator} to use. Cannot be null.
+     */
+    public void setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        Assert.notNull(sessionIdGenerator, "sessionIdGenerator cannot be null");
+        this.sessionIdGenerator = sessionIdGenerator;
+    }
+
+    /**
+     * Sets the {@link Clock} used to timestamp the sessions created by {@link #createSession()}. The default is
+     * {@link SystemClock#INSTANCE}.
+     *
+     * @param clock the {@link Clock} to use. Cannot be null.
+     */
+    public void setClock(Clock clock) {
+        Assert.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the {@link SessionEventPublisher} that is notified when a {@link Session} is created or deleted using this
+     * repository. Sessions that expire are removed by Redis itself, so no
+     * {@link SessionEvent.Type#EXPIRED} events are published. The default discards the events.
+     *
+     * @param sessionEventPublisher the {@link SessionEventPublisher} to use. Cannot be null.
+     */
+    public void setSessionEventPublisher(SessionEventPublisher sessionEventPublisher) {
+        Assert.notNull(sessionEventPublisher, "sessionEventPublisher cannot be null");
+        this.sessionEventPublisher = sessionEventPublisher;
+    }
+
+    /**
+     * Sets the fraction of the {@link Session#getMaxInactiveInterval()} that must pass since the last accessed time that
+     * was written before saving a {@link Session} whose only change is its last accessed time writes it (and extends the
+     * expiration of the {@link Session}) again. For example, with a threshold of 0.1 and a max inactive interval of 30
+     * minutes, a {@link Session} that is used continuously is written at most once every 3 minutes and may expire up to
+     * 3 minutes early. The default is 0, which writes the last accessed time on every save.
+     *
+     * @param touchThreshold the fraction of the max inactive interval. Must be at least 0 and less than 1.
+     */
+    public void setTouchThreshold(double touchThreshold) {
+        Assert.isTrue(touchThreshold >= 0 && touchThreshold < 1, "touchThreshold must be at least 0 and less than 1");
+        this.touchThreshold = touchThreshold;
+    }
+
+    /**
+     * Gets the number of saves that were skipped because only the last accessed time changed and the touch threshold
+     * was not reached.
+     *
+     * @return the number of saves that were skipped
+     */
+    public long getSkippedTouchCount() {
+        return skippedTouchCount.get();
+    }
+
+    /**
+     * Sets if the attributes of a {@link Session} are checked for changes when it is saved. When enabled, the
+     * serialized form of each attribute that is read is fingerprinted and, when the {@link Session} is saved, the
+     * attributes that were read or set are serialized again and only written if their fingerprint changed. This means
+     * attributes that were modified in place no longer need to be set again to be saved, and setting an attribute to
+     * an equal value does not write it. The cost is serializing the attributes that were read on every save. The
+     * default is false, which writes exactly the attributes that were set or removed.
+     *
+     * @param dirtyChecking true to check the attributes for changes
+     */
+    public void setDirtyChecking(boolean dirtyChecking) {
+        this.dirtyChecking = dirtyChecking;
+    }
+
+    /**
+     * Gets the number of attributes that were set, but not written because dirty checking found them unchanged.
+     *
+     * @return the number of attributes that were not written because they were unchanged
+     */
+    public long getUnchangedAttributeCount() {
+        return unchangedAttributeCount.get();
+    }
+
+    /**
+     * Sets the {@link SessionSizeMonitor} that records the size of each {@link Session} that is saved. The size of an
+     * attribute is the length of its serialized value and the size of a {@link Session} is the sum of the sizes of its
+     * attributes. When the monitor has a hard limit, a {@link Session} that exceeds it is not written and
+     * {@link #saveAll(Collection)} fails once the other sessions are written. Sessions that were loaded or created
+     * before the monitor is set are not measured. By default the sizes are not measured.
+     *
+     * @param sessionSizeMonitor the {@link SessionSizeMonitor} to use. Cannot be null.
+     */
+    public void setSessionSizeMonitor(SessionSizeMonitor sessionSizeMonitor) {
+        Assert.notNull(sessionSizeMonitor, "sessionSizeMonitor cannot be null");
+        this.sessionSizeMonitor = sessionSizeMonitor;
+    }
+
+    /**
+     * Enables the near cache and sets the {@link NearCacheInvalidationTransport} used to keep it consistent with the
+     * other nodes. Every node that shares the Redis must use the same transport, otherwise nodes serve outdated copies
+     * of the sessions that other nodes modified until they are saved. The near cache is disabled by default.
+     *
+     * @param invalidationTransport the {@link NearCacheInvalidationTransport} to use. Cannot be null.
+     */
+    public void setNearCacheInvalidationTransport(NearCacheInvalidationTransport invalidationTransport) {
+        Assert.notNull(invalidationTransport, "invalidationTransport cannot be null");
+        invalidationTransport.subscribe(new NearCacheInvalidationTransport.Listener() {
+            public void onInvalidation(String sessionId, long version) {
+                nearCache.invalidate(sessionId, version, clock.currentTimeMillis());
+            }
+        });
+        this.invalidationTransport = invalidationTransport;
+    }
+
+    /**
+     * Sets the maximum number of sessions kept by the near cache. When it is exceeded arbitrary sessions are removed.
+     * The default is {@link #DEFAULT_NEAR_CACHE_MAXIMUM_SIZE}.
+     *
+     * @param maximumSize the maximum number of sessions. Must be greater than 0.
+     */
+    public void setNearCacheMaximumSize(int maximumSize) {
+        Assert.isTrue(maximumSize > 0, "maximumSize must be greater than 0");
+        this.nearCache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Gets the number of sessions that were found in the near cache.
+     *
+     * @return the number of sessions that were found in the near cache
+     */
+    public long getNearCacheHitCount() {
+        return nearCache.getHitCount();
+    }
+
+    /**
+     * Gets the number of sessions that were looked up in Redis since they were not in the near cache.
+     *
+     * @return the number of sessions that were not found in the near cache
+     */
+    public long getNearCacheMissCount() {
+        return nearCache.getMissCount();
+    }
+
+    /**
+     * Gets the number of sessions that were saved after being read from an outdated copy in the near cache.
+     *
+     * @return the number of stale reads that were detected
+     */
+    public long getNearCacheStaleReadCount() {
+        return nearCache.getStaleReadCount();
     }
 
     @Override
     public void save(RedisSession session) {
-        session.saveDelta();
+        saveAll(Collections.singletonList(session));
+    }
+
+    /**
+     * Saves the provided sessions. A {@link RedisSession} that exceeds the hard limit of the
+     * {@link SessionSizeMonitor} is not written, but the other sessions still are.
+     *
+     * @param sessions the sessions to save. Cannot be null.
+     * @throws IllegalStateException if a {@link RedisSession} exceeds the hard limit of the {@link SessionSizeMonitor}
+     */
+    @Override
+    public void saveAll(Collection<? extends RedisSession> sessions) {
+        Map<RedisSession, IllegalStateException> rejected = saveAllWithinSizeLimit(sessions);
+        if(!rejected.isEmpty()) {
+            throw rejected.values().iterator().next();
+        }
+    }
+
+    /**
+     * Saves the provided sessions, except the ones that exceed the hard limit of the {@link SessionSizeMonitor}.
+     * This allows the sessions of unrelated requests to be saved together while each request learns the outcome of
+     * its own {@link RedisSession}.
+     *
+     * @param sessions the sessions to save. Cannot be null.
+     * @return the exception explaining why each {@link RedisSession} that was not written was rejected. Never null.
+     */
+    Map<RedisSession, IllegalStateException> saveAllWithinSizeLimit(Collection<? extends RedisSession> sessions) {
+        Assert.notNull(sessions, "sessions cannot be null");
+        Map<RedisSession, IllegalStateException> rejected = new LinkedHashMap<RedisSession, IllegalStateException>();
+        final List<DeltaWrite> writes = new ArrayList<DeltaWrite>(sessions.size());
+        List<RedisSession> written = new ArrayList<RedisSession>(sessions.size());
+        for(RedisSession session : sessions) {
+            DeltaWrite write = session.prepareDelta();
+            if(sessionSizeMonitor != null && write.attributeSizes != null) {
+                try {
+                    sessionSizeMonitor.record(write.attributeSizes);
+                } catch (IllegalStateException e) {
+                    rejected.put(session, e);
+                    continue;
+                }
+            }
+            if(session.isThrottledTouch(write)) {
+                skippedTouchCount.incrementAndGet();
+                session.delta.clear();
+            } else {
+                writes.add(write);
+                written.add(session);
+            }
+        }
+        if(writes.isEmpty()) {
+            return rejected;
+        }
+        final NearCacheInvalidationTransport transport = invalidationTransport;
+        final byte[] versionField = serializeHashKey(VERSION_ATTR);
+        List<Object> replies = redisTemplate.execute(new RedisCallback<List<Object>>() {
+            public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+                connection.openPipeline();
+                for(DeltaWrite write : writes) {
+                    write.writeTo(connection, transport == null);
+                }
+                if(transport != null) {
+                    // the versions are incremented after the changes are written, so a node that reads the new
+                    // version also reads the changes. The hash is expired after the increment, since incrementing a
+                    // hash that expired in the meantime creates it again. Since these are the last commands, their
+                    // replies are the last replies no matter which of the other commands have replies.
+                    for(DeltaWrite write : writes) {
+                        connection.hIncrBy(write.key, versionField, 1);
+                        connection.expire(write.key, write.maxInactiveInterval);
+                    }
+                }
+                return connection.closePipeline();
+            }
+        });
+        Map<String, Long> versions = new LinkedHashMap<String, Long>();
+        int firstVersion = replies.size() - 2 * writes.size();
+        int i = 0;
+        for(RedisSession session : written) {
+            DeltaWrite write = writes.get(i);
+            if(transport != null) {
+                long version = (Long) replies.get(firstVersion + 2 * i);
+                updateNearCache(session, write, version);
+                versions.put(write.sessionId, version);
+            }
+            if(session.isNew) {
+                session.isNew = false;
+                publish(SessionEvent.Type.CREATED, session.getId());
+            }
+            session.clearDelta(write);
+            i++;
+        }
+        // the versions that Redis returned are published rather than the expected ones, so that concurrent writers
+        // publish distinct versions and the newest invalidation removes every copy that misses a change
+        if(transport instanceof RedisNearCacheInvalidationTransport) {
+            ((RedisNearCacheInvalidationTransport) transport).publishAll(versions);
+        } else if(transport != null) {
+            for(Map.Entry<String, Long> version : versions.entrySet()) {
+                transport.publish(version.getKey(), version.getValue());
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Updates the near cache with the fields that were written, unless the version that was written shows that another
+     * node saved the {@link RedisSession} since it was read.
+     *
+     * @param session the {@link RedisSession} that was saved
+     * @param write the changes that were written
+     * @param version the version of the hash after the changes were written
+     */
+    private void updateNearCache(RedisSession session, DeltaWrite write, long version) {
+        if(version != write.version) {
+            nearCache.staleRead(session.getId());
+            session.fields = null;
+        } else if(session.fields != null) {
+            Map<String, byte[]> fields = new HashMap<String, byte[]>(session.fields);
+            for(Map.Entry<String, byte[]> field : write.changedFields.entrySet()) {
+                if(field.getValue() == null) {
+                    fields.remove(field.getKey());
+                } else {
+                    fields.put(field.getKey(), field.getValue());
+                }
+            }
+            session.fields = fields;
+            nearCache.put(session.getId(), new NearCache.Entry(version, fields, getExpirationTime(session)));
+        }
+        session.version = version;
     }
 
     @Override
     public Session getSession(String id) {
-        Map<Object, Object> entries = getOperations(id).entries();
-        if(entries.isEmpty()) {
+        if(invalidationTransport != null) {
+            NearCache.Entry cached = nearCache.get(id, clock.currentTimeMillis());
+            if(cached != null) {
+                return toSession(id, cached.fields, cached.version);
+            }
+            nearCache.beginLoad(id, clock.currentTimeMillis());
+        }
+        final byte[] key = serializeKey(getKey(id));
+        Map<byte[], byte[]> entries = this.redisTemplate.execute(new RedisCallback<Map<byte[], byte[]>>() {
+            public Map<byte[], byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
+                return connection.hGetAll(key);
+            }
+        });
+        return toSession(id, entries);
+    }
+
+    @Override
+    public Map<String, Session> getSessions(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        List<String> orderedIds = new ArrayList<String>(ids);
+        if(orderedIds.isEmpty()) {
+            return new LinkedHashMap<String, Session>();
+        }
+        if(invalidationTransport != null) {
+            return getSessionsWithNearCache(orderedIds);
+        }
+        return loadSessions(orderedIds);
+    }
+
+    /**
+     * Gets the sessions from the near cache and only looks up the ones that are missing in Redis.
+     */
+    private Map<String, Session> getSessionsWithNearCache(List<String> ids) {
+        long now = clock.currentTimeMillis();
+        Map<String, Session> cached = new HashMap<String, Session>();
+        List<String> missing = new ArrayList<String>();
+        for(String id : ids) {
+            NearCache.Entry entry = nearCache.get(id, now);
+            if(entry == null) {
+                nearCache.beginLoad(id, now);
+                missing.add(id);
+            } else {
+                cached.put(id, toSession(id, entry.fields, entry.version));
+            }
+        }
+        Map<String, Session> loaded = missing.isEmpty() ? Collections.<String, Session>emptyMap() : loadSessions(missing);
+        Map<String, Session> result = new LinkedHashMap<String, Session>();
+        for(String id : ids) {
+            Session session = cached.containsKey(id) ? cached.get(id) : loaded.get(id);
+            if(session != null) {
+                result.put(id, session);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the sessions in Redis using a single pipeline.
+     */
+    private Map<String, Session> loadSessions(List<String> ids) {
+        final List<byte[]> keys = new ArrayList<byte[]>(ids.size());
+        for(String id : ids) {
+            keys.add(serializeKey(getKey(id)));
+        }
+        List<Object> replies = redisTemplate.execute(new RedisCallback<List<Object>>() {
+            public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+                connection.openPipeline();
+                for(byte[] key : keys) {
+                    connection.hGetAll(key);
+                }
+                return connection.closePipeline();
+            }
+        });
+        Map<String, Session> result = new LinkedHashMap<String, Session>();
+        for(int i = 0; i < ids.size(); i++) {
+            @SuppressWarnings("unchecked")
+            Map<byte[], byte[]> entries = (Map<byte[], byte[]>) replies.get(i);
+            Session session = toSession(ids.get(i), entries);
+            if(session != null) {
+                result.put(session.getId(), session);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the sessions of a principal using the {@link #PRINCIPAL_NAME_INDEX_NAME} index. This takes two round
+     * trips to Redis, plus one more if ids of sessions that no longer exist are removed from the index.
+     *
+     * @param indexName the name of the index. Only {@link #PRINCIPAL_NAME_INDEX_NAME} is supported.
+     * @param indexValue the principal name
+     * @return the sessions of the principal keyed by {@link Session#getId()}
+     */
+    @Override
+    public Map<String, RedisSession> findByIndexNameAndIndexValue(String indexName, String indexValue) {
+        Map<String, RedisSession> result = new HashMap<String, RedisSession>();
+        if(!PRINCIPAL_NAME_INDEX_NAME.equals(indexName)) {
+            return result;
+        }
+        final byte[] indexKey = serializeKey(getPrincipalIndexKey(indexValue));
+        Set<byte[]> members = this.redisTemplate.execute(new RedisCallback<Set<byte[]>>() {
+            public Set<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
+                return connection.sMembers(indexKey);
+            }
+        });
+        if(members == null || members.isEmpty()) {
+            return result;
+        }
+        List<String> ids = new ArrayList<String>(members.size());
+        for(byte[] member : members) {
+            ids.add(deserializeKey(member));
+        }
+        Map<String, Session> found = getSessions(ids);
+        final List<byte[]> stale = new ArrayList<byte[]>();
+        for(String id : ids) {
+            Session session = found.get(id);
+            if(session == null) {
+                stale.add(serializeKey(id));
+            } else {
+                result.put(id, (RedisSession) session);
+            }
+        }
+        if(!stale.isEmpty()) {
+            this.redisTemplate.execute(new RedisCallback<Object>() {
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    connection.sRem(indexKey, stale.toArray(new byte[stale.size()][]));
+                    return null;
+                }
+            });
+        }
+        return result;
+    }
+
+    private RedisSession toSession(String id, Map<byte[], byte[]> entries) {
+        Map<String, byte[]> fields = new HashMap<String, byte[]>(entries == null ? 0 : entries.size());
+        if(entries != null) {
+            for(Map.Entry<byte[],byte[]> entry : entries.entrySet()) {
+                fields.put(deserializeHashKey(entry.getKey()), entry.getValue());
+            }
+        }
+        // a hash without a creation time is what remains of a session that expired or was deleted while it was saved
+        if(!fields.containsKey(CREATION_TIME_ATTR)) {
+            if(invalidationTransport != null) {
+                nearCache.endLoad(id);
+            }
             return null;
         }
-        MapSession loaded = new MapSession();
-        loaded.setId(id);
-        for(Map.Entry<Object,Object> entry : entries.entrySet()) {
-            String key = (String) entry.getKey();
-            if(CREATION_TIME_ATTR.equals(key)) {
-                loaded.setCreationTime((Long) entry.getValue());
-            } else if(MAX_INACTIVE_ATTR.equals(key)) {
-                loaded.setMaxInactiveInterval((Integer) entry.getValue());
-            } else if(LAST_ACCESSED_ATTR.equals(key)) {
-                loaded.setLastAccessedTime((Long) entry.getValue());
-            } else if(key.startsWith(SESSION_ATTR_PREFIX)) {
-                loaded.setAttribute(key.substring(SESSION_ATTR_PREFIX.length()), entry.getValue());
+        long version = parseVersion(fields.get(VERSION_ATTR));
+        RedisSession session = toSession(id, fields, version);
+        if(invalidationTransport != null) {
+            nearCache.put(id, new NearCache.Entry(version, fields, getExpirationTime(session)));
+        }
+        return session;
+    }
+
+    /**
+     * Creates a {@link RedisSession} from the fields of its hash. The fields are not modified, so they can be shared
+     * with the near cache.
+     */
+    private RedisSession toSession(String id, Map<String, byte[]> fields, long version) {
+        String principalName = null;
+        MapSession loaded = new MapSession(id);
+        Map<String, byte[]> serializedAttrs = new HashMap<String, byte[]>(fields.size());
+        for(Map.Entry<String, byte[]> entry : fields.entrySet()) {
+            String hashKey = entry.getKey();
+            if(CREATION_TIME_ATTR.equals(hashKey)) {
+                loaded.setCreationTime((Long) deserializeHashValue(entry.getValue()));
+            } else if(MAX_INACTIVE_ATTR.equals(hashKey)) {
+                loaded.setMaxInactiveInterval((Integer) deserializeHashValue(entry.getValue()));
+            } else if(LAST_ACCESSED_ATTR.equals(hashKey)) {
+                loaded.setLastAccessedTime((Long) deserializeHashValue(entry.getValue()));
+            } else if(PRINCIPAL_NAME_ATTR.equals(hashKey)) {
+                principalName = (String) deserializeHashValue(entry.getValue());
+            } else if(hashKey.startsWith(SESSION_ATTR_PREFIX) && entry.getValue().length > 0) {
+                serializedAttrs.put(hashKey.substring(SESSION_ATTR_PREFIX.length()), entry.getValue());
             }
         }
-        return new RedisSession(loaded);
+        RedisSession session = new RedisSession(loaded, serializedAttrs, principalName);
+        if(invalidationTransport != null) {
+            session.fields = fields;
+            session.version = version;
+        }
+        return session;
+    }
+
+    private static long parseVersion(byte[] version) {
+        if(version == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(version, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes the 64 bit FNV-1a hash of a serialized value. An accidental collision would cause a changed attribute
+     * not to be written, but with 64 bits it is far less likely than a hardware error.
+     */
+    private static long fingerprint(byte[] serialized) {
+        long hash = 0xcbf29ce484222325L;
+        for(byte b : serialized) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long getExpirationTime(Session session) {
+        if(session.getMaxInactiveInterval() < 0) {
+            return Long.MAX_VALUE;
+        }
+        return session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(session.getMaxInactiveInterval());
     }
 
     @Override
     public void delete(String sessionId) {
-        String key = getKey(sessionId);
-        this.redisTemplate.delete(key);
+        deleteAll(Collections.singletonList(sessionId));
+    }
+
+    /**
+     * Deletes the sessions with the provided ids. This takes two round trips to Redis regardless of the number of
+     * sessions: one to look up the principal names of the sessions and one to delete the sessions and remove them from
+     * the principal index.
+     *
+     * @param ids the {@link Session#getId()}s to delete. Cannot be null.
+     */
+    @Override
+    public void deleteAll(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        if(ids.isEmpty()) {
+            return;
+        }
+        final List<String> orderedIds = new ArrayList<String>(ids);
+        final byte[][] keys = new byte[orderedIds.size()][];
+        for(int i = 0; i < keys.length; i++) {
+            keys[i] = serializeKey(getKey(orderedIds.get(i)));
+        }
+        final byte[] principalNameField = serializeHashKey(PRINCIPAL_NAME_ATTR);
+        final NearCacheInvalidationTransport transport = invalidationTransport;
+        if(transport != null) {
+            long now = clock.currentTimeMillis();
+            for(String id : orderedIds) {
+                nearCache.invalidate(id, Long.MAX_VALUE, now);
+            }
+        }
+        // the replies alternate between whether the session exists and its principal name
+        final List<Object> replies = this.redisTemplate.execute(new RedisCallback<List<Object>>() {
+            public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+                connection.openPipeline();
+                for(byte[] key : keys) {
+                    connection.exists(key);
+                    connection.hGet(key, principalNameField);
+                }
+                return connection.closePipeline();
+            }
+        });
+        this.redisTemplate.execute(new RedisCallback<Object>() {
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                connection.openPipeline();
+                connection.del(keys);
+                for(int i = 0; i < keys.length; i++) {
+                    byte[] principalName = (byte[]) replies.get(i * 2 + 1);
+                    if(principalName != null) {
+                        String indexKey = getPrincipalIndexKey((String) deserializeHashValue(principalName));
+                        connection.sRem(serializeKey(indexKey), serializeKey(orderedIds.get(i)));
+                    }
+                }
+                if(transport instanceof RedisNearCacheInvalidationTransport) {
+                    for(String id : orderedIds) {
+                        ((RedisNearCacheInvalidationTransport) transport).writeTo(connection, id, Long.MAX_VALUE);
+                    }
+                }
+                connection.closePipeline();
+                return null;
+            }
+        });
+        if(transport != null && !(transport instanceof RedisNearCacheInvalidationTransport)) {
+            for(String id : orderedIds) {
+                transport.publish(id, Long.MAX_VALUE);
+            }
+        }
+        for(int i = 0; i < keys.length; i++) {
+            if(Boolean.TRUE.equals(replies.get(i * 2))) {
+                publish(SessionEvent.Type.DELETED, orderedIds.get(i));
+            }
+        }
     }
 
     @Override
@@ -82,28 +759,120 @@ public class RedisOperationsSessionRepository implements SessionRepository<Redis
         return new RedisSession();
     }
 
+    private void publish(SessionEvent.Type type, String sessionId) {
+        if(sessionEventPublisher != SessionEventPublisher.NONE) {
+            sessionEventPublisher.publish(new SessionEvent(type, sessionId, clock.currentTimeMillis()));
+        }
+    }
+
     private String getKey(String sessionId) {
         return BOUNDED_HASH_KEY_PREFIX + sessionId;
     }
 
-    private BoundHashOperations<String, Object, Object> getOperations(String sessionId) {
-        String key = getKey(sessionId);
-        return this.redisTemplate.boundHashOps(key);
+    private String getPrincipalIndexKey(String principalName) {
+        return PRINCIPAL_INDEX_KEY_PREFIX + principalName;
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] serializeKey(String key) {
+        return ((RedisSerializer<String>) this.redisTemplate.getKeySerializer()).serialize(key);
+    }
+
+    private String deserializeKey(byte[] key) {
+        return (String) this.redisTemplate.getKeySerializer().deserialize(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] serializeHashKey(String hashKey) {
+        return ((RedisSerializer<String>) this.redisTemplate.getHashKeySerializer()).serialize(hashKey);
+    }
+
+    private String deserializeHashKey(byte[] hashKey) {
+        return (String) this.redisTemplate.getHashKeySerializer().deserialize(hashKey);
+    }
+
+    private byte[] serializeHashValue(Object value) {
+        return this.sessionSerializer.serialize(value);
+    }
+
+    private Object deserializeHashValue(byte[] value) {
+        return this.sessionSerializer.deserialize(value);
+    }
+
+    /**
+     * A {@link SessionSerializer} that delegates to the hash value serializer of the {@link RedisOperations}.
+     */
+    private final class HashValueSessionSerializer implements SessionSerializer {
+        @SuppressWarnings("unchecked")
+        public byte[] serialize(Object value) {
+            return ((RedisSerializer<Object>) redisTemplate.getHashValueSerializer()).serialize(value);
+        }
+
+        public Object deserialize(byte[] bytes) {
+            return redisTemplate.getHashValueSerializer().deserialize(bytes);
+        }
     }
 
     class RedisSession implements Session {
         private final MapSession cached;
+        /**
+         * The attributes that were loaded from Redis but have not been requested yet, in their serialized form
+         */
+        private final Map<String, byte[]> serializedAttrs;
+        /**
+         * The principal name that is stored in Redis for this session
+         */
+        private String principalName;
+        /**
+         * True until the session is saved for the first time
+         */
+        private boolean isNew;
+        /**
+         * The fields of the hash as of the last read or write or null if they are unknown. Only tracked when the near
+         * cache is enabled.
+         */
+        private Map<String, byte[]> fields;
+        /**
+         * The version of the hash as of the last read or write
+         */
+        private long version;
+        /**
+         * The last accessed time that is stored in Redis for this session
+         */
+        private long persistedLastAccessedTime;
+        /**
+         * The fingerprints of the serialized form of the attributes that were read, set or written keyed by the attribute
+         * name or null if dirty checking is disabled
+         */
+        private final Map<String, Long> fingerprints;
+        /**
+         * The serialized size of each attribute that is stored in Redis keyed by the attribute name or null if the
+         * sizes are not measured
+         */
+        private Map<String, Integer> attributeSizes;
         private Map<String, Object> delta = new HashMap<String,Object>();
 
         private RedisSession() {
-            this(new MapSession());
+            this(new MapSession(sessionIdGenerator.generateId(), clock.currentTimeMillis()), new HashMap<String, byte[]>(), null);
+            isNew = true;
+            fields = invalidationTransport == null ? null : Collections.<String, byte[]>emptyMap();
             delta.put(CREATION_TIME_ATTR, getCreationTime());
             delta.put(MAX_INACTIVE_ATTR, getMaxInactiveInterval());
             delta.put(LAST_ACCESSED_ATTR, getLastAccessedTime());
         }
 
-        private RedisSession(MapSession cached) {
+        private RedisSession(MapSession cached, Map<String, byte[]> serializedAttrs, String principalName) {
             this.cached = cached;
+            this.serializedAttrs = serializedAttrs;
+            this.principalName = principalName;
+            this.persistedLastAccessedTime = cached.getLastAccessedTime();
+            this.fingerprints = dirtyChecking ? new HashMap<String, Long>() : null;
+            if(sessionSizeMonitor != null) {
+                this.attributeSizes = new HashMap<String, Integer>(serializedAttrs.size());
+                for(Map.Entry<String, byte[]> attr : serializedAttrs.entrySet()) {
+                    this.attributeSizes.put(attr.getKey(), attr.getValue().length);
+                }
+            }
         }
 
         @Override
@@ -140,30 +909,241 @@ public class RedisOperationsSessionRepository implements SessionRepository<Redis
 
         @Override
         public Object getAttribute(String attributeName) {
+            byte[] serialized = removeSerializedAttribute(attributeName);
+            if(serialized != null) {
+                Object value = deserializeHashValue(serialized);
+                if(value != null) {
+                    cached.setAttribute(attributeName, value);
+                }
+                return value;
+            }
             return cached.getAttribute(attributeName);
         }
 
         @Override
         public Set<String> getAttributeNames() {
-            return cached.getAttributeNames();
+            if(serializedAttrs.isEmpty()) {
+                return cached.getAttributeNames();
+            }
+            Set<String> attributeNames = new HashSet<String>(cached.getAttributeNames());
+            attributeNames.addAll(serializedAttrs.keySet());
+            return attributeNames;
         }
 
         @Override
         public void setAttribute(String attributeName, Object attributeValue) {
+            removeSerializedAttribute(attributeName);
             cached.setAttribute(attributeName, attributeValue);
             delta.put(SESSION_ATTR_PREFIX + attributeName, attributeValue);
         }
 
         @Override
         public void removeAttribute(String attributeName) {
+            removeSerializedAttribute(attributeName);
             cached.removeAttribute(attributeName);
             delta.put(SESSION_ATTR_PREFIX + attributeName, null);
         }
 
-        private void saveDelta() {
-            getOperations(getId()).putAll(delta);
-            getOperations(getId()).expire(getMaxInactiveInterval(), TimeUnit.SECONDS);
+        /**
+         * Removes the serialized form of an attribute, fingerprinting it first if dirty checking is enabled.
+         */
+        private byte[] removeSerializedAttribute(String attributeName) {
+            byte[] serialized = serializedAttrs.remove(attributeName);
+            if(serialized != null && fingerprints != null) {
+                fingerprints.put(attributeName, fingerprint(serialized));
+            }
+            return serialized;
+        }
+
+        private DeltaWrite prepareDelta() {
+            byte[] key = serializeKey(getKey(getId()));
+            Map<String, Object> changes = delta;
+            if(fingerprints != null && !fingerprints.isEmpty()) {
+                // the attributes that were read might have been modified in place
+                changes = new HashMap<String, Object>(delta);
+                for(String attrName : fingerprints.keySet()) {
+                    String field = SESSION_ATTR_PREFIX + attrName;
+                    Object value = cached.getAttribute(attrName);
+                    if(!changes.containsKey(field) && value != null) {
+                        changes.put(field, value);
+                    }
+                }
+            }
+            Map<byte[], byte[]> toSet = new HashMap<byte[], byte[]>(changes.size());
+            List<byte[]> toDelete = new ArrayList<byte[]>();
+            Map<String, byte[]> changedFields = new HashMap<String, byte[]>(changes.size());
+            Map<String, Long> writtenFingerprints = fingerprints == null ? null : new HashMap<String, Long>();
+            boolean principalAttributeChanged = false;
+            for(Map.Entry<String, Object> entry : changes.entrySet()) {
+                if(entry.getValue() == null) {
+                    toDelete.add(serializeHashKey(entry.getKey()));
+                    changedFields.put(entry.getKey(), null);
+                } else {
+                    byte[] value = serializeHashValue(entry.getValue());
+                    if(fingerprints != null && entry.getKey().startsWith(SESSION_ATTR_PREFIX)) {
+                        String attrName = entry.getKey().substring(SESSION_ATTR_PREFIX.length());
+                        long fingerprint = fingerprint(value);
+                        Long previous = fingerprints.get(attrName);
+                        if(previous != null && previous == fingerprint) {
+                            if(delta.containsKey(entry.getKey())) {
+                                unchangedAttributeCount.incrementAndGet();
+                            }
+                            continue;
+                        }
+                        writtenFingerprints.put(attrName, fingerprint);
+                    }
+                    toSet.put(serializeHashKey(entry.getKey()), value);
+                    changedFields.put(entry.getKey(), value);
+                }
+                principalAttributeChanged |= entry.getKey().startsWith(SESSION_ATTR_PREFIX)
+                        && principalNameResolver.isPrincipalAttribute(entry.getKey().substring(SESSION_ATTR_PREFIX.length()));
+            }
+            String principal = principalAttributeChanged ? principalNameResolver.resolvePrincipal(this) : principalName;
+            byte[] previousIndexKey = null;
+            if(principal == null ? principalName != null : !principal.equals(principalName)) {
+                if(principal == null) {
+                    toDelete.add(serializeHashKey(PRINCIPAL_NAME_ATTR));
+                    changedFields.put(PRINCIPAL_NAME_ATTR, null);
+                } else {
+                    byte[] value = serializeHashValue(principal);
+                    toSet.put(serializeHashKey(PRINCIPAL_NAME_ATTR), value);
+                    changedFields.put(PRINCIPAL_NAME_ATTR, value);
+                }
+                if(principalName != null) {
+                    previousIndexKey = serializeKey(getPrincipalIndexKey(principalName));
+                }
+            }
+            byte[] indexKey = principal == null ? null : serializeKey(getPrincipalIndexKey(principal));
+            Map<String, Integer> writtenSizes = null;
+            if(attributeSizes != null) {
+                writtenSizes = new HashMap<String, Integer>(attributeSizes);
+                for(Map.Entry<String, byte[]> field : changedFields.entrySet()) {
+                    if(!field.getKey().startsWith(SESSION_ATTR_PREFIX)) {
+                        continue;
+                    }
+                    String attrName = field.getKey().substring(SESSION_ATTR_PREFIX.length());
+                    if(field.getValue() == null) {
+                        writtenSizes.remove(attrName);
+                    } else {
+                        writtenSizes.put(attrName, field.getValue().length);
+                    }
+                }
+            }
+            return new DeltaWrite(getId(), key, toSet, toDelete, changedFields, writtenFingerprints, writtenSizes,
+                    version + 1, getMaxInactiveInterval(), serializeKey(getId()), principal, previousIndexKey, indexKey);
+        }
+
+        /**
+         * Determines if the only change is the last accessed time and too little time has passed since the last accessed
+         * time that was written for it to be written again.
+         */
+        private boolean isThrottledTouch(DeltaWrite write) {
+            if(isNew || touchThreshold <= 0 || write.changedFields.size() != 1
+                    || !write.changedFields.containsKey(LAST_ACCESSED_ATTR) || getMaxInactiveInterval() < 0) {
+                return false;
+            }
+            long sinceLastWrite = getLastAccessedTime() - persistedLastAccessedTime;
+            return sinceLastWrite < touchThreshold * TimeUnit.SECONDS.toMillis(getMaxInactiveInterval());
+        }
+
+        private void clearDelta(DeltaWrite write) {
+            principalName = write.principalName;
+            if(delta.containsKey(LAST_ACCESSED_ATTR)) {
+                persistedLastAccessedTime = getLastAccessedTime();
+            }
+            if(fingerprints != null) {
+                for(Map.Entry<String, byte[]> field : write.changedFields.entrySet()) {
+                    if(field.getValue() == null && field.getKey().startsWith(SESSION_ATTR_PREFIX)) {
+                        fingerprints.remove(field.getKey().substring(SESSION_ATTR_PREFIX.length()));
+                    }
+                }
+                fingerprints.putAll(write.fingerprints);
+            }
+            if(write.attributeSizes != null) {
+                attributeSizes = write.attributeSizes;
+            }
             delta.clear();
         }
     }
+
+    /**
+     * The serialized changes of a {@link RedisSession}, ready to be written using a {@link RedisConnection}.
+     */
+    private static final class DeltaWrite {
+        private final String sessionId;
+        private final byte[] key;
+        private final Map<byte[], byte[]> toSet;
+        private final List<byte[]> toDelete;
+        /**
+         * The fields that are set or, with a null value, deleted keyed by the deserialized hash key
+         */
+        private final Map<String, byte[]> changedFields;
+        /**
+         * The fingerprints of the attributes that are written or null if dirty checking is disabled
+         */
+        private final Map<String, Long> fingerprints;
+        /**
+         * The serialized size of each attribute once the changes are written or null if the sizes are not measured
+         */
+        private final Map<String, Integer> attributeSizes;
+        /**
+         * The version the hash is expected to have once the changes are written
+         */
+        private final long version;
+        private final long maxInactiveInterval;
+        private final byte[] member;
+        private final String principalName;
+        /**
+         * The key of the principal index to remove the session from or null if the principal did not change
+         */
+        private final byte[] previousIndexKey;
+        /**
+         * The key of the principal index of the session or null if the session has no principal
+         */
+        private final byte[] indexKey;
+
+        private DeltaWrite(String sessionId, byte[] key, Map<byte[], byte[]> toSet, List<byte[]> toDelete,
+                Map<String, byte[]> changedFields, Map<String, Long> fingerprints, Map<String, Integer> attributeSizes,
+                long version, long maxInactiveInterval, byte[] member, String principalName, byte[] previousIndexKey,
+                byte[] indexKey) {
+            this.sessionId = sessionId;
+            this.key = key;
+            this.toSet = toSet;
+            this.toDelete = toDelete;
+            this.changedFields = changedFields;
+            this.fingerprints = fingerprints;
+            this.attributeSizes = attributeSizes;
+            this.version = version;
+            this.maxInactiveInterval = maxInactiveInterval;
+            this.member = member;
+            this.principalName = principalName;
+            this.previousIndexKey = previousIndexKey;
+            this.indexKey = indexKey;
+        }
+
+        /**
+         * Writes the changes.
+         *
+         * @param expire false if the caller sets the expiration of the hash itself
+         */
+        private void writeTo(RedisConnection connection, boolean expire) {
+            if(!toSet.isEmpty()) {
+                connection.hMSet(key, toSet);
+            }
+            if(!toDelete.isEmpty()) {
+                connection.hDel(key, toDelete.toArray(new byte[toDelete.size()][]));
+            }
+            if(expire) {
+                connection.expire(key, maxInactiveInterval);
+            }
+            if(previousIndexKey != null) {
+                connection.sRem(previousIndexKey, member);
+            }
+            if(indexKey != null) {
+                // adding on every save repairs the index and keeps it alive as long as the session
+                connection.sAdd(indexKey, member);
+                connection.expire(indexKey, maxInactiveInterval);
+            }
+        }
+    }
 }
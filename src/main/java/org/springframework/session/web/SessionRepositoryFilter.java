@@ -15,9 +15,19 @@
  */
 package org.springframework.session.web;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.session.AsyncSessionRepository;
+import org.springframework.session.BlockingSessionRepositoryAdapter;
+import org.springframework.session.Clock;
 import org.springframework.session.Session;
 import org.springframework.session.SessionRepository;
+import org.springframework.session.SystemClock;
+import org.springframework.session.events.SessionEvent;
+import org.springframework.session.events.SessionEventPublisher;
 import org.springframework.util.Assert;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletContext;
@@ -28,6 +38,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * Switches the {@link javax.servlet.http.HttpSession} implementation to be backed by a {@link org.springframework.session.Session}.
@@ -51,15 +62,57 @@ import java.util.Set;
  * session id is looked up using the provided {@link HttpSessionStrategy}. The same strategy is used to convey the
  * session id of newly created {@link org.springframework.session.Session}s to the client.
  *
+ * When the {@link SessionRepositoryFilter} is created with an {@link AsyncSessionRepository}, the requested
+ * {@link org.springframework.session.Session} is still loaded when the {@link javax.servlet.http.HttpSession} is first
+ * requested, unless {@link #setPrefetchSession(boolean)} is enabled. Saving and invalidating go through the
+ * {@link AsyncSessionRepository}: a request that started asynchronous processing does not wait for the write, so the
+ * thread that completes it is not parked. Other requests wait for the write to complete, so the next request of the
+ * client observes it.
+ *
  * @author Rob Winch
  */
 public class SessionRepositoryFilter extends OncePerRequestFilter {
     private final SessionRepository<Session> sessionRepository;
 
+    private final AsyncSessionRepository<Session> asyncSessionRepository;
+
     private HttpSessionStrategy httpSessionStrategy = new CookieHttpSessionStrategy();
 
+    private Clock clock = SystemClock.INSTANCE;
+
+    private SessionEventPublisher sessionEventPublisher = SessionEventPublisher.NONE;
+
+    private boolean prefetchSession;
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final ListenableFutureCallback<Void> logWriteFailure = new ListenableFutureCallback<Void>() {
+        public void onSuccess(Void result) {
+        }
+
+        public void onFailure(Throwable t) {
+            logger.error("Failed to write the Session of an asynchronous request", t);
+        }
+    };
+
     public SessionRepositoryFilter(SessionRepository sessionRepository) {
         this.sessionRepository = sessionRepository;
+        this.asyncSessionRepository = null;
+    }
+
+    /**
+     * Creates a new instance that saves and deletes {@link Session}s without parking the thread of requests that
+     * started asynchronous processing.
+     *
+     * @param asyncSessionRepository the {@link AsyncSessionRepository} to use. Cannot be null.
+     */
+    public <S extends Session> SessionRepositoryFilter(AsyncSessionRepository<S> asyncSessionRepository) {
+        Assert.notNull(asyncSessionRepository, "asyncSessionRepository cannot be null");
+        // only Sessions created by the same repository are passed back to it
+        @SuppressWarnings("unchecked")
+        AsyncSessionRepository<Session> repository = (AsyncSessionRepository<Session>) asyncSessionRepository;
+        this.asyncSessionRepository = repository;
+        this.sessionRepository = new BlockingSessionRepositoryAdapter<Session>(repository);
     }
 
     /**
@@ -72,6 +125,43 @@ public class SessionRepositoryFilter extends OncePerRequestFilter {
         this.httpSessionStrategy = httpSessionStrategy;
     }
 
+    /**
+     * Sets the {@link Clock} used to update {@link Session#getLastAccessedTime()}. The default is
+     * {@link SystemClock#INSTANCE}. Since the last accessed time is updated on every request, a
+     * {@link org.springframework.session.CachingClock} can be used to avoid reading the system clock each time.
+     *
+     * @param clock the {@link Clock} to use. Cannot be null.
+     */
+    public void setClock(Clock clock) {
+        Assert.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+    }
+
+    /**
+     * Sets whether loading the requested {@link Session} is started as soon as the request enters the filter. This
+     * overlaps the load with the work the application performs before it first requests the
+     * {@link javax.servlet.http.HttpSession}, but costs a load for every request that carries a session id, even if
+     * the application never uses the {@link javax.servlet.http.HttpSession}. Only applies when an
+     * {@link AsyncSessionRepository} is used. The default is false.
+     *
+     * @param prefetchSession true to start loading the requested {@link Session} when the request enters the filter
+     */
+    public void setPrefetchSession(boolean prefetchSession) {
+        this.prefetchSession = prefetchSession;
+    }
+
+    /**
+     * Sets the {@link SessionEventPublisher} that is notified when a {@link Session} is created or invalidated by a
+     * request. This is intended for a {@link SessionRepository} that does not publish events itself. The default
+     * discards the events.
+     *
+     * @param sessionEventPublisher the {@link SessionEventPublisher} to use. Cannot be null.
+     */
+    public void setSessionEventPublisher(SessionEventPublisher sessionEventPublisher) {
+        Assert.notNull(sessionEventPublisher, "sessionEventPublisher cannot be null");
+        this.sessionEventPublisher = sessionEventPublisher;
+    }
+
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
         SessionRepositoryRequestWrapper wrappedRequest = new SessionRepositoryRequestWrapper(request, response);
         SessionRepositoryResponseWrapper wrappedResponse = new SessionRepositoryResponseWrapper(wrappedRequest,response);
@@ -82,6 +172,12 @@ public class SessionRepositoryFilter extends OncePerRequestFilter {
         }
     }
 
+    private void publish(SessionEvent.Type type, String sessionId) {
+        if(sessionEventPublisher != SessionEventPublisher.NONE) {
+            sessionEventPublisher.publish(new SessionEvent(type, sessionId, clock.currentTimeMillis()));
+        }
+    }
+
     private static final class SessionRepositoryResponseWrapper extends OnCommittedResponseWrapper {
 
         private final SessionRepositoryRequestWrapper request;
@@ -111,10 +207,14 @@ public class SessionRepositoryFilter extends OncePerRequestFilter {
         private HttpSessionWrapper currentSession;
         private boolean requestedValidSession;
         private final HttpServletResponse response;
+        private final String prefetchedSessionId;
+        private Future<Session> prefetchedSession;
 
         private SessionRepositoryRequestWrapper(HttpServletRequest request, HttpServletResponse response) {
             super(request);
             this.response = response;
+            this.prefetchedSessionId = asyncSessionRepository == null || !prefetchSession ? null : getRequestedSessionId();
+            this.prefetchedSession = prefetchedSessionId == null ? null : asyncSessionRepository.getSession(prefetchedSessionId);
         }
 
         private void commitSession() {
@@ -125,11 +225,39 @@ public class SessionRepositoryFilter extends OncePerRequestFilter {
                 }
             } else {
                 Session session = wrappedSession.session;
-                sessionRepository.save(session);
+                if(asyncSessionRepository == null) {
+                    sessionRepository.save(session);
+                } else {
+                    complete(asyncSessionRepository.save(session));
+                }
+                if(!wrappedSession.old && !wrappedSession.createdPublished) {
+                    wrappedSession.createdPublished = true;
+                    publish(SessionEvent.Type.CREATED, session.getId());
+                }
                 httpSessionStrategy.onNewSession(session, this, response);
             }
         }
 
+        private void delete(String sessionId) {
+            if(asyncSessionRepository == null) {
+                sessionRepository.delete(sessionId);
+            } else {
+                complete(asyncSessionRepository.delete(sessionId));
+            }
+        }
+
+        /**
+         * Waits for a write unless the request started asynchronous processing, in which case a failure is only
+         * logged since the thread completing the request must not be parked.
+         */
+        private void complete(ListenableFuture<Void> write) {
+            if(isAsyncStarted()) {
+                write.addCallback(logWriteFailure);
+            } else {
+                BlockingSessionRepositoryAdapter.await(write);
+            }
+        }
+
         private boolean isInvalidateClientSession() {
             return currentSession == null && requestedValidSession;
         }
@@ -141,10 +269,10 @@ public class SessionRepositoryFilter extends OncePerRequestFilter {
             }
             String requestedSessionId = getRequestedSessionId();
             if(requestedSessionId != null) {
-                Session session = sessionRepository.getSession(requestedSessionId);
+                Session session = loadSession(requestedSessionId);
                 if(session != null) {
                     this.requestedValidSession = true;
-                    session.setLastAccessedTime(System.currentTimeMillis());
+                    session.setLastAccessedTime(clock.currentTimeMillis());
                     currentSession = new HttpSessionWrapper(session, getServletContext());
                     currentSession.setNew(false);
                     return currentSession;
@@ -163,6 +291,16 @@ public class SessionRepositoryFilter extends OncePerRequestFilter {
             return getSession(true);
         }
 
+        private Session loadSession(String sessionId) {
+            Future<Session> prefetched = prefetchedSession;
+            // the prefetched Session is only used once since it may have been invalidated since
+            prefetchedSession = null;
+            if(prefetched != null && sessionId.equals(prefetchedSessionId)) {
+                return BlockingSessionRepositoryAdapter.await(prefetched);
+            }
+            return sessionRepository.getSession(sessionId);
+        }
+
         @Override
         public String getRequestedSessionId() {
             return httpSessionStrategy.getRequestedSessionId(this);
@@ -173,6 +311,7 @@ public class SessionRepositoryFilter extends OncePerRequestFilter {
             private final ServletContext servletContext;
             private boolean invalidated;
             private boolean old;
+            private boolean createdPublished;
 
             public HttpSessionWrapper(Session session, ServletContext servletContext) {
                 this.session = session;
@@ -181,7 +320,7 @@ public class SessionRepositoryFilter extends OncePerRequestFilter {
 
             void updateLastAccessedTime() {
                 checkState();
-                session.setLastAccessedTime(System.currentTimeMillis());
+                session.setLastAccessedTime(clock.currentTimeMillis());
             }
 
             @Override
@@ -272,7 +411,8 @@ public class SessionRepositoryFilter extends OncePerRequestFilter {
                 checkState();
                 this.invalidated = true;
                 currentSession = null;
-                sessionRepository.delete(getId());
+                delete(getId());
+                publish(SessionEvent.Type.DELETED, getId());
             }
 
             public void setNew(boolean isNew) {
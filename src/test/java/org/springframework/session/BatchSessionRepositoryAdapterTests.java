@@ -0,0 +1,71 @@
+package org.springframework.session;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class BatchSessionRepositoryAdapterTests {
+    private SessionRepository<Session> delegate;
+
+    private BatchSessionRepositoryAdapter<Session> adapter;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        delegate = mock(SessionRepository.class);
+        adapter = new BatchSessionRepositoryAdapter<Session>(delegate);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDelegate() {
+        new BatchSessionRepositoryAdapter<Session>(null);
+    }
+
+    @Test
+    public void adaptBatchSessionRepository() {
+        MapSessionRepository repository = new MapSessionRepository();
+
+        assertThat(BatchSessionRepositoryAdapter.adapt(repository)).isSameAs(repository);
+    }
+
+    @Test
+    public void adaptSessionRepository() {
+        assertThat(BatchSessionRepositoryAdapter.adapt(delegate)).isInstanceOf(BatchSessionRepositoryAdapter.class);
+    }
+
+    @Test
+    public void getSessions() {
+        Session session = new MapSession("a");
+        when(delegate.getSession("a")).thenReturn(session);
+
+        Map<String, Session> result = adapter.getSessions(Arrays.asList("a", "b"));
+
+        assertThat(result).hasSize(1);
+        assertThat(result.get("a")).isSameAs(session);
+        verify(delegate).getSession("b");
+    }
+
+    @Test
+    public void saveAll() {
+        Session first = new MapSession("a");
+        Session second = new MapSession("b");
+
+        adapter.saveAll(Arrays.asList(first, second));
+
+        verify(delegate).save(first);
+        verify(delegate).save(second);
+    }
+
+    @Test
+    public void deleteAll() {
+        adapter.deleteAll(Arrays.asList("a", "b"));
+
+        verify(delegate).delete("a");
+        verify(delegate).delete("b");
+    }
+}
@@ -0,0 +1,103 @@
+package org.springframework.session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.serializer.support.SerializationFailedException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BinarySessionSerializerTests {
+    private BinarySessionSerializer serializer;
+
+    @Before
+    public void setup() {
+        serializer = new BinarySessionSerializer();
+    }
+
+    @Test
+    public void roundTripBuiltInTypes() {
+        List<Object> values = Arrays.<Object>asList(null, "", "caf\u00e9", 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                0L, Long.MAX_VALUE, Long.MIN_VALUE, true, false, 1.5d, Double.NaN, new Date(1234L));
+        for(Object value : values) {
+            assertThat(serializer.deserialize(serializer.serialize(value))).isEqualTo(value);
+        }
+    }
+
+    @Test
+    public void roundTripBytes() {
+        byte[] value = new byte[] { 1, 2, 3 };
+
+        assertThat((byte[]) serializer.deserialize(serializer.serialize(value))).isEqualTo(value);
+    }
+
+    @Test
+    public void roundTripFallsBackToJdkSerialization() {
+        List<String> value = new ArrayList<String>(Arrays.asList("a", "b"));
+
+        assertThat(serializer.deserialize(serializer.serialize(value))).isEqualTo(value);
+    }
+
+    @Test
+    public void timestampIsCompact() {
+        byte[] binary = serializer.serialize(System.currentTimeMillis());
+
+        assertThat(binary.length).isEqualTo(8);
+        assertThat(new JdkSessionSerializer().serialize(System.currentTimeMillis()).length).isGreaterThan(binary.length * 5);
+    }
+
+    @Test
+    public void registeredType() {
+        serializer.registerType(1, BigDecimal.class, new SessionSerializer() {
+            public byte[] serialize(Object value) {
+                return value.toString().getBytes();
+            }
+
+            public Object deserialize(byte[] bytes) {
+                return new BigDecimal(new String(bytes));
+            }
+        });
+
+        byte[] serialized = serializer.serialize(new BigDecimal("1.25"));
+
+        assertThat(serialized.length).isEqualTo(7);
+        assertThat(serializer.deserialize(serialized)).isEqualTo(new BigDecimal("1.25"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerTypeDuplicateId() {
+        serializer.registerType(1, BigDecimal.class, new JdkSessionSerializer());
+        serializer.registerType(1, StringBuilder.class, new JdkSessionSerializer());
+    }
+
+    @Test(expected = SerializationFailedException.class)
+    public void deserializeUnregisteredId() {
+        BinarySessionSerializer registering = new BinarySessionSerializer();
+        registering.registerType(1, BigDecimal.class, new JdkSessionSerializer());
+
+        serializer.deserialize(registering.serialize(BigDecimal.ONE));
+    }
+
+    @Test(expected = SerializationFailedException.class)
+    public void deserializeUnknownVersion() {
+        serializer.deserialize(new byte[] { 99, BinarySessionSerializer.NULL });
+    }
+
+    @Test(expected = SerializationFailedException.class)
+    public void deserializeTruncated() {
+        byte[] serialized = serializer.serialize("abc");
+
+        serializer.deserialize(Arrays.copyOf(serialized, serialized.length - 1));
+    }
+
+    @Test
+    public void deserializeEmpty() {
+        assertThat(serializer.deserialize(new byte[0])).isNull();
+        assertThat(serializer.deserialize(null)).isNull();
+    }
+}
@@ -0,0 +1,62 @@
+package org.springframework.session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BlockingSessionRepositoryAdapterTests {
+    private BlockingSessionRepositoryAdapter<Session> repository;
+
+    @Before
+    public void setup() {
+        repository = new BlockingSessionRepositoryAdapter<Session>(
+                new ExecutorAsyncSessionRepository<Session>(new MapSessionRepository(), new SyncTaskExecutor()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDelegate() {
+        new BlockingSessionRepositoryAdapter<Session>(null);
+    }
+
+    @Test
+    public void saveGetDelete() {
+        Session toSave = repository.createSession();
+        toSave.setAttribute("a", "b");
+
+        repository.save(toSave);
+
+        assertThat(repository.getSession(toSave.getId()).getAttribute("a")).isEqualTo("b");
+        repository.delete(toSave.getId());
+        assertThat(repository.getSession(toSave.getId())).isNull();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void awaitRethrowsRuntimeException() {
+        BlockingSessionRepositoryAdapter.await(run(new Callable<Object>() {
+            public Object call() {
+                throw new UnsupportedOperationException();
+            }
+        }));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void awaitWrapsCheckedException() {
+        BlockingSessionRepositoryAdapter.await(run(new Callable<Object>() {
+            public Object call() throws IOException {
+                throw new IOException();
+            }
+        }));
+    }
+
+    private static ListenableFutureTask<Object> run(Callable<Object> callable) {
+        ListenableFutureTask<Object> task = new ListenableFutureTask<Object>(callable);
+        task.run();
+        return task;
+    }
+}
@@ -0,0 +1,44 @@
+package org.springframework.session;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CachingClockTests {
+    private CachingClock clock;
+
+    @After
+    public void close() {
+        if(clock != null) {
+            clock.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorTickZero() {
+        new CachingClock(0);
+    }
+
+    @Test
+    public void currentTimeMillisAdvances() throws Exception {
+        long start = System.currentTimeMillis();
+        clock = new CachingClock(1);
+
+        assertThat(clock.currentTimeMillis()).isGreaterThanOrEqualTo(start);
+        long first = clock.currentTimeMillis();
+        Thread.sleep(50L);
+        assertThat(clock.currentTimeMillis()).isGreaterThan(first);
+    }
+
+    @Test
+    public void closeStopsTicking() throws Exception {
+        clock = new CachingClock(1);
+        clock.close();
+        Thread.sleep(20L);
+
+        long stopped = clock.currentTimeMillis();
+        Thread.sleep(20L);
+        assertThat(clock.currentTimeMillis()).isEqualTo(stopped);
+    }
+}
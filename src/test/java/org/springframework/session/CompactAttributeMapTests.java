@@ -0,0 +1,78 @@
+package org.springframework.session;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CompactAttributeMapTests {
+    private CompactAttributeMap attrs;
+
+    @Before
+    public void setup() {
+        attrs = new CompactAttributeMap();
+    }
+
+    @Test
+    public void putGetRemove() {
+        assertThat(attrs.put("a", "1")).isNull();
+        assertThat(attrs.put("a", "2")).isEqualTo("1");
+        attrs.put("b", "3");
+
+        assertThat(attrs.get("a")).isEqualTo("2");
+        assertThat(attrs.size()).isEqualTo(2);
+        assertThat(attrs.remove("a")).isEqualTo("2");
+        assertThat(attrs.containsKey("a")).isFalse();
+        assertThat(attrs.get("b")).isEqualTo("3");
+    }
+
+    @Test
+    public void behavesLikeHashMapAboveThreshold() {
+        Map<String, Object> expected = new HashMap<String, Object>();
+        for(int i = 0; i < CompactAttributeMap.THRESHOLD * 3; i++) {
+            attrs.put("attr" + i, i);
+            expected.put("attr" + i, i);
+            assertThat(attrs).isEqualTo(expected);
+        }
+        for(int i = 0; i < CompactAttributeMap.THRESHOLD * 3; i += 2) {
+            attrs.remove("attr" + i);
+            expected.remove("attr" + i);
+        }
+
+        assertThat(attrs).isEqualTo(expected);
+        assertThat(attrs.keySet()).isEqualTo(expected.keySet());
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        attrs.put("a", "1");
+        CompactAttributeMap copy = new CompactAttributeMap(attrs);
+
+        copy.put("a", "2");
+        copy.put("b", "3");
+
+        assertThat(attrs.get("a")).isEqualTo("1");
+        assertThat(attrs.size()).isEqualTo(1);
+        assertThat(copy.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void keySetIteratorRemove() {
+        attrs.put("a", "1");
+        attrs.put("b", "2");
+        attrs.put("c", "3");
+
+        Iterator<String> names = attrs.keySet().iterator();
+        while(names.hasNext()) {
+            if(!"b".equals(names.next())) {
+                names.remove();
+            }
+        }
+
+        assertThat(attrs.keySet()).containsOnly("b");
+    }
+}
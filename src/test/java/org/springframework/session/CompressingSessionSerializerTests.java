@@ -0,0 +1,97 @@
+package org.springframework.session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.serializer.support.SerializationFailedException;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CompressingSessionSerializerTests {
+    private CompressingSessionSerializer serializer;
+
+    @Before
+    public void setup() {
+        serializer = new CompressingSessionSerializer(new BinarySessionSerializer());
+        serializer.setThreshold(100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDelegate() {
+        new CompressingSessionSerializer(null);
+    }
+
+    @Test
+    public void belowThresholdNotCompressed() {
+        byte[] serialized = serializer.serialize("small");
+
+        assertThat(serialized[0]).isEqualTo(CompressingSessionSerializer.NONE);
+        assertThat(serializer.deserialize(serialized)).isEqualTo("small");
+        assertThat(serializer.getCompressedCount()).isEqualTo(0);
+        assertThat(serializer.getCompressionRatio()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void aboveThresholdCompressed() {
+        String value = repeat("ROLE_USER,", 100);
+
+        byte[] serialized = serializer.serialize(value);
+
+        assertThat(serialized[0]).isEqualTo(CompressingSessionSerializer.DEFLATE);
+        assertThat(serialized.length).isLessThan(value.length() / 4);
+        assertThat(serializer.deserialize(serialized)).isEqualTo(value);
+        assertThat(serializer.getCompressedCount()).isEqualTo(1);
+        assertThat(serializer.getCompressionRatio()).isLessThan(0.25);
+    }
+
+    @Test
+    public void incompressibleNotCompressed() {
+        byte[] value = new byte[1000];
+        new Random(0).nextBytes(value);
+
+        byte[] serialized = serializer.serialize(value);
+
+        assertThat(serialized[0]).isEqualTo(CompressingSessionSerializer.NONE);
+        assertThat((byte[]) serializer.deserialize(serialized)).isEqualTo(value);
+    }
+
+    @Test
+    public void zeroThresholdSmallValueNotCompressed() {
+        serializer.setThreshold(0);
+
+        byte[] serialized = serializer.serialize(Integer.valueOf(1));
+
+        assertThat(serialized[0]).isEqualTo(CompressingSessionSerializer.NONE);
+        assertThat(serializer.deserialize(serialized)).isEqualTo(1);
+        assertThat(serializer.getCompressedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void nullValue() {
+        serializer = new CompressingSessionSerializer(new JdkSessionSerializer());
+
+        assertThat(serializer.deserialize(serializer.serialize(null))).isNull();
+    }
+
+    @Test(expected = SerializationFailedException.class)
+    public void deserializeUnknownCodec() {
+        serializer.deserialize(new byte[] { 42, 1 });
+    }
+
+    @Test(expected = SerializationFailedException.class)
+    public void deserializeTruncated() {
+        byte[] serialized = serializer.serialize(repeat("ROLE_USER,", 100));
+
+        serializer.deserialize(Arrays.copyOf(serialized, serialized.length / 2));
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder result = new StringBuilder();
+        for(int i = 0; i < count; i++) {
+            result.append(value);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package org.springframework.session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class ExecutorAsyncSessionRepositoryTests {
+    private ExecutorService executor;
+
+    private MapSessionRepository delegate;
+
+    private ExecutorAsyncSessionRepository<Session> repository;
+
+    @Before
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+        delegate = new MapSessionRepository();
+        repository = new ExecutorAsyncSessionRepository<Session>(delegate, executor);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDelegate() {
+        new ExecutorAsyncSessionRepository<Session>(null, executor);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullExecutor() {
+        new ExecutorAsyncSessionRepository<Session>(delegate, null);
+    }
+
+    @Test
+    public void saveGetDelete() throws Exception {
+        Session toSave = repository.createSession();
+        toSave.setAttribute("a", "b");
+
+        repository.save(toSave).get();
+        ListenableFuture<Session> loaded = repository.getSession(toSave.getId());
+
+        assertThat(loaded.get().getAttribute("a")).isEqualTo("b");
+        repository.delete(toSave.getId()).get();
+        assertThat(repository.getSession(toSave.getId()).get()).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getSessionFailure() throws Exception {
+        SessionRepository<Session> failing = mock(SessionRepository.class);
+        IllegalStateException failure = new IllegalStateException();
+        when(failing.getSession("id")).thenThrow(failure);
+        repository = new ExecutorAsyncSessionRepository<Session>(failing, executor);
+
+        try {
+            repository.getSession("id").get();
+            fail("Expected Exception");
+        } catch (ExecutionException success) {
+            assertThat(success.getCause()).isSameAs(failure);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void writesOfSameSessionPerformedInOrder() throws Exception {
+        SessionRepository<Session> ordered = mock(SessionRepository.class);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        repository = new ExecutorAsyncSessionRepository<Session>(ordered, new Executor() {
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        Session session = new MapSession("id");
+
+        ListenableFuture<Void> saved = repository.save(session);
+        ListenableFuture<Void> deleted = repository.delete("id");
+
+        // a single task performs both writes, so a pool cannot run the delete before the save
+        assertThat(tasks).hasSize(1);
+        tasks.get(0).run();
+        assertThat(saved.isDone()).isTrue();
+        assertThat(deleted.isDone()).isTrue();
+        InOrder inOrder = inOrder(ordered);
+        inOrder.verify(ordered).save(session);
+        inOrder.verify(ordered).delete("id");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void rejectedWriteFails() throws Exception {
+        SessionRepository<Session> unused = mock(SessionRepository.class);
+        repository = new ExecutorAsyncSessionRepository<Session>(unused, new Executor() {
+            public void execute(Runnable task) {
+                throw new RejectedExecutionException("Expected rejection");
+            }
+        });
+
+        ListenableFuture<Void> deleted = repository.delete("id");
+
+        try {
+            deleted.get();
+            fail("Expected Exception");
+        } catch (ExecutionException success) {
+            assertThat(success.getCause()).isInstanceOf(RejectedExecutionException.class);
+        }
+        verifyZeroInteractions(unused);
+    }
+}
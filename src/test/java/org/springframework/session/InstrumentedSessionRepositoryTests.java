@@ -0,0 +1,82 @@
+package org.springframework.session;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class InstrumentedSessionRepositoryTests {
+    private InstrumentedSessionRepository<Session> repository;
+
+    @Before
+    public void setup() {
+        repository = new InstrumentedSessionRepository<Session>(new MapSessionRepository());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDelegate() {
+        new InstrumentedSessionRepository<Session>(null);
+    }
+
+    @Test
+    public void recordsOperations() {
+        Session session = repository.createSession();
+        repository.save(session);
+        repository.getSession(session.getId());
+        repository.delete(session.getId());
+        repository.getSession(session.getId());
+
+        assertThat(repository.getCreateSessionMetrics().getCount()).isEqualTo(1);
+        assertThat(repository.getSaveMetrics().getCount()).isEqualTo(1);
+        assertThat(repository.getDeleteMetrics().getCount()).isEqualTo(1);
+        assertThat(repository.getGetSessionMetrics().getCount()).isEqualTo(2);
+        assertThat(repository.getGetSessionMetrics().getMaxNanos()).isGreaterThan(0);
+        assertThat(repository.getHitCount()).isEqualTo(1);
+        assertThat(repository.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void recordsErrors() {
+        SessionRepository<Session> failing = mock(SessionRepository.class);
+        doThrow(new IllegalStateException("down")).when(failing).delete("bad");
+        repository = new InstrumentedSessionRepository<Session>(failing);
+
+        repository.delete("good");
+        try {
+            repository.delete("bad");
+            fail("Expected IllegalStateException");
+        } catch(IllegalStateException success) {
+        }
+
+        OperationSnapshot metrics = repository.getDeleteMetrics();
+        assertThat(metrics.getCount()).isEqualTo(2);
+        assertThat(metrics.getErrorCount()).isEqualTo(1);
+        assertThat(metrics.getErrorRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void exposedThroughJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.springframework.session:type=InstrumentedSessionRepository");
+        server.registerMBean(repository, name);
+        try {
+            repository.getSession("missing");
+
+            assertThat(server.getAttribute(name, "MissCount")).isEqualTo(1L);
+            CompositeData metrics = (CompositeData) server.getAttribute(name, "GetSessionMetrics");
+            assertThat(metrics.get("count")).isEqualTo(1L);
+            assertThat(metrics.get("errorRate")).isEqualTo(0.0);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.springframework.session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class JournaledSessionRepositoryTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    private JournaledSessionRepository repository;
+
+    @Before
+    public void setup() throws Exception {
+        directory = folder.newFolder();
+        repository = new JournaledSessionRepository(directory);
+    }
+
+    @After
+    public void close() {
+        repository.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDirectory() throws Exception {
+        new JournaledSessionRepository(null);
+    }
+
+    @Test
+    public void saveAndGetSession() {
+        Session toSave = repository.createSession();
+        toSave.setAttribute("a", "b");
+
+        repository.save(toSave);
+
+        assertThat(repository.getSession(toSave.getId()).getAttribute("a")).isEqualTo("b");
+        assertThat(repository.getRecordCount()).isEqualTo(1);
+        assertThat(repository.getSyncCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void recoversFromJournal() throws Exception {
+        Session kept = repository.createSession();
+        kept.setAttribute("a", "b");
+        kept.setAttribute("c", "d");
+        kept.setMaxInactiveInterval(600);
+        repository.save(kept);
+        Session modified = repository.getSession(kept.getId());
+        modified.setAttribute("a", "e");
+        modified.removeAttribute("c");
+        repository.save(modified);
+        Session deleted = repository.createSession();
+        repository.save(deleted);
+        repository.delete(deleted.getId());
+
+        restart();
+
+        Session session = repository.getSession(kept.getId());
+        assertThat(session.getAttributeNames()).containsOnly("a");
+        assertThat(session.getAttribute("a")).isEqualTo("e");
+        assertThat(session.getMaxInactiveInterval()).isEqualTo(600);
+        assertThat(session.getCreationTime()).isEqualTo(kept.getCreationTime());
+        assertThat(repository.getSession(deleted.getId())).isNull();
+        assertThat(repository.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void recoversFromSnapshotAndJournal() throws Exception {
+        List<Session> sessions = new ArrayList<Session>();
+        for(int i = 0; i < 100; i++) {
+            Session session = repository.createSession();
+            session.setAttribute("i", i);
+            repository.save(session);
+            sessions.add(session);
+        }
+        repository.snapshot();
+        Session modified = repository.getSession(sessions.get(0).getId());
+        modified.setAttribute("i", -1);
+        repository.save(modified);
+        repository.delete(sessions.get(1).getId());
+
+        restart();
+
+        assertThat(repository.size()).isEqualTo(99);
+        assertThat(repository.getSession(sessions.get(0).getId()).getAttribute("i")).isEqualTo(-1);
+        assertThat(repository.getSession(sessions.get(1).getId())).isNull();
+        for(int i = 2; i < sessions.size(); i++) {
+            assertThat(repository.getSession(sessions.get(i).getId()).getAttribute("i")).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void snapshotRemovesReplacedFiles() throws Exception {
+        Session session = repository.createSession();
+        repository.save(session);
+
+        repository.snapshot();
+        repository.snapshot();
+
+        assertThat(repository.getSnapshotCount()).isEqualTo(2);
+        List<String> names = Arrays.asList(directory.list());
+        assertThat(names).hasSize(2);
+        restart();
+        assertThat(repository.getSession(session.getId())).isNotNull();
+    }
+
+    @Test
+    public void recoveryIgnoresIncompleteRecord() throws Exception {
+        Session first = repository.createSession();
+        repository.save(first);
+        Session second = repository.createSession();
+        second.setAttribute("a", "b");
+        repository.save(second);
+        repository.close();
+        File journal = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+
+        repository = new JournaledSessionRepository(directory);
+
+        assertThat(repository.getSession(first.getId())).isNotNull();
+        assertThat(repository.getSession(second.getId())).isNull();
+        Session third = repository.createSession();
+        repository.save(third);
+        restart();
+        assertThat(repository.getSession(third.getId())).isNotNull();
+    }
+
+    @Test
+    public void concurrentSavesAreCommittedTogether() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> ids = new ArrayList<Future<String>>();
+            for(int i = 0; i < 400; i++) {
+                final int value = i;
+                ids.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        Session session = repository.createSession();
+                        session.setAttribute("i", value);
+                        repository.save(session);
+                        return session.getId();
+                    }
+                }));
+            }
+            List<String> saved = new ArrayList<String>();
+            for(Future<String> id : ids) {
+                saved.add(id.get());
+            }
+
+            assertThat(repository.getRecordCount()).isEqualTo(400);
+            assertThat(repository.getSyncCount()).isLessThanOrEqualTo(400);
+            restart();
+            for(int i = 0; i < saved.size(); i++) {
+                assertThat(repository.getSession(saved.get(i)).getAttribute("i")).isEqualTo(i);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void saveAfterClose() {
+        repository.close();
+
+        repository.save(repository.createSession());
+    }
+
+    @Test
+    public void deleteAfterCloseNotApplied() {
+        Session session = repository.createSession();
+        repository.save(session);
+        repository.close();
+
+        try {
+            repository.delete(session.getId());
+            fail("Expected IllegalStateException");
+        } catch(IllegalStateException success) {
+        }
+
+        assertThat(repository.getSession(session.getId())).isNotNull();
+    }
+
+    @Test
+    public void recoveryRemovesExpiredUsingClock() throws Exception {
+        ManualClock clock = new ManualClock(1000L);
+        repository.setClock(clock);
+        Session expired = repository.createSession();
+        expired.setMaxInactiveInterval(10);
+        repository.save(expired);
+        Session kept = repository.createSession();
+        kept.setMaxInactiveInterval(20);
+        repository.save(kept);
+        repository.close();
+
+        repository = new JournaledSessionRepository(directory, new JdkSessionSerializer(), new ManualClock(11000L));
+
+        assertThat(repository.size()).isEqualTo(1);
+        assertThat(repository.getSession(kept.getId())).isNotNull();
+    }
+
+    @Test
+    public void boundedQueueWithoutWaitingForSync() throws Exception {
+        repository.setWaitForSync(false);
+        repository.setMaxQueuedRecords(1);
+        List<String> ids = new ArrayList<String>();
+        for(int i = 0; i < 100; i++) {
+            Session session = repository.createSession();
+            repository.save(session);
+            ids.add(session.getId());
+        }
+
+        restart();
+
+        for(String id : ids) {
+            assertThat(repository.getSession(id)).isNotNull();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxQueuedRecordsZero() {
+        repository.setMaxQueuedRecords(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setClockNull() {
+        repository.setClock(null);
+    }
+
+    private void restart() throws Exception {
+        repository.close();
+        repository = new JournaledSessionRepository(directory);
+    }
+}
@@ -0,0 +1,65 @@
+package org.springframework.session;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class LatencyHistogramTests {
+    private LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void empty() {
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getMean()).isEqualTo(0);
+        assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0);
+    }
+
+    @Test
+    public void negativeIsRecordedAsZero() {
+        histogram.record(-5);
+
+        assertThat(histogram.getCount()).isEqualTo(1);
+        assertThat(histogram.getMax()).isEqualTo(0);
+    }
+
+    @Test
+    public void percentilesWithinPrecision() {
+        for(int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertThat(histogram.getMean()).isEqualTo(500500L);
+        assertThat(histogram.getMax()).isEqualTo(1000000L);
+        assertThat(histogram.getValueAtPercentile(50)).isGreaterThanOrEqualTo(500000L).isLessThanOrEqualTo(562500L);
+        assertThat(histogram.getValueAtPercentile(99.9)).isEqualTo(1000000L);
+    }
+
+    @Test
+    public void largestLatency() {
+        histogram.record(Long.MAX_VALUE);
+
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void concurrentRecording() throws Exception {
+        final CountDownLatch done = new CountDownLatch(4);
+        for(int t = 0; t < 4; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < 10000; i++) {
+                        histogram.record(100);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        assertThat(histogram.getCount()).isEqualTo(40000);
+        assertThat(histogram.getMean()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,495 @@
+package org.springframework.session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.session.events.SessionEvent;
+import org.springframework.session.events.SessionEventPublisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MapSessionRepositoryTests {
+    private Map<String, Session> sessions;
+
+    private MapSessionRepository repository;
+
+    @Before
+    public void setup() {
+        sessions = new ConcurrentHashMap<String, Session>();
+        repository = new MapSessionRepository(sessions);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullSessions() {
+        new MapSessionRepository(null);
+    }
+
+    @Test
+    public void getSessionExpiredIsNullAndRemoved() {
+        Session session = repository.createSession();
+        session.setMaxInactiveInterval(1);
+        session.setLastAccessedTime(System.currentTimeMillis() - 2000L);
+        repository.save(session);
+
+        assertThat(repository.getSession(session.getId())).isNull();
+        assertThat(sessions).isEmpty();
+    }
+
+    @Test
+    public void getSessionExpiredKeepsSessionSavedConcurrently() {
+        Session stale = repository.createSession();
+        stale.setMaxInactiveInterval(1);
+        stale.setLastAccessedTime(System.currentTimeMillis() - 2000L);
+        StaleOnceMap map = new StaleOnceMap();
+        repository = new MapSessionRepository(map);
+        Session saved = new MapSession(stale);
+        saved.setLastAccessedTime(System.currentTimeMillis());
+        repository.save(saved);
+        map.stale = stale;
+
+        assertThat(repository.getSession(stale.getId())).isNull();
+        assertThat(repository.getSession(stale.getId())).isNotNull();
+    }
+
+    @Test
+    public void getSessionsExpiredKeepsSessionSavedConcurrently() {
+        Session stale = repository.createSession();
+        stale.setMaxInactiveInterval(1);
+        stale.setLastAccessedTime(System.currentTimeMillis() - 2000L);
+        StaleOnceMap map = new StaleOnceMap();
+        repository = new MapSessionRepository(map);
+        Session saved = new MapSession(stale);
+        saved.setLastAccessedTime(System.currentTimeMillis());
+        repository.save(saved);
+        map.stale = stale;
+
+        assertThat(repository.getSessions(Arrays.asList(stale.getId()))).isEmpty();
+        assertThat(repository.getSession(stale.getId())).isNotNull();
+    }
+
+    @Test
+    public void getSessionNegativeMaxInactiveIntervalNeverExpires() {
+        Session session = repository.createSession();
+        session.setMaxInactiveInterval(-1);
+        session.setLastAccessedTime(0L);
+        repository.save(session);
+
+        assertThat(repository.getSession(session.getId())).isNotNull();
+    }
+
+    @Test
+    public void createSessionUsesClock() {
+        repository.setClock(new ManualClock(1000L));
+
+        Session session = repository.createSession();
+
+        assertThat(session.getCreationTime()).isEqualTo(1000L);
+        assertThat(session.getLastAccessedTime()).isEqualTo(1000L);
+    }
+
+    @Test
+    public void getSessionExpiresUsingClock() {
+        ManualClock clock = new ManualClock(1000L);
+        repository.setClock(clock);
+        Session session = repository.createSession();
+        session.setMaxInactiveInterval(10);
+        repository.save(session);
+
+        clock.advance(9999L);
+        assertThat(repository.getSession(session.getId())).isNotNull();
+
+        clock.advance(1L);
+        assertThat(repository.getSession(session.getId())).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setClockNull() {
+        repository.setClock(null);
+    }
+
+    @Test
+    public void cleanupExpiredSessionsRemovesOnlyExpired() {
+        Session expired = repository.createSession();
+        expired.setMaxInactiveInterval(1);
+        expired.setLastAccessedTime(System.currentTimeMillis() - 5000L);
+        repository.save(expired);
+        Session active = repository.createSession();
+        repository.save(active);
+
+        repository.cleanupExpiredSessions();
+
+        assertThat(sessions.keySet()).containsOnly(active.getId());
+    }
+
+    @Test
+    public void cleanupExpiredSessionsAccessedAgain() {
+        Session session = repository.createSession();
+        session.setMaxInactiveInterval(1);
+        session.setLastAccessedTime(System.currentTimeMillis() - 5000L);
+        repository.save(session);
+        session.setLastAccessedTime(System.currentTimeMillis());
+        repository.save(session);
+
+        repository.cleanupExpiredSessions();
+
+        assertThat(repository.getSession(session.getId())).isNotNull();
+    }
+
+    @Test
+    public void deleteStopsTrackingExpiration() {
+        Session session = repository.createSession();
+        session.setMaxInactiveInterval(1);
+        session.setLastAccessedTime(System.currentTimeMillis() - 5000L);
+        repository.save(session);
+        repository.delete(session.getId());
+        sessions.put(session.getId(), new MapSession(session));
+
+        repository.cleanupExpiredSessions();
+
+        assertThat(sessions).hasSize(1);
+    }
+
+    @Test
+    public void maximumSizeEvicts() {
+        repository.setMaximumSize(10);
+        for(int i = 0; i < 100; i++) {
+            repository.save(repository.createSession());
+        }
+
+        assertThat(sessions.size()).isEqualTo(10);
+        assertThat(repository.getEvictionCount()).isEqualTo(90);
+    }
+
+    @Test
+    public void maximumSizeKeepsFrequentlyRequested() {
+        repository.setMaximumSize(10);
+        Session popular = repository.createSession();
+        repository.save(popular);
+        for(int i = 0; i < 100; i++) {
+            assertThat(repository.getSession(popular.getId())).isNotNull();
+            repository.save(repository.createSession());
+        }
+
+        assertThat(sessions).hasSize(10);
+        assertThat(sessions.containsKey(popular.getId())).isTrue();
+    }
+
+    @Test
+    public void maximumSizeConcurrentWrites() throws Exception {
+        repository.setMaximumSize(10);
+        Thread[] writers = new Thread[4];
+        for(int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for(int j = 0; j < 1000; j++) {
+                        Session session = repository.createSession();
+                        repository.save(session);
+                        repository.getSession(session.getId());
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for(Thread writer : writers) {
+            writer.join();
+        }
+        repository.save(repository.createSession());
+
+        assertThat(sessions.size()).isLessThanOrEqualTo(10);
+        assertThat(repository.getEvictionCount()).isEqualTo(4001 - sessions.size());
+    }
+
+    @Test
+    public void maximumSizeWithWeigher() {
+        repository.setWeigher(new SessionWeigher() {
+            public int weigh(Session session) {
+                return session.getAttributeNames().size();
+            }
+        });
+        repository.setMaximumSize(10);
+        for(int i = 0; i < 20; i++) {
+            Session session = repository.createSession();
+            session.setAttribute("a", "a");
+            session.setAttribute("b", "b");
+            repository.save(session);
+        }
+
+        assertThat(sessions.size()).isGreaterThan(0).isLessThanOrEqualTo(5);
+    }
+
+    @Test
+    public void hitAndMissCounts() {
+        Session session = repository.createSession();
+        repository.save(session);
+
+        repository.getSession(session.getId());
+        repository.getSession(session.getId());
+        repository.getSession("missing");
+
+        assertThat(repository.getHitCount()).isEqualTo(2);
+        assertThat(repository.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void saveMergesConcurrentChanges() {
+        Session session = repository.createSession();
+        session.setAttribute("a", "a");
+        session.setAttribute("b", "b");
+        repository.save(session);
+        Session first = repository.getSession(session.getId());
+        Session second = repository.getSession(session.getId());
+
+        first.setAttribute("a", "first");
+        second.setAttribute("c", "second");
+        second.removeAttribute("b");
+        repository.save(first);
+        repository.save(second);
+
+        Session saved = repository.getSession(session.getId());
+        assertThat(saved.getAttributeNames()).containsOnly("a", "c");
+        assertThat(saved.getAttribute("a")).isEqualTo("first");
+        assertThat(saved.getAttribute("c")).isEqualTo("second");
+    }
+
+    @Test
+    public void saveMergeKeepsLatestLastAccessedTime() {
+        Session session = repository.createSession();
+        repository.save(session);
+        Session first = repository.getSession(session.getId());
+        Session second = repository.getSession(session.getId());
+
+        first.setLastAccessedTime(session.getLastAccessedTime() + 100);
+        second.setLastAccessedTime(session.getLastAccessedTime() + 50);
+        repository.save(first);
+        repository.save(second);
+
+        assertThat(repository.getSession(session.getId()).getLastAccessedTime()).isEqualTo(first.getLastAccessedTime());
+    }
+
+    @Test
+    public void saveMergeMaxInactiveInterval() {
+        Session session = repository.createSession();
+        repository.save(session);
+        Session first = repository.getSession(session.getId());
+        Session second = repository.getSession(session.getId());
+
+        first.setMaxInactiveInterval(60);
+        second.setAttribute("a", "a");
+        repository.save(first);
+        repository.save(second);
+
+        assertThat(repository.getSession(session.getId()).getMaxInactiveInterval()).isEqualTo(60);
+    }
+
+    @Test
+    public void saveTwiceDoesNotReapplyChanges() {
+        Session session = repository.createSession();
+        session.setAttribute("a", "a");
+        repository.save(session);
+        Session other = repository.getSession(session.getId());
+        other.setAttribute("a", "other");
+        repository.save(other);
+
+        repository.save(session);
+
+        assertThat(repository.getSession(session.getId()).getAttribute("a")).isEqualTo("other");
+    }
+
+    @Test
+    public void getSessionsSkipsMissingAndExpired() {
+        Session active = repository.createSession();
+        repository.save(active);
+        Session expired = repository.createSession();
+        expired.setMaxInactiveInterval(1);
+        expired.setLastAccessedTime(System.currentTimeMillis() - 2000L);
+        repository.save(expired);
+
+        Map<String, Session> result = repository.getSessions(Arrays.asList("missing", expired.getId(), active.getId()));
+
+        assertThat(result.keySet()).containsOnly(active.getId());
+        assertThat(sessions.keySet()).containsOnly(active.getId());
+        assertThat(repository.getHitCount()).isEqualTo(1);
+        assertThat(repository.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void saveAllMergesChanges() {
+        List<Session> toSave = new ArrayList<Session>();
+        for(int i = 0; i < 100; i++) {
+            Session session = repository.createSession();
+            session.setAttribute("i", i);
+            toSave.add(session);
+        }
+        repository.saveAll(toSave);
+        Session first = repository.getSession(toSave.get(0).getId());
+        Session second = repository.getSession(toSave.get(0).getId());
+        first.setAttribute("a", "b");
+        second.setAttribute("c", "d");
+
+        repository.saveAll(Arrays.asList(first, second));
+
+        assertThat(sessions).hasSize(100);
+        Session merged = repository.getSession(first.getId());
+        assertThat(merged.getAttributeNames()).containsOnly("i", "a", "c");
+    }
+
+    @Test
+    public void saveAllBounded() {
+        repository.setMaximumSize(10);
+        List<Session> toSave = new ArrayList<Session>();
+        for(int i = 0; i < 100; i++) {
+            toSave.add(repository.createSession());
+        }
+
+        repository.saveAll(toSave);
+
+        assertThat(sessions.size()).isLessThanOrEqualTo(10);
+        assertThat(repository.getEvictionCount()).isEqualTo(100 - sessions.size());
+    }
+
+    @Test
+    public void deleteAll() {
+        List<String> ids = new ArrayList<String>();
+        for(int i = 0; i < 100; i++) {
+            Session session = repository.createSession();
+            repository.save(session);
+            ids.add(session.getId());
+        }
+        Session kept = repository.createSession();
+        repository.save(kept);
+
+        repository.deleteAll(ids);
+
+        assertThat(sessions.keySet()).containsOnly(kept.getId());
+    }
+
+    @Test
+    public void findByPrincipalName() {
+        Session first = repository.createSession();
+        first.setAttribute(PrincipalNameResolver.SPRING_SECURITY_CONTEXT, PrincipalNameResolverTests.securityContext("rob"));
+        repository.save(first);
+        Session second = repository.createSession();
+        second.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob");
+        repository.save(second);
+        Session other = repository.createSession();
+        other.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "luke");
+        repository.save(other);
+
+        Map<String, Session> found = repository.findByIndexNameAndIndexValue(
+                FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob");
+
+        assertThat(found.keySet()).containsOnly(first.getId(), second.getId());
+    }
+
+    @Test
+    public void findByPrincipalNameAfterPrincipalChanges() {
+        Session session = repository.createSession();
+        session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob");
+        repository.save(session);
+        Session loaded = repository.getSession(session.getId());
+        loaded.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "luke");
+        repository.save(loaded);
+
+        assertThat(repository.findByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob")).isEmpty();
+        assertThat(repository.findByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "luke").keySet())
+                .containsOnly(session.getId());
+    }
+
+    @Test
+    public void findByPrincipalNameAfterDelete() {
+        Session session = repository.createSession();
+        session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob");
+        repository.save(session);
+
+        repository.delete(session.getId());
+
+        assertThat(repository.findByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob")).isEmpty();
+    }
+
+    @Test
+    public void principalNameResolvedOnlyWhenPrincipalAttributesChange() {
+        SecurityContext context = mock(SecurityContext.class);
+        when(context.getAuthentication()).thenReturn(new UsernamePasswordAuthenticationToken("rob", "password", AuthorityUtils.NO_AUTHORITIES));
+        Session session = repository.createSession();
+        session.setAttribute(PrincipalNameResolver.SPRING_SECURITY_CONTEXT, context);
+        repository.save(session);
+
+        Session loaded = repository.getSession(session.getId());
+        loaded.setAttribute("a", "b");
+        repository.save(loaded);
+        repository.delete(session.getId());
+
+        verify(context, times(1)).getAuthentication();
+        assertThat(repository.findByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob")).isEmpty();
+    }
+
+    @Test
+    public void findByPrincipalNameSkipsExpired() {
+        Session session = repository.createSession();
+        session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob");
+        session.setMaxInactiveInterval(1);
+        session.setLastAccessedTime(System.currentTimeMillis() - 2000L);
+        repository.save(session);
+
+        assertThat(repository.findByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob")).isEmpty();
+    }
+
+    @Test
+    public void findByUnknownIndexName() {
+        assertThat(repository.findByIndexNameAndIndexValue("unknown", "rob")).isEmpty();
+    }
+
+    @Test
+    public void sessionEvents() {
+        final List<String> events = new ArrayList<String>();
+        repository.setSessionEventPublisher(new SessionEventPublisher() {
+            public void publish(SessionEvent event) {
+                events.add(event.getType() + ":" + event.getSessionId());
+            }
+        });
+        Session created = repository.createSession();
+        repository.save(created);
+        repository.save(repository.getSession(created.getId()));
+        Session expired = repository.createSession();
+        expired.setMaxInactiveInterval(1);
+        expired.setLastAccessedTime(System.currentTimeMillis() - 2000L);
+        repository.save(expired);
+
+        repository.cleanupExpiredSessions();
+        repository.delete(created.getId());
+        repository.delete(created.getId());
+
+        assertThat(events).isEqualTo(Arrays.asList("CREATED:" + created.getId(), "CREATED:" + expired.getId(),
+                "EXPIRED:" + expired.getId(), "DELETED:" + created.getId()));
+    }
+
+    /**
+     * Returns the stale {@link Session} once, as if it was saved again right after it was read
+     */
+    static class StaleOnceMap extends ConcurrentHashMap<String, Session> {
+        Session stale;
+
+        @Override
+        public Session get(Object key) {
+            Session result = stale;
+            if(result != null && result.getId().equals(key)) {
+                stale = null;
+                return result;
+            }
+            return super.get(key);
+        }
+    }
+}
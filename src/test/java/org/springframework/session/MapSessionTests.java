@@ -3,6 +3,10 @@ package org.springframework.session;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Set;
 
 import static org.fest.assertions.Assertions.assertThat;
@@ -18,7 +22,17 @@ public class MapSessionTests {
 
     @Test(expected = IllegalArgumentException.class)
     public void constructorNullSession() {
-        new MapSession(null);
+        new MapSession((Session) null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullId() {
+        new MapSession((String) null);
+    }
+
+    @Test
+    public void constructorId() {
+        assertThat(new MapSession("id").getId()).isEqualTo("id");
     }
 
     /**
@@ -50,6 +64,54 @@ public class MapSessionTests {
         assertThat(session.hashCode()).isEqualTo(session.getId().hashCode());
     }
 
+    @Test
+    public void isExpiredExact() {
+        session.setMaxInactiveInterval(1);
+        session.setLastAccessedTime(1000L);
+
+        assertThat(session.isExpired(1999L)).isFalse();
+        assertThat(session.isExpired(2000L)).isTrue();
+    }
+
+    @Test
+    public void isExpiredNegativeMaxInactiveInterval() {
+        session.setMaxInactiveInterval(-1);
+        session.setLastAccessedTime(0L);
+
+        assertThat(session.isExpired(Long.MAX_VALUE)).isFalse();
+    }
+
+    @Test
+    public void copyIsolatedFromOriginal() {
+        session.setAttribute("a", "a");
+        MapSession copy = new MapSession(session);
+
+        copy.setAttribute("a", "b");
+        copy.setAttribute("c", "c");
+
+        assertThat(session.getAttribute("a")).isEqualTo("a");
+        assertThat(session.getAttributeNames()).containsOnly("a");
+        assertThat(copy.getAttributeNames()).containsOnly("a", "c");
+    }
+
+    @Test
+    public void originalIsolatedFromCopy() {
+        session.setAttribute("a", "a");
+        MapSession copy = new MapSession(session);
+
+        session.removeAttribute("a");
+
+        assertThat(copy.getAttribute("a")).isEqualTo("a");
+        assertThat(session.getAttributeNames()).isEmpty();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getAttributeNamesUnmodifiable() {
+        session.setAttribute("a", "a");
+
+        session.getAttributeNames().remove("a");
+    }
+
     static class CustomSession implements Session {
 
         @Override
@@ -103,4 +165,32 @@ public class MapSessionTests {
         }
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void serialization() throws Exception {
+        session.setAttribute("a", "b");
+        session.setMaxInactiveInterval(42);
+        session.setLastAccessedTime(1000L);
+
+        byte[] serialized = serialize(session);
+        MapSession deserialized = (MapSession) new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+
+        assertThat(new String(serialized, "ISO-8859-1")).doesNotContain(CompactAttributeMap.class.getName());
+        assertThat(deserialized.getId()).isEqualTo(session.getId());
+        assertThat(deserialized.getAttributeNames()).containsOnly("a");
+        assertThat(deserialized.getAttribute("a")).isEqualTo("b");
+        assertThat(deserialized.getCreationTime()).isEqualTo(session.getCreationTime());
+        assertThat(deserialized.getLastAccessedTime()).isEqualTo(1000L);
+        assertThat(deserialized.getMaxInactiveInterval()).isEqualTo(42);
+        deserialized.setAttribute("c", "d");
+        assertThat(deserialized.getAttributeNames()).containsOnly("a", "c");
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
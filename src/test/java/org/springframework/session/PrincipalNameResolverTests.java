@@ -0,0 +1,71 @@
+package org.springframework.session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PrincipalNameResolverTests {
+    private PrincipalNameResolver resolver;
+
+    private MapSession session;
+
+    @Before
+    public void setup() {
+        resolver = new PrincipalNameResolver();
+        session = new MapSession();
+    }
+
+    @Test
+    public void resolvePrincipalNone() {
+        assertThat(resolver.resolvePrincipal(session)).isNull();
+    }
+
+    @Test
+    public void resolvePrincipalIndexAttribute() {
+        session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob");
+
+        assertThat(resolver.resolvePrincipal(session)).isEqualTo("rob");
+    }
+
+    @Test
+    public void resolvePrincipalSecurityContext() {
+        session.setAttribute(PrincipalNameResolver.SPRING_SECURITY_CONTEXT, securityContext("rob"));
+
+        assertThat(resolver.resolvePrincipal(session)).isEqualTo("rob");
+    }
+
+    @Test
+    public void resolvePrincipalIndexAttributeTakesPrecedence() {
+        session.setAttribute(PrincipalNameResolver.SPRING_SECURITY_CONTEXT, securityContext("rob"));
+        session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "luke");
+
+        assertThat(resolver.resolvePrincipal(session)).isEqualTo("luke");
+    }
+
+    @Test
+    public void resolvePrincipalUnknownContextType() {
+        session.setAttribute(PrincipalNameResolver.SPRING_SECURITY_CONTEXT, "not a context");
+
+        assertThat(resolver.resolvePrincipal(session)).isNull();
+        assertThat(resolver.resolvePrincipal(session)).isNull();
+    }
+
+    @Test
+    public void isPrincipalAttribute() {
+        assertThat(resolver.isPrincipalAttribute(PrincipalNameResolver.SPRING_SECURITY_CONTEXT)).isTrue();
+        assertThat(resolver.isPrincipalAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME)).isTrue();
+        assertThat(resolver.isPrincipalAttribute("other")).isFalse();
+    }
+
+    static SecurityContext securityContext(String username) {
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(new UsernamePasswordAuthenticationToken(username, "password",
+                AuthorityUtils.createAuthorityList("ROLE_USER")));
+        return context;
+    }
+}
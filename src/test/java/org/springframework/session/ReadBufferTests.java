@@ -0,0 +1,36 @@
+package org.springframework.session;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReadBufferTests {
+    private ReadBuffer buffer = new ReadBuffer();
+
+    @Test
+    public void offerRequestsDrainAtThreshold() {
+        for(int i = 0; i < 15; i++) {
+            assertThat(buffer.offer("id" + i)).isFalse();
+        }
+        assertThat(buffer.offer("id15")).isTrue();
+    }
+
+    @Test
+    public void offerWhenFullRequestsDrain() {
+        for(int i = 0; i < 32; i++) {
+            buffer.offer("id" + i);
+        }
+        assertThat(buffer.offer("dropped")).isTrue();
+    }
+
+    @Test
+    public void drainToEmptiesBuffer() {
+        for(int i = 0; i < 32; i++) {
+            buffer.offer("id" + i);
+        }
+
+        buffer.drainTo(new WindowTinyLfuPolicy(10));
+
+        assertThat(buffer.offer("id")).isFalse();
+    }
+}
@@ -0,0 +1,42 @@
+package org.springframework.session;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SecureRandomSessionIdGeneratorTests {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorLengthTooShort() {
+        new SecureRandomSessionIdGenerator(8);
+    }
+
+    @Test
+    public void generateIdIsUrlSafe() {
+        SecureRandomSessionIdGenerator generator = new SecureRandomSessionIdGenerator();
+        for(int i = 0; i < 1000; i++) {
+            String id = generator.generateId();
+            assertThat(id).hasSize(22);
+            assertThat(id.matches("[A-Za-z0-9_-]+")).isTrue();
+        }
+    }
+
+    @Test
+    public void generateIdCustomLength() {
+        assertThat(new SecureRandomSessionIdGenerator(32).generateId()).hasSize(43);
+        assertThat(new SecureRandomSessionIdGenerator(18).generateId()).hasSize(24);
+    }
+
+    @Test
+    public void generateIdUnique() {
+        SecureRandomSessionIdGenerator generator = new SecureRandomSessionIdGenerator();
+        Set<String> ids = new HashSet<String>();
+        for(int i = 0; i < 10000; i++) {
+            ids.add(generator.generateId());
+        }
+        assertThat(ids).hasSize(10000);
+    }
+}
@@ -0,0 +1,104 @@
+package org.springframework.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SessionExpirationIndexTests {
+    private SessionExpirationIndex index = new SessionExpirationIndex(1000L);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroResolution() {
+        new SessionExpirationIndex(0L);
+    }
+
+    @Test
+    public void drainExpiredReturnsDueIds() {
+        index.schedule("a", 1500L);
+        index.schedule("b", 2000L);
+        index.schedule("c", 5000L);
+
+        assertThat(index.drainExpired(1999L)).isEmpty();
+        assertThat(index.drainExpired(2000L)).containsOnly("a", "b");
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.drainExpired(2000L)).isEmpty();
+        assertThat(index.drainExpired(5000L)).containsOnly("c");
+        assertThat(index.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void scheduleMovesId() {
+        index.schedule("a", 2000L);
+
+        index.schedule("a", 10000L);
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.drainExpired(9000L)).isEmpty();
+        assertThat(index.drainExpired(10000L)).containsOnly("a");
+    }
+
+    @Test
+    public void remove() {
+        index.schedule("a", 2000L);
+        index.schedule("b", 2000L);
+
+        index.remove("a");
+        index.remove("missing");
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.drainExpired(2000L)).containsOnly("b");
+    }
+
+    @Test
+    public void scheduleAlreadyDueIsFoundByNextDrain() {
+        index.schedule("a", 100000L);
+        assertThat(index.drainExpired(50000L)).isEmpty();
+
+        index.schedule("b", 1000L);
+
+        assertThat(index.drainExpired(50000L)).containsOnly("b");
+    }
+
+    @Test
+    public void bucketsBeyondWheelAreKeptUntilDue() {
+        index.schedule("a", 1000L);
+        index.schedule("b", 1000L + 10000000L);
+        assertThat(index.drainExpired(1000L)).containsOnly("a");
+
+        for(long now = 2000L; now < 10000000L; now += 100000L) {
+            assertThat(index.drainExpired(now)).isEmpty();
+        }
+
+        assertThat(index.drainExpired(1000L + 10000000L)).containsOnly("b");
+    }
+
+    @Test
+    public void manyIds() {
+        List<String> ids = new ArrayList<String>();
+        for(int i = 0; i < 100000; i++) {
+            ids.add("session" + i);
+            index.schedule("session" + i, 1000L * (i % 100));
+        }
+        for(int i = 0; i < ids.size(); i += 2) {
+            index.remove(ids.get(i));
+        }
+        for(int i = 1; i < ids.size(); i += 4) {
+            index.schedule(ids.get(i), 1000000L);
+        }
+        assertThat(index.size()).isEqualTo(50000);
+
+        Set<String> expired = new HashSet<String>(index.drainExpired(100000L));
+
+        assertThat(expired.size()).isEqualTo(25000);
+        for(int i = 3; i < ids.size(); i += 4) {
+            assertThat(expired.contains(ids.get(i))).isTrue();
+        }
+        assertThat(new HashSet<String>(index.drainExpired(1000000L)).size()).isEqualTo(25000);
+        assertThat(index.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,63 @@
+package org.springframework.session;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class SessionSizeMonitorTests {
+    private SessionSizeMonitor monitor = new SessionSizeMonitor();
+
+    @Test
+    public void recordsSessionAndAttributeSizes() {
+        monitor.record(sizes("a", 10, "b", 100));
+        monitor.record(sizes("a", 12));
+
+        assertThat(monitor.getSessionSizes().getCount()).isEqualTo(2);
+        assertThat(monitor.getSessionSizes().getMax()).isEqualTo(110);
+        assertThat(monitor.getAttributeSizes().get("a").getCount()).isEqualTo(2);
+        assertThat(monitor.getAttributeSizes().get("a").getMax()).isEqualTo(12);
+        assertThat(monitor.getAttributeSizes().get("b").getMax()).isEqualTo(100);
+    }
+
+    @Test
+    public void softLimitIsCounted() {
+        monitor.setSoftLimit(100);
+
+        assertThat(monitor.record(sizes("a", 10, "b", 100))).isEqualTo(110);
+        monitor.record(sizes("a", 10));
+
+        assertThat(monitor.getSoftLimitExceededCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void hardLimitRejectsAndNamesLargestAttributes() {
+        monitor.setHardLimit(100);
+
+        try {
+            monitor.record(sizes("small", 10, "large", 150, "medium", 50));
+            fail("Expected IllegalStateException");
+        } catch(IllegalStateException success) {
+            assertThat(success.getMessage()).contains("large=150").excludes("medium").excludes("small");
+        }
+
+        assertThat(monitor.getHardLimitExceededCount()).isEqualTo(1);
+        assertThat(monitor.getSessionSizes().getCount()).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setHardLimitZero() {
+        monitor.setHardLimit(0);
+    }
+
+    private static Map<String, Integer> sizes(Object... namesAndSizes) {
+        Map<String, Integer> sizes = new HashMap<String, Integer>();
+        for(int i = 0; i < namesAndSizes.length; i += 2) {
+            sizes.put((String) namesAndSizes[i], (Integer) namesAndSizes[i + 1]);
+        }
+        return sizes;
+    }
+}
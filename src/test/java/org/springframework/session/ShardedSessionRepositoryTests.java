@@ -0,0 +1,158 @@
+package org.springframework.session;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ShardedSessionRepositoryTests {
+    private static final int SHARDS = 4;
+
+    private ManualClock clock;
+
+    private ShardedSessionRepository repository;
+
+    @Before
+    public void setup() {
+        clock = new ManualClock(1000L);
+        repository = new ShardedSessionRepository(SHARDS);
+        repository.setClock(clock);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroShards() {
+        new ShardedSessionRepository(0);
+    }
+
+    @Test
+    public void defaultShardCountScalesWithProcessors() {
+        assertThat(new ShardedSessionRepository().getShardCount()).isEqualTo(
+                Runtime.getRuntime().availableProcessors() * ShardedSessionRepository.DEFAULT_SHARDS_PER_PROCESSOR);
+    }
+
+    @Test
+    public void saveGetAndDelete() {
+        Session toSave = repository.createSession();
+        toSave.setAttribute("a", "b");
+        repository.save(toSave);
+
+        assertThat(repository.getSession(toSave.getId()).getAttribute("a")).isEqualTo("b");
+
+        repository.delete(toSave.getId());
+
+        assertThat(repository.getSession(toSave.getId())).isNull();
+        assertThat(repository.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void sessionsAreSpreadOverShards() {
+        List<Session> sessions = createSessions(1000);
+        repository.saveAll(sessions);
+
+        assertThat(repository.size()).isEqualTo(1000);
+        int total = 0;
+        for(int i = 0; i < SHARDS; i++) {
+            assertThat(repository.getShardSize(i)).isGreaterThan(150);
+            total += repository.getShardSize(i);
+        }
+        assertThat(total).isEqualTo(1000);
+        for(Session session : sessions) {
+            assertThat(repository.getSession(session.getId())).isNotNull();
+        }
+        assertThat(repository.getHitCount()).isEqualTo(1000);
+    }
+
+    @Test
+    public void getSessionsKeepsOrderOfIds() {
+        List<Session> sessions = createSessions(20);
+        repository.saveAll(sessions);
+        List<String> ids = new ArrayList<String>();
+        for(int i = sessions.size() - 1; i >= 0; i--) {
+            ids.add(sessions.get(i).getId());
+        }
+        ids.add(1, "missing");
+
+        Map<String, Session> result = repository.getSessions(ids);
+
+        ids.remove("missing");
+        assertThat(new ArrayList<String>(result.keySet())).isEqualTo(ids);
+        assertThat(repository.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void deleteAll() {
+        List<Session> sessions = createSessions(20);
+        repository.saveAll(sessions);
+
+        repository.deleteAll(Arrays.asList(sessions.get(0).getId(), sessions.get(1).getId(), "missing"));
+
+        assertThat(repository.size()).isEqualTo(18);
+        assertThat(repository.getSession(sessions.get(0).getId())).isNull();
+        assertThat(repository.getSession(sessions.get(2).getId())).isNotNull();
+    }
+
+    @Test
+    public void findByPrincipalNameSearchesEveryShard() {
+        List<Session> sessions = createSessions(20);
+        for(Session session : sessions) {
+            session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob");
+        }
+        repository.saveAll(sessions);
+
+        Map<String, Session> result = repository.findByIndexNameAndIndexValue(
+                FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "rob");
+
+        assertThat(result.size()).isEqualTo(20);
+    }
+
+    @Test
+    public void cleanupExpiredSessionsPerShard() {
+        List<Session> sessions = createSessions(100);
+        for(Session session : sessions) {
+            session.setMaxInactiveInterval(1);
+        }
+        repository.saveAll(sessions);
+        clock.advance(5000L);
+        int shard = repository.shardIndexFor(sessions.get(0).getId());
+        int others = repository.size() - repository.getShardSize(shard);
+
+        repository.cleanupExpiredSessions(shard);
+
+        assertThat(repository.getShardSize(shard)).isEqualTo(0);
+        assertThat(repository.size()).isEqualTo(others);
+
+        repository.cleanupExpiredSessions();
+
+        assertThat(repository.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void maximumSizeIsDividedBetweenShards() {
+        repository.setMaximumSize(40);
+
+        repository.saveAll(createSessions(400));
+
+        for(int i = 0; i < SHARDS; i++) {
+            assertThat(repository.getShardSize(i)).isLessThanOrEqualTo(10);
+        }
+        assertThat(repository.getEvictionCount()).isEqualTo(400 - repository.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getShardSizeOutOfRange() {
+        repository.getShardSize(SHARDS);
+    }
+
+    private List<Session> createSessions(int count) {
+        List<Session> sessions = new ArrayList<Session>();
+        for(int i = 0; i < count; i++) {
+            sessions.add(repository.createSession());
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,56 @@
+package org.springframework.session;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SizeHistogramTests {
+    private SizeHistogram histogram = new SizeHistogram();
+
+    @Test
+    public void empty() {
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getMax()).isEqualTo(0);
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordNegative() {
+        histogram.record(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileZero() {
+        histogram.getValueAtPercentile(0);
+    }
+
+    @Test
+    public void smallSizesAreExact() {
+        for(int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(10);
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(5);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(10);
+    }
+
+    @Test
+    public void percentilesWithinPrecision() {
+        for(int i = 1; i <= 10000; i++) {
+            histogram.record(i * 100);
+        }
+
+        assertThat(histogram.getMax()).isEqualTo(1000000);
+        assertThat(histogram.getValueAtPercentile(50)).isGreaterThanOrEqualTo(500000).isLessThanOrEqualTo(562500);
+        assertThat(histogram.getValueAtPercentile(99)).isGreaterThanOrEqualTo(990000).isLessThanOrEqualTo(1000000);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(1000000);
+    }
+
+    @Test
+    public void largestSize() {
+        histogram.record(Integer.MAX_VALUE);
+
+        assertThat(histogram.getValueAtPercentile(99)).isEqualTo(Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,280 @@
+package org.springframework.session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TieredSessionRepositoryTests {
+    private MapSessionRepository local;
+
+    private CountingSessionRepository backing;
+
+    private TieredSessionRepository<Session> repository;
+
+    @Before
+    public void setup() {
+        local = new MapSessionRepository();
+        backing = new CountingSessionRepository();
+        // flushes are triggered by the tests
+        repository = new TieredSessionRepository<Session>(local, backing, Long.MAX_VALUE / 2);
+    }
+
+    @After
+    public void close() {
+        repository.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullLocal() {
+        new TieredSessionRepository<Session>(null, backing);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullBacking() {
+        new TieredSessionRepository<Session>(local, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorMaxStalenessZero() {
+        new TieredSessionRepository<Session>(local, backing, 0);
+    }
+
+    @Test
+    public void saveWritesBehind() {
+        Session session = repository.createSession();
+        session.setAttribute("a", "b");
+
+        repository.save(session);
+
+        assertThat(repository.getSession(session.getId()).getAttribute("a")).isEqualTo("b");
+        assertThat(backing.getSession(session.getId())).isNull();
+        assertThat(repository.getPendingCount()).isEqualTo(1);
+
+        repository.flush();
+
+        assertThat(backing.getSession(session.getId()).getAttribute("a")).isEqualTo("b");
+        assertThat(repository.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void savesCoalesced() {
+        Session session = repository.createSession();
+        for(int i = 0; i < 10; i++) {
+            session.setAttribute("count", i);
+            repository.save(session);
+        }
+        Session other = repository.createSession();
+        repository.save(other);
+
+        repository.flush();
+
+        assertThat(backing.saved.get()).isEqualTo(2);
+        assertThat(backing.getSession(session.getId()).getAttribute("count")).isEqualTo(9);
+    }
+
+    @Test
+    public void concurrentChangesToDifferentAttributesAreKept() {
+        Session session = repository.createSession();
+        repository.save(session);
+        repository.flush();
+        Session first = repository.getSession(session.getId());
+        Session second = repository.getSession(session.getId());
+        first.setAttribute("a", "b");
+        second.setAttribute("c", "d");
+        second.removeAttribute("missing");
+
+        repository.save(first);
+        repository.save(second);
+        repository.flush();
+
+        Session written = backing.getSession(session.getId());
+        assertThat(written.getAttribute("a")).isEqualTo("b");
+        assertThat(written.getAttribute("c")).isEqualTo("d");
+    }
+
+    @Test
+    public void getSessionLoadsFromBacking() {
+        Session stored = backing.createSession();
+        stored.setAttribute("a", "b");
+        backing.save(stored);
+
+        Session session = repository.getSession(stored.getId());
+        session.setAttribute("c", "d");
+        repository.save(session);
+        repository.flush();
+
+        assertThat(local.containsSession(stored.getId())).isTrue();
+        Session written = backing.getSession(stored.getId());
+        assertThat(written.getAttribute("a")).isEqualTo("b");
+        assertThat(written.getAttribute("c")).isEqualTo("d");
+    }
+
+    @Test
+    public void getSessionEvictedLocallyIncludesPendingChanges() {
+        Session session = repository.createSession();
+        session.setAttribute("a", "b");
+        repository.save(session);
+        local.delete(session.getId());
+
+        assertThat(repository.getSession(session.getId()).getAttribute("a")).isEqualTo("b");
+
+        repository.flush();
+
+        assertThat(backing.getSession(session.getId()).getAttribute("a")).isEqualTo("b");
+    }
+
+    @Test
+    public void deleteWritesBehind() {
+        Session session = repository.createSession();
+        repository.save(session);
+        repository.flush();
+
+        repository.delete(session.getId());
+
+        assertThat(repository.getSession(session.getId())).isNull();
+        assertThat(backing.getSession(session.getId())).isNotNull();
+
+        repository.flush();
+
+        assertThat(backing.getSession(session.getId())).isNull();
+    }
+
+    @Test
+    public void failedFlushRetried() {
+        Session session = repository.createSession();
+        session.setAttribute("a", "b");
+        repository.save(session);
+        backing.failures.set(1);
+
+        repository.flush();
+
+        assertThat(repository.getFlushFailureCount()).isEqualTo(1);
+        assertThat(repository.getPendingCount()).isEqualTo(1);
+        assertThat(backing.getSession(session.getId())).isNull();
+
+        session.setAttribute("c", "d");
+        repository.save(session);
+        repository.flush();
+
+        Session written = backing.getSession(session.getId());
+        assertThat(written.getAttribute("a")).isEqualTo("b");
+        assertThat(written.getAttribute("c")).isEqualTo("d");
+        assertThat(repository.getFlushCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void closeFlushes() {
+        Session session = repository.createSession();
+        repository.save(session);
+
+        repository.close();
+
+        assertThat(backing.getSession(session.getId())).isNotNull();
+    }
+
+    @Test
+    public void closeWithoutFlush() {
+        repository.setFlushOnClose(false);
+        Session session = repository.createSession();
+        repository.save(session);
+
+        repository.close();
+
+        assertThat(backing.getSession(session.getId())).isNull();
+    }
+
+    @Test
+    public void flushesInBackground() throws Exception {
+        repository.close();
+        repository = new TieredSessionRepository<Session>(local, backing, 10);
+        repository.start();
+        Session session = repository.createSession();
+        repository.save(session);
+
+        for(int i = 0; i < 500 && backing.getSession(session.getId()) == null; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(backing.getSession(session.getId())).isNotNull();
+        // the statistics are recorded once a flush completes, which is only certain once the flusher stopped
+        repository.close();
+        assertThat(repository.getFlushCount()).isGreaterThan(0);
+        assertThat(repository.getMaxFlushNanos()).isGreaterThanOrEqualTo(repository.getLastFlushNanos());
+        assertThat(repository.getTotalFlushNanos()).isGreaterThanOrEqualTo(repository.getMaxFlushNanos());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void startTwice() {
+        repository.start();
+        repository.start();
+    }
+
+    @Test
+    public void flushReleasesWrittenSessions() {
+        Session session = repository.createSession();
+        session.setAttribute("a", "b");
+        repository.save(session);
+        Session stored = backing.createSession();
+        backing.save(stored);
+        repository.getSession(stored.getId());
+
+        assertThat(repository.getRetainedCount()).isEqualTo(2);
+
+        repository.flush();
+
+        assertThat(repository.getRetainedCount()).isEqualTo(0);
+
+        Session changed = repository.getSession(session.getId());
+        changed.setAttribute("c", "d");
+        repository.save(changed);
+        repository.flush();
+
+        Session written = backing.getSession(session.getId());
+        assertThat(written.getAttribute("a")).isEqualTo("b");
+        assertThat(written.getAttribute("c")).isEqualTo("d");
+        assertThat(repository.getRetainedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void flushReleasesUnsavedSessionsOnceExpired() {
+        ManualClock clock = new ManualClock(1000L);
+        backing.setClock(clock);
+        repository.setClock(clock);
+        Session session = repository.createSession();
+
+        repository.flush();
+
+        assertThat(repository.getRetainedCount()).isEqualTo(1);
+
+        clock.advance(TimeUnit.SECONDS.toMillis(session.getMaxInactiveInterval()));
+        repository.flush();
+
+        assertThat(repository.getRetainedCount()).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setClockNull() {
+        repository.setClock(null);
+    }
+
+    static class CountingSessionRepository extends MapSessionRepository {
+        final AtomicInteger saved = new AtomicInteger();
+
+        final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public void saveAll(Collection<? extends Session> sessions) {
+            if(failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Expected failure");
+            }
+            saved.addAndGet(sessions.size());
+            super.saveAll(sessions);
+        }
+    }
+}
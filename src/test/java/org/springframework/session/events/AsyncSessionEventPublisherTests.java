@@ -0,0 +1,210 @@
+package org.springframework.session.events;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AsyncSessionEventPublisherTests {
+    private AsyncSessionEventPublisher publisher;
+
+    private RecordingListener listener;
+
+    @Before
+    public void setup() {
+        publisher = new AsyncSessionEventPublisher(2);
+        listener = new RecordingListener();
+        publisher.addSessionEventListener(listener);
+    }
+
+    @After
+    public void close() {
+        listener.release.countDown();
+        publisher.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroCapacity() {
+        new AsyncSessionEventPublisher(0);
+    }
+
+    @Test
+    public void publishDeliversInOrder() throws Exception {
+        listener.release.countDown();
+        publisher = new AsyncSessionEventPublisher();
+        publisher.addSessionEventListener(listener);
+
+        for(int i = 0; i < 100; i++) {
+            publisher.publish(event(i));
+        }
+        publisher.close();
+
+        assertThat(listener.sessionIds()).isEqualTo(ids(0, 100));
+        assertThat(listener.batches).isLessThanOrEqualTo(100);
+        assertThat(listener.threads).excludes(Thread.currentThread().getName());
+    }
+
+    @Test
+    public void dropNewest() throws Exception {
+        fillWhileDispatcherBusy();
+
+        publisher.publish(event(3));
+
+        assertThat(publisher.getDroppedCount()).isEqualTo(1);
+        listener.release.countDown();
+        publisher.close();
+        assertThat(listener.sessionIds()).isEqualTo(ids(0, 3));
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        publisher.setOverflowPolicy(AsyncSessionEventPublisher.OverflowPolicy.DROP_OLDEST);
+        fillWhileDispatcherBusy();
+
+        publisher.publish(event(3));
+
+        assertThat(publisher.getDroppedCount()).isEqualTo(1);
+        listener.release.countDown();
+        publisher.close();
+        List<String> expected = new ArrayList<String>();
+        expected.add("0");
+        expected.add("2");
+        expected.add("3");
+        assertThat(listener.sessionIds()).isEqualTo(expected);
+    }
+
+    @Test
+    public void callerRuns() throws Exception {
+        publisher.setOverflowPolicy(AsyncSessionEventPublisher.OverflowPolicy.CALLER_RUNS);
+        fillWhileDispatcherBusy();
+
+        publisher.publish(event(3));
+
+        assertThat(publisher.getDroppedCount()).isEqualTo(0);
+        assertThat(listener.threads).contains(Thread.currentThread().getName());
+        listener.release.countDown();
+        publisher.close();
+        assertThat(listener.sessionIds()).containsOnly("0", "1", "2", "3");
+    }
+
+    @Test
+    public void listenerExceptionDoesNotStopDelivery() throws Exception {
+        listener.release.countDown();
+        publisher.addSessionEventListener(new SessionEventListener() {
+            public void onSessionEvents(List<SessionEvent> events) {
+                throw new IllegalStateException();
+            }
+        });
+
+        publisher.publish(event(0));
+        publisher.publish(event(1));
+        publisher.close();
+
+        assertThat(listener.sessionIds()).isEqualTo(ids(0, 2));
+    }
+
+    @Test
+    public void publishAfterCloseIsDropped() {
+        listener.release.countDown();
+        publisher.close();
+
+        publisher.publish(event(0));
+
+        assertThat(publisher.getDroppedCount()).isEqualTo(1);
+        assertThat(listener.sessionIds()).isEmpty();
+    }
+
+    @Test
+    public void publishConcurrentlyWithCloseIsDeliveredOrDropped() throws Exception {
+        listener.release.countDown();
+        publisher = new AsyncSessionEventPublisher();
+        publisher.addSessionEventListener(listener);
+        final CountDownLatch publishing = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<Thread>();
+        for(int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    publishing.countDown();
+                    for(int i = 0; i < 10000; i++) {
+                        publisher.publish(event(i));
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        assertThat(publishing.await(5, TimeUnit.SECONDS)).isTrue();
+        publisher.close();
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(listener.sessionIds().size() + publisher.getDroppedCount()).isEqualTo(40000L);
+        assertThat(publisher.getPendingCount()).isEqualTo(0);
+    }
+
+    /**
+     * Blocks the dispatcher delivering event 0 and then fills the queue with events 1 and 2
+     */
+    private void fillWhileDispatcherBusy() throws Exception {
+        publisher.publish(event(0));
+        assertThat(listener.started.await(5, TimeUnit.SECONDS)).isTrue();
+        publisher.publish(event(1));
+        publisher.publish(event(2));
+        assertThat(publisher.getPendingCount()).isEqualTo(2);
+    }
+
+    private static SessionEvent event(int i) {
+        return new SessionEvent(SessionEvent.Type.CREATED, String.valueOf(i), i);
+    }
+
+    private static List<String> ids(int from, int to) {
+        List<String> ids = new ArrayList<String>();
+        for(int i = from; i < to; i++) {
+            ids.add(String.valueOf(i));
+        }
+        return ids;
+    }
+
+    static class RecordingListener implements SessionEventListener {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<SessionEvent> events = new ArrayList<SessionEvent>();
+        final List<String> threads = new ArrayList<String>();
+        int batches;
+
+        public synchronized void onSessionEvents(List<SessionEvent> events) {
+            this.batches++;
+            this.events.addAll(events);
+            this.threads.add(Thread.currentThread().getName());
+            if(!Thread.currentThread().getName().equals("session-event-dispatcher")) {
+                return;
+            }
+            started.countDown();
+            try {
+                // the lock is released while waiting so the caller can deliver events
+                while(release.getCount() > 0) {
+                    wait(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized List<String> sessionIds() {
+            List<String> ids = new ArrayList<String>();
+            for(SessionEvent event : events) {
+                ids.add(event.getSessionId());
+            }
+            return ids;
+        }
+    }
+}
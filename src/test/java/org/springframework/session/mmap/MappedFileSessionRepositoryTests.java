@@ -0,0 +1,188 @@
+package org.springframework.session.mmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.session.ManualClock;
+import org.springframework.session.Session;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MappedFileSessionRepositoryTests {
+    private static final int SEGMENT_SIZE = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    private MappedFileSessionRepository repository;
+
+    @Before
+    public void setup() throws Exception {
+        directory = folder.newFolder();
+        repository = new MappedFileSessionRepository(directory, SEGMENT_SIZE);
+    }
+
+    @After
+    public void close() {
+        repository.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDirectory() throws Exception {
+        new MappedFileSessionRepository(null);
+    }
+
+    @Test
+    public void saveAndGetSession() {
+        Session toSave = repository.createSession();
+        toSave.setAttribute("a", "b");
+
+        repository.save(toSave);
+        Session session = repository.getSession(toSave.getId());
+
+        assertThat(session.getId()).isEqualTo(toSave.getId());
+        assertThat(session.getAttribute("a")).isEqualTo("b");
+        assertThat(session.getLastAccessedTime()).isEqualTo(toSave.getLastAccessedTime());
+    }
+
+    @Test
+    public void delete() {
+        Session toSave = repository.createSession();
+        repository.save(toSave);
+
+        repository.delete(toSave.getId());
+
+        assertThat(repository.getSession(toSave.getId())).isNull();
+    }
+
+    @Test
+    public void restartLoadsSessions() throws Exception {
+        Session kept = repository.createSession();
+        kept.setAttribute("a", "b");
+        repository.save(kept);
+        kept.setAttribute("a", "c");
+        repository.save(kept);
+        Session deleted = repository.createSession();
+        repository.save(deleted);
+        repository.delete(deleted.getId());
+        repository.close();
+
+        repository = new MappedFileSessionRepository(directory, SEGMENT_SIZE);
+
+        assertThat(repository.size()).isEqualTo(1);
+        assertThat(repository.getSession(kept.getId()).getAttribute("a")).isEqualTo("c");
+        assertThat(repository.getSession(deleted.getId())).isNull();
+    }
+
+    @Test
+    public void restartSkipsExpiredUsingClock() throws Exception {
+        repository.setClock(new ManualClock(1000L));
+        Session expired = repository.createSession();
+        expired.setMaxInactiveInterval(10);
+        repository.save(expired);
+        Session kept = repository.createSession();
+        kept.setMaxInactiveInterval(20);
+        repository.save(kept);
+        repository.close();
+
+        repository = new MappedFileSessionRepository(directory, SEGMENT_SIZE, new ManualClock(11000L));
+
+        assertThat(repository.size()).isEqualTo(1);
+        assertThat(repository.getSession(kept.getId())).isNotNull();
+    }
+
+    @Test
+    public void restartIgnoresIncompleteRecord() throws Exception {
+        Session first = repository.createSession();
+        repository.save(first);
+        Session second = repository.createSession();
+        repository.save(second);
+        repository.close();
+        File segment = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            // corrupt the last byte of the second record
+            long length = firstEmptyPosition(raf);
+            raf.seek(length - 1);
+            int last = raf.read();
+            raf.seek(length - 1);
+            raf.write(last ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        repository = new MappedFileSessionRepository(directory, SEGMENT_SIZE);
+
+        assertThat(repository.getSession(first.getId())).isNotNull();
+        assertThat(repository.getSession(second.getId())).isNull();
+        Session third = repository.createSession();
+        repository.save(third);
+        assertThat(repository.getSession(third.getId())).isNotNull();
+    }
+
+    @Test
+    public void cleanupExpiredSessions() {
+        Session expired = repository.createSession();
+        expired.setMaxInactiveInterval(1);
+        expired.setLastAccessedTime(System.currentTimeMillis() - 2000L);
+        repository.save(expired);
+        Session active = repository.createSession();
+        repository.save(active);
+
+        repository.cleanupExpiredSessions();
+
+        assertThat(repository.size()).isEqualTo(1);
+        assertThat(repository.getSession(active.getId())).isNotNull();
+    }
+
+    @Test
+    public void compactRemovesGarbageSegments() throws Exception {
+        List<Session> sessions = new ArrayList<Session>();
+        for(int i = 0; i < 200; i++) {
+            Session session = repository.createSession();
+            session.setAttribute("i", i);
+            repository.save(session);
+            sessions.add(session);
+        }
+        for(int i = 0; i < sessions.size(); i++) {
+            if(i % 10 != 0) {
+                repository.delete(sessions.get(i).getId());
+            }
+        }
+        int segments = repository.getSegmentCount();
+
+        repository.compact();
+
+        assertThat(repository.getSegmentCount()).isLessThan(segments);
+        for(int i = 0; i < sessions.size(); i += 10) {
+            assertThat(repository.getSession(sessions.get(i).getId()).getAttribute("i")).isEqualTo(i);
+        }
+        repository.close();
+        repository = new MappedFileSessionRepository(directory, SEGMENT_SIZE);
+        assertThat(repository.size()).isEqualTo(20);
+        for(int i = 0; i < sessions.size(); i += 10) {
+            assertThat(repository.getSession(sessions.get(i).getId()).getAttribute("i")).isEqualTo(i);
+        }
+    }
+
+    private static long firstEmptyPosition(RandomAccessFile raf) throws Exception {
+        long position = 0;
+        while(true) {
+            raf.seek(position);
+            int length = raf.readInt();
+            if(length == 0) {
+                return position;
+            }
+            position += length;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.springframework.session.offheap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.session.Session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class OffHeapSessionRepositoryTests {
+    private OffHeapSessionRepository repository;
+
+    @Before
+    public void setup() {
+        repository = new OffHeapSessionRepository(8 * 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorSlabSizeTooSmall() {
+        new OffHeapSessionRepository(1);
+    }
+
+    @Test
+    public void saveAndGetSession() {
+        Session toSave = repository.createSession();
+        toSave.setAttribute("a", "b");
+        toSave.setMaxInactiveInterval(60);
+
+        repository.save(toSave);
+        Session session = repository.getSession(toSave.getId());
+
+        assertThat(session.getId()).isEqualTo(toSave.getId());
+        assertThat(session.getAttribute("a")).isEqualTo("b");
+        assertThat(session.getMaxInactiveInterval()).isEqualTo(60);
+        assertThat(session.getCreationTime()).isEqualTo(toSave.getCreationTime());
+        assertThat(session.getLastAccessedTime()).isEqualTo(toSave.getLastAccessedTime());
+    }
+
+    @Test
+    public void getSessionIsolatedFromStored() {
+        Session toSave = repository.createSession();
+        repository.save(toSave);
+
+        repository.getSession(toSave.getId()).setAttribute("a", "b");
+
+        assertThat(repository.getSession(toSave.getId()).getAttribute("a")).isNull();
+    }
+
+    @Test
+    public void saveOverwrites() {
+        Session toSave = repository.createSession();
+        repository.save(toSave);
+        toSave.setAttribute("a", "b");
+        repository.save(toSave);
+
+        assertThat(repository.getSession(toSave.getId()).getAttribute("a")).isEqualTo("b");
+        assertThat(repository.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void delete() {
+        Session toSave = repository.createSession();
+        repository.save(toSave);
+
+        repository.delete(toSave.getId());
+
+        assertThat(repository.getSession(toSave.getId())).isNull();
+        assertThat(repository.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void getSessionExpired() {
+        Session toSave = repository.createSession();
+        toSave.setMaxInactiveInterval(1);
+        toSave.setLastAccessedTime(System.currentTimeMillis() - 2000L);
+        repository.save(toSave);
+
+        assertThat(repository.getSession(toSave.getId())).isNull();
+        assertThat(repository.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void cleanupExpiredSessions() {
+        Session expired = repository.createSession();
+        expired.setMaxInactiveInterval(1);
+        expired.setLastAccessedTime(System.currentTimeMillis() - 2000L);
+        repository.save(expired);
+        Session active = repository.createSession();
+        repository.save(active);
+
+        repository.cleanupExpiredSessions();
+
+        assertThat(repository.size()).isEqualTo(1);
+        assertThat(repository.getSession(active.getId())).isNotNull();
+    }
+
+    @Test
+    public void slabsReusedWhenSessionsAreReplaced() {
+        Session toSave = repository.createSession();
+        for(int i = 0; i < 1000; i++) {
+            toSave.setAttribute("count", i);
+            repository.save(toSave);
+        }
+
+        assertThat(repository.getSession(toSave.getId()).getAttribute("count")).isEqualTo(999);
+        assertThat(repository.getSlabCount()).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    public void compactionKeepsLiveSessions() {
+        List<Session> sessions = new ArrayList<Session>();
+        for(int i = 0; i < 2000; i++) {
+            Session session = repository.createSession();
+            session.setAttribute("i", i);
+            repository.save(session);
+            sessions.add(session);
+        }
+        for(int i = 0; i < sessions.size(); i++) {
+            if(i % 4 != 0) {
+                repository.delete(sessions.get(i).getId());
+            }
+        }
+        for(int i = 0; i < 2000; i++) {
+            repository.save(repository.createSession());
+        }
+
+        for(int i = 0; i < sessions.size(); i += 4) {
+            assertThat(repository.getSession(sessions.get(i).getId()).getAttribute("i")).isEqualTo(i);
+        }
+        assertThat(repository.size()).isEqualTo(2500);
+    }
+}
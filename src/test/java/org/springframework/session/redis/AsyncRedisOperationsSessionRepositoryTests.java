@@ -0,0 +1,89 @@
+package org.springframework.session.redis;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.session.MapSession;
+import org.springframework.session.Session;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AsyncRedisOperationsSessionRepositoryTests {
+    private RedisOperationsSessionRepository delegate;
+
+    private boolean reject;
+
+    private List<Runnable> tasks;
+
+    private AsyncRedisOperationsSessionRepository repository;
+
+    @Before
+    public void setup() {
+        delegate = mock(RedisOperationsSessionRepository.class);
+        tasks = new ArrayList<Runnable>();
+        repository = new AsyncRedisOperationsSessionRepository(delegate, new Executor() {
+            public void execute(Runnable task) {
+                if(reject) {
+                    throw new RejectedExecutionException("Expected rejection");
+                }
+                tasks.add(task);
+            }
+        });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void rejectedRunFailsQueuedOperationsAndLaterOperationsAreScheduled() throws Exception {
+        Session session = new MapSession("id");
+        when(delegate.getSessions(any(Collection.class))).thenReturn(Collections.singletonMap("id", session));
+        reject = true;
+
+        ListenableFuture<Session> rejected = repository.getSession("id");
+
+        assertFailure(rejected, RejectedExecutionException.class);
+
+        reject = false;
+        ListenableFuture<Session> loaded = repository.getSession("id");
+        assertThat(tasks).hasSize(1);
+        tasks.get(0).run();
+
+        assertThat(loaded.get()).isSameAs(session);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void errorFailsBatch() throws Exception {
+        when(delegate.getSessions(any(Collection.class))).thenThrow(new StackOverflowError());
+        ListenableFuture<Session> loaded = repository.getSession("id");
+
+        try {
+            tasks.get(0).run();
+            fail("Expected StackOverflowError");
+        } catch (StackOverflowError expected) {
+        }
+
+        assertFailure(loaded, StackOverflowError.class);
+    }
+
+    private static void assertFailure(ListenableFuture<?> future, Class<? extends Throwable> type) throws InterruptedException {
+        assertThat(future.isDone()).isTrue();
+        try {
+            future.get();
+            fail("Expected " + type.getName());
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(type);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.springframework.session.redis;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class NearCacheTests {
+    private static final Map<String, byte[]> FIELDS = Collections.emptyMap();
+
+    private NearCache cache = new NearCache(100);
+
+    @Test
+    public void invalidateRemovesOlderVersion() {
+        cache.put("id", new NearCache.Entry(5, FIELDS, Long.MAX_VALUE));
+
+        cache.invalidate("id", 5, 0);
+        assertThat(cache.get("id", 0)).isNotNull();
+
+        cache.invalidate("id", 6, 0);
+        assertThat(cache.get("id", 0)).isNull();
+    }
+
+    @Test
+    public void invalidationDuringLoadRejectsOlderCopy() {
+        cache.beginLoad("id", 0);
+
+        cache.invalidate("id", 6, 0);
+        cache.put("id", new NearCache.Entry(5, FIELDS, Long.MAX_VALUE));
+
+        assertThat(cache.get("id", 0)).isNull();
+
+        cache.put("id", new NearCache.Entry(6, FIELDS, Long.MAX_VALUE));
+
+        assertThat(cache.get("id", 0).version).isEqualTo(6);
+    }
+
+    @Test
+    public void invalidationOfCachedCopyRejectsOlderCopy() {
+        cache.put("id", new NearCache.Entry(5, FIELDS, Long.MAX_VALUE));
+
+        cache.invalidate("id", 6, 0);
+        cache.put("id", new NearCache.Entry(5, FIELDS, Long.MAX_VALUE));
+
+        assertThat(cache.get("id", 0)).isNull();
+    }
+
+    @Test
+    public void tombstoneExpires() {
+        cache.beginLoad("id", 0);
+        cache.invalidate("id", 6, 0);
+
+        assertThat(cache.get("id", NearCache.TOMBSTONE_MILLIS)).isNull();
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void endLoadRemovesPlaceholder() {
+        cache.beginLoad("id", 0);
+
+        cache.endLoad("id");
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}
@@ -2,20 +2,30 @@ package org.springframework.session.web;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.core.task.SyncTaskExecutor;
 import org.springframework.mock.web.MockFilterChain;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.session.AsyncSessionRepository;
+import org.springframework.session.ExecutorAsyncSessionRepository;
+import org.springframework.session.ManualClock;
 import org.springframework.session.MapSessionRepository;
+import org.springframework.session.Session;
 import org.springframework.session.SessionRepository;
+import org.springframework.session.events.SessionEvent;
+import org.springframework.session.events.SessionEventPublisher;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.*;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.junit.Assert.fail;
@@ -95,6 +105,141 @@ public class SessionRepositoryFilterTests {
         });
     }
 
+    @Test
+    public void doFilterLastAccessedTimeUsesClock() throws Exception {
+        final ManualClock clock = new ManualClock(1000L);
+        filter.setClock(clock);
+        doFilter(new DoInFilter() {
+            @Override
+            public void doFilter(HttpServletRequest wrappedRequest) {
+                wrappedRequest.getSession();
+            }
+        });
+        clock.advance(500L);
+        setupSession();
+
+        doFilter(new DoInFilter() {
+            @Override
+            public void doFilter(HttpServletRequest wrappedRequest) {
+                assertThat(wrappedRequest.getSession().getLastAccessedTime()).isEqualTo(1500L);
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setClockNull() {
+        filter.setClock(null);
+    }
+
+    @Test
+    public void doFilterAsyncSessionRepository() throws Exception {
+        final String ATTR = "attr";
+        filter = new SessionRepositoryFilter(new ExecutorAsyncSessionRepository<Session>(sessionRepository, new SyncTaskExecutor()));
+        doFilter(new DoInFilter() {
+            @Override
+            public void doFilter(HttpServletRequest wrappedRequest) {
+                wrappedRequest.getSession().setAttribute(ATTR, "value");
+            }
+        });
+        setupSession();
+
+        doFilter(new DoInFilter() {
+            @Override
+            public void doFilter(HttpServletRequest wrappedRequest) {
+                assertThat(wrappedRequest.getSession(false).getAttribute(ATTR)).isEqualTo("value");
+            }
+        });
+    }
+
+    @Test
+    public void doFilterAsyncSessionRepositoryLoadsLazily() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        filter = new SessionRepositoryFilter(new ExecutorAsyncSessionRepository<Session>(sessionRepository, new CollectingExecutor(tasks)));
+        Session session = sessionRepository.createSession();
+        sessionRepository.save(session);
+        setSessionCookie(session.getId());
+
+        doFilter(new DoInFilter() {
+            @Override
+            public void doFilter(HttpServletRequest wrappedRequest) {
+            }
+        });
+
+        assertThat(tasks).isEmpty();
+    }
+
+    @Test
+    public void doFilterAsyncSessionRepositoryPrefetchSession() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        filter = new SessionRepositoryFilter(new ExecutorAsyncSessionRepository<Session>(sessionRepository, new CollectingExecutor(tasks)));
+        filter.setPrefetchSession(true);
+        Session session = sessionRepository.createSession();
+        sessionRepository.save(session);
+        setSessionCookie(session.getId());
+
+        doFilter(new DoInFilter() {
+            @Override
+            public void doFilter(HttpServletRequest wrappedRequest) {
+                assertThat(tasks).hasSize(1);
+            }
+        });
+    }
+
+    @Test
+    public void doFilterAsyncStartedDoesNotWaitForSave() throws Exception {
+        final String ATTR = "attr";
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        filter = new SessionRepositoryFilter(new ExecutorAsyncSessionRepository<Session>(sessionRepository, new CollectingExecutor(tasks)));
+        request.setAsyncSupported(true);
+
+        doFilter(new DoInFilter() {
+            @Override
+            public void doFilter(HttpServletRequest wrappedRequest) {
+                wrappedRequest.startAsync();
+                wrappedRequest.getSession().setAttribute(ATTR, "value");
+            }
+        });
+
+        String id = getSessionCookie().getValue();
+        assertThat(sessionRepository.getSession(id)).isNull();
+        assertThat(tasks).hasSize(1);
+        tasks.get(0).run();
+        assertThat(sessionRepository.getSession(id).getAttribute(ATTR)).isEqualTo("value");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullAsyncSessionRepository() {
+        new SessionRepositoryFilter((AsyncSessionRepository) null);
+    }
+
+    @Test
+    public void doFilterSessionEvents() throws Exception {
+        final List<SessionEvent> events = new ArrayList<SessionEvent>();
+        filter.setSessionEventPublisher(new SessionEventPublisher() {
+            public void publish(SessionEvent event) {
+                events.add(event);
+            }
+        });
+        doFilter(new DoInFilter() {
+            @Override
+            public void doFilter(HttpServletRequest wrappedRequest) {
+                wrappedRequest.getSession();
+            }
+        });
+        setupSession();
+        doFilter(new DoInFilter() {
+            @Override
+            public void doFilter(HttpServletRequest wrappedRequest) {
+                wrappedRequest.getSession().invalidate();
+            }
+        });
+
+        assertThat(events).hasSize(2);
+        assertThat(events.get(0).getType()).isEqualTo(SessionEvent.Type.CREATED);
+        assertThat(events.get(1).getType()).isEqualTo(SessionEvent.Type.DELETED);
+        assertThat(events.get(1).getSessionId()).isEqualTo(events.get(0).getSessionId());
+    }
+
     @Test
     public void doFilterId() throws Exception {
         final String ID_ATTR = "create";
@@ -873,6 +1018,18 @@ public class SessionRepositoryFilterTests {
         filter.doFilter(request, response, chain);
     }
 
+    static class CollectingExecutor implements Executor {
+        private final List<Runnable> tasks;
+
+        CollectingExecutor(List<Runnable> tasks) {
+            this.tasks = tasks;
+        }
+
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+    }
+
     abstract class DoInFilter {
         void doFilter(HttpServletRequest wrappedRequest, HttpServletResponse wrappedResponse) throws ServletException, IOException {
             doFilter(wrappedRequest);